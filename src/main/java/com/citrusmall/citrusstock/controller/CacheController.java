@@ -0,0 +1,48 @@
+package com.citrusmall.citrusstock.controller;
+
+import com.citrusmall.citrusstock.dto.CacheStats;
+import com.citrusmall.citrusstock.service.QrOutputService;
+import com.citrusmall.citrusstock.service.ReferenceDataCache;
+import com.citrusmall.citrusstock.util.codegen.CachingQRCodeGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/warehouse/cache")
+public class CacheController {
+
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
+    @Autowired
+    private CachingQRCodeGenerator cachingQRCodeGenerator;
+
+    @Autowired
+    private QrOutputService qrOutputService;
+
+    /**
+     * Возвращает статистику попаданий и промахов in-process кэшей.
+     * Для кэша QR-кодов size и maxSize указаны в байтах.
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<List<CacheStats>> getCacheStats() {
+        List<CacheStats> stats = new ArrayList<>(referenceDataCache.getStats());
+        cachingQRCodeGenerator.getStats().ifPresent(stats::add);
+        stats.add(qrOutputService.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Полностью сбрасывает кэш справочных данных и кэш QR-кодов.
+     */
+    @DeleteMapping
+    public ResponseEntity<Void> invalidateCaches() {
+        referenceDataCache.invalidateAll();
+        cachingQRCodeGenerator.invalidateAll();
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -1,22 +1,35 @@
 package com.citrusmall.citrusstock.controller;
 
 import com.citrusmall.citrusstock.dto.BoxResponse;
+import com.citrusmall.citrusstock.dto.ProductBatchImportEvent;
 import com.citrusmall.citrusstock.dto.ProductBatchCreateRequest;
 import com.citrusmall.citrusstock.dto.ProductBatchFilterCriteria;
 import com.citrusmall.citrusstock.dto.ProductBatchResponse;
 import com.citrusmall.citrusstock.mapper.BoxMapper;
 import com.citrusmall.citrusstock.mapper.ProductBatchMapper;
 import com.citrusmall.citrusstock.model.ProductBatch;
+import com.citrusmall.citrusstock.model.enums.GoodsStatus;
 import com.citrusmall.citrusstock.service.BoxService;
+import com.citrusmall.citrusstock.service.ProductBatchImportService;
 import com.citrusmall.citrusstock.service.ProductBatchService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @RestController
@@ -35,17 +48,57 @@ public class ProductBatchController {
     @Autowired
     private BoxMapper boxMapper;
 
+    @Autowired
+    private ProductBatchImportService productBatchImportService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @PostMapping
     public ResponseEntity<ProductBatchResponse> createProductBatch(@Valid @RequestBody ProductBatchCreateRequest request) {
         // Преобразуем DTO в сущность
         ProductBatch productBatch = productBatchMapper.toProductBatch(request);
         // Создаем партию, передавая productId, supplierId и totalBoxes из запроса
         ProductBatch savedBatch = productBatchService.createProductBatch(productBatch, request.getProductId(), request.getSupplierId(), request.getTotalBoxes());
-        // Преобразуем сохраненную сущность в DTO для ответа
-        ProductBatchResponse response = productBatchMapper.toProductBatchResponse(savedBatch);
+        // Преобразуем сохраненную сущность в DTO для ответа. Коробки не отдаются: большие партии
+        // заполняются без создания сущностей, список коробок доступен отдельным запросом
+        ProductBatchResponse response = productBatchMapper.toProductBatchSummaryResponse(savedBatch);
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Потоковый импорт партий из манифеста поставки (CSV с заголовком или NDJSON).
+     * Манифест читается построчно, партии создаются порциями в отдельных транзакциях.
+     *
+     * Пример запроса:
+     * POST /api/warehouse/product-batches/import
+     * Content-Type: text/csv
+     * product,supplier,receivedAt,totalBoxes,zone
+     * Апельсины,ООО Цитрус,2024-05-01,120,RECEIVING
+     *
+     * @return NDJSON-поток событий: ошибки строк, прогресс после каждой порции и итог импорта
+     */
+    @PostMapping(value = "/import", consumes = {"text/csv", "application/x-ndjson"}, produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> importProductBatches(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            InputStream manifest) {
+        ProductBatchImportService.Format format = MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.valueOf("text/csv"))
+                ? ProductBatchImportService.Format.CSV
+                : ProductBatchImportService.Format.NDJSON;
+        StreamingResponseBody body = outputStream ->
+                productBatchImportService.importManifest(manifest, format, event -> writeEvent(outputStream, event));
+        return ResponseEntity.ok()
+                .contentType(MediaType.valueOf("application/x-ndjson"))
+                .body(body);
+    }
+
+    private void writeEvent(OutputStream outputStream, ProductBatchImportEvent event) throws IOException {
+        outputStream.write(objectMapper.writeValueAsBytes(event));
+        outputStream.write('\n');
+        // Прогресс должен доходить до клиента сразу, а не по заполнении буфера
+        outputStream.flush();
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<ProductBatchResponse> getProductBatch(@PathVariable Long id) {
         ProductBatch batch = productBatchService.getProductBatchById(id);
@@ -92,18 +145,20 @@ public class ProductBatchController {
     }
 
     /**
-     * Получает список партий, у которых коробки имеют разные статусы.
+     * Получает страницу партий, у которых коробки имеют разные статусы.
      * Помогает выявить проблемные партии, требующие внимания пользователя.
      *
-     * @return Список партий с коробками в разных статусах
+     * Пример запроса:
+     * GET /api/warehouse/product-batches/mixed-status?page=0&size=20
+     *
+     * @return Страница партий с коробками в разных статусах, упорядоченных по ID
      */
     @GetMapping("/mixed-status")
-    public ResponseEntity<List<ProductBatchResponse>> getBatchesWithMixedBoxStatuses() {
-        List<ProductBatch> batches = productBatchService.findBatchesWithMixedBoxStatuses();
-        List<ProductBatchResponse> responses = batches.stream()
-                .map(productBatchMapper::toProductBatchResponse)
-                .collect(Collectors.toList());
-        return ResponseEntity.ok(responses);
+    public ResponseEntity<Page<ProductBatchResponse>> getBatchesWithMixedBoxStatuses(Pageable pageable) {
+        // Порядок задаётся самим агрегатным запросом, поэтому сортировку из запроса не передаём
+        Page<ProductBatch> batches = productBatchService.findBatchesWithMixedBoxStatuses(
+                PageRequest.of(pageable.getPageNumber(), pageable.getPageSize()));
+        return ResponseEntity.ok(batches.map(productBatchMapper::toProductBatchSummaryResponse));
     }
     
     /**
@@ -114,18 +169,32 @@ public class ProductBatchController {
      * @return Карта со статистикой: ключ - название статуса, значение - количество коробок
      */
     @GetMapping("/{batchId}/box-status-statistics")
-    public ResponseEntity<java.util.Map<String, Long>> getBoxStatusStatistics(@PathVariable Long batchId) {
-        // Получаем статистику в виде Map<GoodsStatus, Long>
-        java.util.Map<com.citrusmall.citrusstock.model.enums.GoodsStatus, Long> statistics = 
-                productBatchService.getBoxStatusStatisticsForBatch(batchId);
-        
-        // Преобразуем ключи из GoodsStatus в строки для удобства клиента
-        java.util.Map<String, Long> response = statistics.entrySet().stream()
-                .collect(java.util.stream.Collectors.toMap(
-                        entry -> entry.getKey().name(),  // GoodsStatus -> String
-                        java.util.Map.Entry::getValue    // количество коробок
-                ));
-        
+    public ResponseEntity<Map<String, Long>> getBoxStatusStatistics(@PathVariable Long batchId) {
+        return ResponseEntity.ok(toStatusNames(productBatchService.getBoxStatusStatisticsForBatch(batchId)));
+    }
+
+    /**
+     * Получает статистику статусов коробок сразу для нескольких партий одним запросом
+     * (например, для полосы статусов в каждой строке списка партий).
+     *
+     * Пример запроса:
+     * GET /api/warehouse/product-batches/box-status-statistics?batchIds=1,2,3
+     *
+     * @param batchIds ID партий через запятую
+     * @return Карта ID партии -> (название статуса -> количество коробок)
+     */
+    @GetMapping("/box-status-statistics")
+    public ResponseEntity<Map<Long, Map<String, Long>>> getBoxStatusStatisticsForBatches(@RequestParam List<Long> batchIds) {
+        Map<Long, Map<String, Long>> response = new LinkedHashMap<>();
+        productBatchService.getBoxStatusStatisticsForBatches(batchIds)
+                .forEach((batchId, statistics) -> response.put(batchId, toStatusNames(statistics)));
         return ResponseEntity.ok(response);
     }
-}
\ No newline at end of file
+
+    // Преобразуем ключи из GoodsStatus в строки для удобства клиента
+    private Map<String, Long> toStatusNames(Map<GoodsStatus, Long> statistics) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        statistics.forEach((status, count) -> result.put(status.name(), count));
+        return result;
+    }
+}
@@ -1,20 +1,36 @@
 package com.citrusmall.citrusstock.controller;
 
 
+import com.citrusmall.citrusstock.dto.LabelExportJobStatus;
+import com.citrusmall.citrusstock.dto.LabelRenderingStats;
+import com.citrusmall.citrusstock.dto.LabelStorageStats;
+import com.citrusmall.citrusstock.exception.RenderingCapacityExceededException;
+import com.citrusmall.citrusstock.service.LabelExportService;
+import com.citrusmall.citrusstock.service.LabelFileWriter;
+import com.citrusmall.citrusstock.service.LabelRenderingBulkhead;
 import com.citrusmall.citrusstock.service.QRCodeService;
 import com.citrusmall.citrusstock.service.QrOutputService;
 import com.citrusmall.citrusstock.strategy.BoxQrOutputAdapter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.net.URI;
+import java.nio.file.Path;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/qr")
@@ -29,25 +45,133 @@ public class QRCodeController {
     @Autowired
     private BoxQrOutputAdapter boxQrOutputAdapter;
 
+    @Autowired
+    private LabelFileWriter labelFileWriter;
+
+    @Autowired
+    private LabelExportService labelExportService;
+
+    @Autowired
+    private LabelRenderingBulkhead labelRenderingBulkhead;
+
+    /**
+     * Метрики фоновой записи файлов этикеток: глубина очереди и задержка записи.
+     */
+    @GetMapping("/storage/stats")
+    public ResponseEntity<LabelStorageStats> getLabelStorageStats() {
+        return ResponseEntity.ok(labelFileWriter.getStats());
+    }
+
+    /**
+     * Загрузка bulkhead рендеринга: выполняющиеся и ожидающие задания, оценка памяти, отказы.
+     */
+    @GetMapping("/rendering/stats")
+    public ResponseEntity<LabelRenderingStats> getLabelRenderingStats() {
+        return ResponseEntity.ok(labelRenderingBulkhead.getStats());
+    }
+
+    /**
+     * Выгрузка этикеток партии. Рендеринг выполняется вне пула async-запросов MVC,
+     * ответ отправляется, когда результат готов; при перегрузке — 429 с Retry-After.
+     */
     @GetMapping("/generate/batch/{batchId}")
-    public ResponseEntity<byte[]> generateOutput(
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> generateOutput(
             @PathVariable Long batchId,
-            @RequestParam(value = "format", defaultValue = "pdf") String format) {
+            @RequestParam(value = "format", defaultValue = "pdf") String format,
+            @RequestParam(value = "layout", required = false) String layout) {
+        DeferredResult<ResponseEntity<StreamingResponseBody>> result = new DeferredResult<>();
         try {
-            byte[] output = qrOutputService.generateOutput(batchId, format);
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.parseMediaType(qrOutputService.getContentType(format)));
             headers.add("Content-Disposition", qrOutputService.getContentDisposition(batchId, format));
-            return ResponseEntity.ok().headers(headers).body(output);
+            qrOutputService.streamOutput(batchId, format, layout).whenComplete((output, error) -> {
+                if (error == null) {
+                    result.setResult(ResponseEntity.ok().headers(headers).body(output));
+                } else {
+                    handleOutputError(result, error);
+                }
+            });
         } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.badRequest().body(null);
+            handleOutputError(result, e);
         }
+        return result;
+    }
+
+    private void handleOutputError(DeferredResult<ResponseEntity<StreamingResponseBody>> result, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RenderingCapacityExceededException) {
+            // 429 с Retry-After формирует GlobalExceptionHandler
+            result.setErrorResult(cause);
+        } else {
+            cause.printStackTrace();
+            result.setResult(ResponseEntity.badRequest().body(null));
+        }
+    }
+
+    /**
+     * Запускает фоновую выгрузку этикеток партии. Ответ 202 содержит ID задания,
+     * прогресс доступен по адресу из заголовка Location.
+     *
+     * @param batchId идентификатор партии
+     * @param format  формат выгрузки ("pdf" или "zip")
+     * @param layout  раскладка этикеток для PDF
+     * @return состояние созданного задания, 503 если очередь заданий заполнена
+     */
+    @PostMapping("/export/batch/{batchId}")
+    public ResponseEntity<?> startExport(
+            @PathVariable Long batchId,
+            @RequestParam(value = "format", defaultValue = "pdf") String format,
+            @RequestParam(value = "layout", required = false) String layout) {
+        try {
+            LabelExportJobStatus status = labelExportService.submit(batchId, format, layout);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/qr/export/jobs/" + status.getJobId()))
+                    .body(status);
+        } catch (RejectedExecutionException e) {
+            Map<String, String> response = new HashMap<>();
+            response.put("message", "Export queue is full, try again later");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+        }
+    }
+
+    /**
+     * Состояние задания выгрузки: QUEUED, RUNNING, COMPLETED или FAILED и число готовых коробок.
+     */
+    @GetMapping("/export/jobs/{jobId}")
+    public ResponseEntity<LabelExportJobStatus> getExportStatus(@PathVariable String jobId) {
+        return labelExportService.getStatus(jobId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Скачивание результата задания выгрузки. Ответ поддерживает заголовок Range,
+     * поэтому прерванную загрузку большого файла можно продолжить.
+     *
+     * @param jobId ID задания
+     * @return файл выгрузки, 409 если задание ещё не завершено, 404 если неизвестно
+     */
+    @GetMapping("/export/jobs/{jobId}/download")
+    public ResponseEntity<?> downloadExport(@PathVariable String jobId) {
+        Optional<LabelExportJobStatus> status = labelExportService.getStatus(jobId);
+        if (status.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Optional<Path> artifact = labelExportService.getArtifact(jobId);
+        if (artifact.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(status.get());
+        }
+        Resource resource = new FileSystemResource(artifact.get());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(labelExportService.getContentType(status.get())));
+        headers.add("Content-Disposition", labelExportService.getContentDisposition(status.get()));
+        return ResponseEntity.ok().headers(headers).body(resource);
     }
-    
 
     /**
      * Возвращает существующий QR-код для коробки, но не генерирует новый, если его нет.
+     * Поле qrCode по-прежнему содержит Base64 PNG, поле payload — компактное содержимое
+     * QR-кода по текущим данным партии.
      * 
      * @param boxId идентификатор коробки
      * @return Base64-строка с QR-кодом или сообщение об отсутствии
@@ -55,7 +179,8 @@ public class QRCodeController {
     @GetMapping("/box/{boxId}")
     public ResponseEntity<?> getQRCodeForBox(@PathVariable Long boxId) {
         try {
-            String base64QrCode = qrCodeService.getQRCodeForBox(boxId);
+            String payload = qrCodeService.getQRCodeForBox(boxId);
+            String base64QrCode = qrCodeService.toBase64Image(payload);
             
             if (base64QrCode == null || base64QrCode.isEmpty()) {
                 Map<String, String> response = new HashMap<>();
@@ -65,6 +190,7 @@ public class QRCodeController {
             
             Map<String, String> response = new HashMap<>();
             response.put("qrCode", base64QrCode);
+            response.put("payload", payload);
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             e.printStackTrace();
@@ -78,14 +204,16 @@ public class QRCodeController {
      * 
      * @param boxId идентификатор коробки
      * @param format формат вывода (по умолчанию "pdf")
+     * @param layout раскладка этикетки для PDF ("a4", "a4-3x8", "roll-58x40", "roll-100x150")
      * @return файл с QR-кодом в указанном формате
      */
     @GetMapping("/generate/box/{boxId}")
-    public ResponseEntity<byte[]> generateBoxOutput(
+    public ResponseEntity<StreamingResponseBody> generateBoxOutput(
             @PathVariable Long boxId,
-            @RequestParam(value = "format", defaultValue = "pdf") String format) {
+            @RequestParam(value = "format", defaultValue = "pdf") String format,
+            @RequestParam(value = "layout", required = false) String layout) {
         try {
-            byte[] output = boxQrOutputAdapter.generateOutputForBox(boxId, format);
+            StreamingResponseBody output = boxQrOutputAdapter.streamOutputForBox(boxId, format, layout);
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.parseMediaType(boxQrOutputAdapter.getContentType(format)));
             headers.add("Content-Disposition", boxQrOutputAdapter.getContentDispositionForBox(boxId, format));
@@ -1,7 +1,10 @@
 package com.citrusmall.citrusstock.controller;
 
+import com.citrusmall.citrusstock.dto.BulkScanRequest;
+import com.citrusmall.citrusstock.dto.BulkScanResponse;
 import com.citrusmall.citrusstock.model.enums.ScanMode;
 import com.citrusmall.citrusstock.service.ScanService;
+import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -40,4 +43,26 @@ public class ScanController {
             return ResponseEntity.badRequest().body("Error scanning box: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Пакетное сканирование коробок одной транзакцией (например, целой паллеты).
+     *
+     * Пример запроса:
+     * POST /api/warehouse/scans/bulk
+     * {"boxIds": [1, 2, 3], "userId": 123, "scanMode": "ON_WAREHOUSE"}
+     *
+     * @param request список ID коробок, ID оператора и режим сканирования
+     * @return количество отсканированных коробок и ID затронутых партий или сообщение об ошибке
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<?> scanBoxesBulk(@Valid @RequestBody BulkScanRequest request) {
+        try {
+            BulkScanResponse response = scanService.scanBoxesBulk(
+                    request.getBoxIds(), request.getUserId(), request.getScanMode());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.badRequest().body("Error scanning boxes: " + e.getMessage());
+        }
+    }
+}
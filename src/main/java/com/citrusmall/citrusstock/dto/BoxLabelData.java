@@ -0,0 +1,26 @@
+package com.citrusmall.citrusstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Данные для рендеринга этикетки одной коробки.
+ * Подготавливаются заранее в потоке запроса, чтобы рендеринг
+ * в рабочих потоках не обращался к ленивым JPA-связям.
+ */
+@Data
+@AllArgsConstructor
+public class BoxLabelData {
+    private Long boxId;
+    private Long batchId;
+    private Long productId;
+    private String productName;
+    private String supplierName;
+    // Порядковый номер коробки в партии (с 1) и общее число коробок партии
+    private int boxNumber;
+    private int totalBoxes;
+    private LocalDateTime receivedAt;
+    private String payload;
+}
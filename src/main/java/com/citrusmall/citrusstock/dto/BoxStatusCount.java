@@ -0,0 +1,17 @@
+package com.citrusmall.citrusstock.dto;
+
+import com.citrusmall.citrusstock.model.enums.GoodsStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Число коробок партии в одном статусе — строка агрегата
+ * {@code select status, count(*) ... group by product_batch_id, status}.
+ */
+@Data
+@AllArgsConstructor
+public class BoxStatusCount {
+    private Long batchId;
+    private GoodsStatus status;
+    private Long count;
+}
@@ -0,0 +1,31 @@
+package com.citrusmall.citrusstock.dto;
+
+import com.citrusmall.citrusstock.model.enums.GoodsStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Счётчики коробок партии по статусам, хранящиеся в product_batches.
+ * Позволяют проверять правила "все SCANNED / все SHIPPED" без загрузки коробок.
+ */
+@Data
+@AllArgsConstructor
+public class BoxStatusCounters {
+    private int generated;
+    private int sticked;
+    private int scanned;
+    private int shipped;
+
+    public int getTotal() {
+        return generated + sticked + scanned + shipped;
+    }
+
+    public int get(GoodsStatus status) {
+        return switch (status) {
+            case GENERATED -> generated;
+            case STICKED -> sticked;
+            case SCANNED -> scanned;
+            case SHIPPED -> shipped;
+        };
+    }
+}
@@ -0,0 +1,20 @@
+package com.citrusmall.citrusstock.dto;
+
+import com.citrusmall.citrusstock.model.enums.ScanMode;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BulkScanRequest {
+    @NotEmpty(message = "Box IDs must be provided")
+    private List<Long> boxIds;
+
+    @NotNull(message = "User ID must be provided")
+    private Long userId;
+
+    @NotNull(message = "Scan mode must be provided")
+    private ScanMode scanMode;
+}
@@ -0,0 +1,17 @@
+package com.citrusmall.citrusstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Результат пакетного сканирования: количество обработанных коробок
+ * и список партий, статус которых был пересчитан.
+ */
+@Data
+@AllArgsConstructor
+public class BulkScanResponse {
+    private int scannedBoxes;
+    private List<Long> affectedBatchIds;
+}
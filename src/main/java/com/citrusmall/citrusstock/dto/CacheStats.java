@@ -0,0 +1,23 @@
+package com.citrusmall.citrusstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Статистика in-process кэша: размер, попадания, промахи и вытеснения.
+ */
+@Data
+@AllArgsConstructor
+public class CacheStats {
+    private String name;
+    private long size;
+    private long maxSize;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,33 @@
+package com.citrusmall.citrusstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Состояние фонового задания выгрузки этикеток партии: прогресс по коробкам,
+ * размер готового файла и ошибка, если задание завершилось неудачно.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LabelExportJobStatus {
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    private String jobId;
+    private Long batchId;
+    private String format;
+    private String layout;
+    private State state;
+    private int boxesDone;
+    private int boxesTotal;
+    private long sizeBytes;
+    private String error;
+    private LocalDateTime createdAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,21 @@
+package com.citrusmall.citrusstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Загрузка bulkhead рендеринга этикеток: выполняющиеся и ожидающие задания,
+ * зарезервированная под них оценка памяти и число отклонённых запросов.
+ */
+@Data
+@AllArgsConstructor
+public class LabelRenderingStats {
+    private int activeJobs;
+    private int maxConcurrentJobs;
+    private int queuedJobs;
+    private int maxQueuedJobs;
+    private long reservedBytes;
+    private long memoryBudgetBytes;
+    private long admitted;
+    private long rejected;
+}
@@ -0,0 +1,22 @@
+package com.citrusmall.citrusstock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Метрики фоновой записи файлов этикеток: глубина очереди, записанные,
+ * отброшенные и неудачные файлы, число пачек и задержка от постановки в очередь до записи.
+ */
+@Data
+@AllArgsConstructor
+public class LabelStorageStats {
+    private boolean async;
+    private int queueDepth;
+    private int queueCapacity;
+    private long written;
+    private long dropped;
+    private long failed;
+    private long batches;
+    private double averageWriteLatencyMs;
+    private double maxWriteLatencyMs;
+}
@@ -0,0 +1,29 @@
+package com.citrusmall.citrusstock.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Событие импорта манифеста партий, отдаваемое клиенту строкой NDJSON:
+ * ошибка в строке манифеста, прогресс после очередной порции или итог импорта.
+ * Счётчики во всех событиях — нарастающим итогом на момент события.
+ */
+@Data
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductBatchImportEvent {
+
+    public enum Type {
+        ERROR, PROGRESS, SUMMARY
+    }
+
+    private Type type;
+    // Номер строки манифеста и причина — только для ERROR
+    private Long line;
+    private String message;
+    private long linesRead;
+    private int batchesCreated;
+    private long boxesCreated;
+    private int failedLines;
+}
@@ -0,0 +1,17 @@
+package com.citrusmall.citrusstock.dto;
+
+import lombok.Data;
+
+/**
+ * Строка манифеста поставки для импорта партий (CSV или NDJSON).
+ * Продукт, поставщик и зона задаются именами; дата получения — в формате
+ * ISO (yyyy-MM-dd или yyyy-MM-ddTHH:mm[:ss]).
+ */
+@Data
+public class ProductBatchManifestLine {
+    private String product;
+    private String supplier;
+    private String receivedAt;
+    private Integer totalBoxes;
+    private String zone;
+}
@@ -0,0 +1,21 @@
+package com.citrusmall.citrusstock.exception;
+
+/**
+ * Выбрасывается, когда пул рендеринга этикеток занят и очередь заданий заполнена.
+ * Обрабатывается как 429 Too Many Requests с заголовком Retry-After.
+ */
+public class RenderingCapacityExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public RenderingCapacityExceededException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -17,6 +17,11 @@ public interface ProductBatchMapper {
     @Mapping(target = "status", constant = "GENERATED")
     @Mapping(target = "zone", ignore = true)
     @Mapping(target = "boxes", ignore = true)
+    // Счётчики коробок ведёт ProductBatchService
+    @Mapping(target = "generatedBoxes", ignore = true)
+    @Mapping(target = "stickedBoxes", ignore = true)
+    @Mapping(target = "scannedBoxes", ignore = true)
+    @Mapping(target = "shippedBoxes", ignore = true)
     ProductBatch toProductBatch(ProductBatchCreateRequest request);
 
     // Маппинг с использованием вложенных мапперов для product, supplier и zone
@@ -26,4 +31,12 @@ public interface ProductBatchMapper {
     // Передаем объект zone целиком, а его локализацию выполнит ZoneMapper
     @Mapping(source = "zone", target = "zone")
     ProductBatchResponse toProductBatchResponse(ProductBatch productBatch);
+
+    // Для списков: коробки не загружаются и не отдаются
+    @Mapping(source = "product", target = "product")
+    @Mapping(source = "supplier", target = "supplier")
+    @Mapping(expression = "java(EnumLocalizer.localizeGoodsStatus(productBatch.getStatus()))", target = "status")
+    @Mapping(source = "zone", target = "zone")
+    @Mapping(target = "boxes", ignore = true)
+    ProductBatchResponse toProductBatchSummaryResponse(ProductBatch productBatch);
 }
@@ -14,11 +14,17 @@ import java.util.List;
 @ToString(exclude = {"productBatch", "scannedBy"})
 public class Box {
 
+    // Размер блока ID; совпадает с шагом boxes_id_seq (используется и в BoxRepositoryImpl)
+    public static final int ID_ALLOCATION_SIZE = 50;
+
+    // ID выделяются блоками из последовательности, поэтому вставки идут пакетами JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "box_id_seq")
+    @SequenceGenerator(name = "box_id_seq", sequenceName = "boxes_id_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
-    // Код (QR или штрих-код)
+    // Признак того, что QR-код коробки сгенерирован. Содержимое QR-кода всегда строится
+    // по текущим данным партии (QRCodeService.getQRCodeForBox), значение здесь может устареть
     private String code;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -14,8 +14,10 @@ import java.util.List;
 @ToString(exclude = {"product", "supplier", "zone", "boxes"})
 public class ProductBatch {
 
+    // ID выделяются блоками из последовательности, поэтому вставки идут пакетами JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_batch_id_seq")
+    @SequenceGenerator(name = "product_batch_id_seq", sequenceName = "product_batches_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -38,4 +40,27 @@ public class ProductBatch {
 
     @OneToMany(mappedBy = "productBatch", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     private List<Box> boxes;
+
+    // Счётчики коробок по статусам. Меняются только атомарными запросами
+    // ProductBatchRepository.shiftBoxStatusCounters, поэтому не пишутся при save.
+    @Column(name = "generated_boxes", insertable = false, updatable = false)
+    private int generatedBoxes;
+
+    @Column(name = "sticked_boxes", insertable = false, updatable = false)
+    private int stickedBoxes;
+
+    @Column(name = "scanned_boxes", insertable = false, updatable = false)
+    private int scannedBoxes;
+
+    @Column(name = "shipped_boxes", insertable = false, updatable = false)
+    private int shippedBoxes;
+
+    /**
+     * Общее число коробок партии по счётчикам статусов — без загрузки коллекции boxes.
+     * Счётчики сущности не обновляются атомарными запросами в текущей транзакции,
+     * свежее значение даёт {@code ProductBatchRepository.countTotalBoxes}.
+     */
+    public int getTotalBoxes() {
+        return generatedBoxes + stickedBoxes + scannedBoxes + shippedBoxes;
+    }
 }
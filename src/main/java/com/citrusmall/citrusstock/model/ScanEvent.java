@@ -3,6 +3,7 @@ package com.citrusmall.citrusstock.model;
 import com.citrusmall.citrusstock.model.enums.ScanMode;
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.ToString;
 
 import java.time.LocalDateTime;
 
@@ -10,10 +11,13 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "scan_events")
 @Data
+@ToString(exclude = {"box", "user"})
 public class ScanEvent {
 
+    // ID выделяются блоками из последовательности, поэтому вставки идут пакетами JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "scan_event_id_seq")
+    @SequenceGenerator(name = "scan_event_id_seq", sequenceName = "scan_events_id_seq", allocationSize = 50)
     private Long id;
 
     // Ссылка на коробку
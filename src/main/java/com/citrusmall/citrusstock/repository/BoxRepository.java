@@ -1,13 +1,60 @@
 package com.citrusmall.citrusstock.repository;
 
+import com.citrusmall.citrusstock.dto.BoxStatusCount;
 import com.citrusmall.citrusstock.model.Box;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface BoxRepository extends JpaRepository<Box, Long> {
+public interface BoxRepository extends JpaRepository<Box, Long>, BoxRepositoryCustom {
 
     List<Box> findByProductBatch_Id(Long productBatchId);
+
+    // Коробка с блокировкой строки: статус читается и меняется без гонки со сканированием
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from Box b join fetch b.productBatch where b.id = :id")
+    Optional<Box> findByIdForUpdate(@Param("id") Long id);
+
+    // Блокировки берутся по возрастанию id, чтобы параллельные пакеты не взаимоблокировались
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from Box b join fetch b.productBatch where b.id in :ids order by b.id")
+    List<Box> findAllWithProductBatchByIdInForUpdate(@Param("ids") Collection<Long> ids);
+
+    @Query("select b from Box b join fetch b.productBatch pb left join fetch pb.product " +
+            "left join fetch pb.supplier where pb.id = :batchId order by b.id")
+    List<Box> findForLabelsByProductBatchId(@Param("batchId") Long batchId);
+
+    @Query("select b.id from Box b where b.productBatch.id = :batchId")
+    List<Long> findIdsByProductBatchId(@Param("batchId") Long batchId);
+
+    // Порядковый номер коробки в партии (по возрастанию id) для поля "Коробка n/N"
+    @Query("select count(b) from Box b where b.productBatch.id = :batchId and b.id <= :boxId")
+    long countBoxesUpTo(@Param("batchId") Long batchId, @Param("boxId") Long boxId);
+
+    // ID партий, коробки которых находятся в разных статусах; считается в БД одним агрегатом
+    @Query(value = "select b.productBatch.id from Box b group by b.productBatch.id " +
+            "having count(distinct b.status) > 1 order by b.productBatch.id",
+            countQuery = "select count(pb) from ProductBatch pb where " +
+                    "(select count(distinct b.status) from Box b where b.productBatch = pb) > 1")
+    Page<Long> findProductBatchIdsWithMixedStatuses(Pageable pageable);
+
+    // Число коробок партии по статусам, посчитанное в БД
+    @Query("select new com.citrusmall.citrusstock.dto.BoxStatusCount(b.productBatch.id, b.status, count(b)) " +
+            "from Box b where b.productBatch.id = :batchId group by b.productBatch.id, b.status")
+    List<BoxStatusCount> countByStatusForBatch(@Param("batchId") Long batchId);
+
+    // То же для нескольких партий одним запросом
+    @Query("select new com.citrusmall.citrusstock.dto.BoxStatusCount(b.productBatch.id, b.status, count(b)) " +
+            "from Box b where b.productBatch.id in :batchIds group by b.productBatch.id, b.status")
+    List<BoxStatusCount> countByStatusForBatches(@Param("batchIds") Collection<Long> batchIds);
 }
@@ -0,0 +1,20 @@
+package com.citrusmall.citrusstock.repository;
+
+import java.util.List;
+
+/**
+ * Операции с коробками, выполняемые напрямую через JDBC, минуя persistence context.
+ */
+public interface BoxRepositoryCustom {
+
+    /**
+     * Создаёт count коробок партии в статусе GENERATED одним set-based запросом,
+     * не создавая сущностей. ID выделяются из той же последовательности и теми же
+     * блоками, что и у Hibernate, поэтому не пересекаются с ID, выданными JPA.
+     *
+     * @param batchId ID партии (строка партии уже должна быть записана в БД)
+     * @param count   число коробок
+     * @return ID созданных коробок по возрастанию
+     */
+    List<Long> insertGeneratedBoxes(Long batchId, int count);
+}
@@ -0,0 +1,41 @@
+package com.citrusmall.citrusstock.repository;
+
+import com.citrusmall.citrusstock.model.Box;
+import com.citrusmall.citrusstock.model.enums.GoodsStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JDBC-реализация {@link BoxRepositoryCustom}.
+ */
+public class BoxRepositoryImpl implements BoxRepositoryCustom {
+
+    // Каждое значение nextval — верхняя граница блока из ID_ALLOCATION_SIZE ID (как у pooled-оптимизатора
+    // Hibernate). Лишний блок покрывает неположительные ID самого первого значения последовательности.
+    private static final String INSERT_GENERATED_BOXES_SQL =
+            "WITH blocks AS (SELECT nextval('boxes_id_seq') AS hi FROM generate_series(1, ?)), " +
+            "ids AS (SELECT hi - ? + n AS id FROM blocks CROSS JOIN generate_series(1, ?) AS n) " +
+            "INSERT INTO boxes (id, product_batch_id, status) " +
+            "SELECT id, ?, ? FROM ids WHERE id > 0 ORDER BY id LIMIT ? " +
+            "RETURNING id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public List<Long> insertGeneratedBoxes(Long batchId, int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        int blockSize = Box.ID_ALLOCATION_SIZE;
+        int blocks = (count + blockSize - 1) / blockSize + 1;
+        List<Long> ids = new ArrayList<>(jdbcTemplate.queryForList(INSERT_GENERATED_BOXES_SQL, Long.class,
+                blocks, blockSize, blockSize, batchId, GoodsStatus.GENERATED.name(), count));
+        Collections.sort(ids);
+        return ids;
+    }
+}
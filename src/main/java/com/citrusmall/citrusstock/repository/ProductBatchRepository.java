@@ -1,11 +1,69 @@
 package com.citrusmall.citrusstock.repository;
 
+import com.citrusmall.citrusstock.dto.BoxStatusCounters;
 import com.citrusmall.citrusstock.model.ProductBatch;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 
 @Repository
 public interface ProductBatchRepository extends JpaRepository<ProductBatch, Long>, JpaSpecificationExecutor<ProductBatch> {
+
+    // Партии вместе с продуктом, поставщиком и зоной — для ответа без дополнительных запросов
+    @Query("select pb from ProductBatch pb left join fetch pb.product left join fetch pb.supplier " +
+            "left join fetch pb.zone where pb.id in :ids")
+    List<ProductBatch> findAllWithReferencesByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select new com.citrusmall.citrusstock.dto.BoxStatusCounters(" +
+            "pb.generatedBoxes, pb.stickedBoxes, pb.scannedBoxes, pb.shippedBoxes) " +
+            "from ProductBatch pb where pb.id = :batchId")
+    Optional<BoxStatusCounters> findBoxStatusCounters(@Param("batchId") Long batchId);
+
+    /**
+     * Общее число коробок партии по счётчикам статусов, прочитанное из БД
+     * (с учётом атомарных обновлений текущей транзакции).
+     */
+    @Query("select pb.generatedBoxes + pb.stickedBoxes + pb.scannedBoxes + pb.shippedBoxes " +
+            "from ProductBatch pb where pb.id = :batchId")
+    Optional<Integer> countTotalBoxes(@Param("batchId") Long batchId);
+
+    /**
+     * Атомарно переносит count коробок из статуса fromStatus в toStatus.
+     * Пустая строка вместо статуса означает появление (или удаление) коробок.
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE product_batches SET " +
+            "generated_boxes = generated_boxes + CASE WHEN :toStatus = 'GENERATED' THEN :count ELSE 0 END " +
+            "- CASE WHEN :fromStatus = 'GENERATED' THEN :count ELSE 0 END, " +
+            "sticked_boxes = sticked_boxes + CASE WHEN :toStatus = 'STICKED' THEN :count ELSE 0 END " +
+            "- CASE WHEN :fromStatus = 'STICKED' THEN :count ELSE 0 END, " +
+            "scanned_boxes = scanned_boxes + CASE WHEN :toStatus = 'SCANNED' THEN :count ELSE 0 END " +
+            "- CASE WHEN :fromStatus = 'SCANNED' THEN :count ELSE 0 END, " +
+            "shipped_boxes = shipped_boxes + CASE WHEN :toStatus = 'SHIPPED' THEN :count ELSE 0 END " +
+            "- CASE WHEN :fromStatus = 'SHIPPED' THEN :count ELSE 0 END " +
+            "WHERE id = :batchId", nativeQuery = true)
+    int shiftBoxStatusCounters(@Param("batchId") Long batchId,
+                               @Param("fromStatus") String fromStatus,
+                               @Param("toStatus") String toStatus,
+                               @Param("count") int count);
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query(value = "UPDATE product_batches pb SET " +
+            "generated_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'GENERATED'), " +
+            "sticked_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'STICKED'), " +
+            "scanned_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'SCANNED'), " +
+            "shipped_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'SHIPPED') " +
+            "WHERE pb.id = :batchId", nativeQuery = true)
+    int recalculateBoxStatusCounters(@Param("batchId") Long batchId);
 }
@@ -4,6 +4,10 @@ import com.citrusmall.citrusstock.model.Product;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
+    // Имена продуктов не уникальны — берём самый ранний
+    Optional<Product> findFirstByNameOrderByIdAsc(String name);
 }
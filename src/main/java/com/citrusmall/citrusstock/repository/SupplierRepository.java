@@ -1,10 +1,13 @@
 package com.citrusmall.citrusstock.repository;
 
-import com.citrusmall.citrusstock.model.Product;
 import com.citrusmall.citrusstock.model.Supplier;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface SupplierRepository extends JpaRepository<Supplier, Long> {
+    // Имена поставщиков не уникальны — берём самого раннего
+    Optional<Supplier> findFirstByNameOrderByIdAsc(String name);
 }
@@ -0,0 +1,139 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.exception.RenderingCapacityExceededException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновый предварительный рендеринг этикеток партии при её создании.
+ * После коммита создания партии её этикетки (PDF коробок и PDF партии) рендерятся
+ * и сохраняются в файловый кэш qr/codes, поэтому запрос печати отдаёт готовый файл.
+ * Работа низкоприоритетная: выделенные потоки с минимальным приоритетом рендерят
+ * последовательно и уступают пул LabelRenderingEngine интерактивным запросам,
+ * чтобы не отнимать процессор у сканирования и печати.
+ * Если очередь переполнена, партия просто рендерится при первом запросе печати.
+ */
+@Service
+public class BatchLabelPreRenderer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchLabelPreRenderer.class);
+
+    @Autowired
+    private QRCodeService qrCodeService;
+
+    @Value("${citrusstock.labels.prerender.enabled:false}")
+    private boolean enabled;
+
+    @Value("${citrusstock.labels.prerender.threads:1}")
+    private int threads;
+
+    @Value("${citrusstock.labels.prerender.queue-capacity:100}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    // Партии, уже стоящие в очереди, чтобы не рендерить одну партию дважды
+    private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "label-prerender-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getQueueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Ставит партию в очередь на предварительный рендеринг этикеток.
+     * Внутри транзакции задача отправляется только после коммита,
+     * чтобы фоновый поток видел сохранённые коробки.
+     *
+     * @param batchId ID партии
+     */
+    public void schedule(Long batchId) {
+        if (!enabled || !pending.add(batchId)) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        submit(batchId);
+                    } else {
+                        pending.remove(batchId);
+                    }
+                }
+            });
+        } else {
+            submit(batchId);
+        }
+    }
+
+    private void submit(Long batchId) {
+        try {
+            executor.execute(() -> preRender(batchId));
+        } catch (RejectedExecutionException e) {
+            pending.remove(batchId);
+            logger.warn("Label pre-render queue is full, batch {} will be rendered on first print request", batchId);
+        }
+    }
+
+    private void preRender(Long batchId) {
+        try {
+            long startedAt = System.nanoTime();
+            qrCodeService.preRenderBatch(batchId);
+            logger.debug("Pre-rendered labels for batch {} in {} ms", batchId,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        } catch (IllegalArgumentException e) {
+            // Партию удалили до начала рендеринга
+            logger.debug("Skipping label pre-render for batch {}: {}", batchId, e.getMessage());
+        } catch (RenderingCapacityExceededException e) {
+            // Bulkhead занят печатью — партия отрендерится при первом запросе
+            logger.debug("Skipping label pre-render for batch {}: {}", batchId, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Label pre-render failed for batch {}", batchId, e);
+        } finally {
+            pending.remove(batchId);
+        }
+    }
+}
@@ -6,13 +6,14 @@ import com.citrusmall.citrusstock.model.ProductBatch;
 import com.citrusmall.citrusstock.model.enums.GoodsStatus;
 import com.citrusmall.citrusstock.repository.BoxRepository;
 import com.citrusmall.citrusstock.repository.ProductBatchRepository;
+import com.citrusmall.citrusstock.util.FileStorageUtil;
 import com.citrusmall.citrusstock.util.QRCodeContentBuilder;
-import com.citrusmall.citrusstock.util.codegen.CodeGenerator;
-import com.citrusmall.citrusstock.util.codegen.CodeGeneratorFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.Base64;
 import java.util.List;
 
 @Service
@@ -25,7 +26,7 @@ public class BoxService {
     private ProductBatchRepository productBatchRepository;
     
     @Autowired
-    private CodeGeneratorFactory codeGeneratorFactory;
+    private ProductBatchService productBatchService;
 
     /**
      * Создает новую коробку для указанной партии.
@@ -34,6 +35,7 @@ public class BoxService {
      * @param request запрос на создание коробки
      * @return созданная коробка с QR-кодом
      */
+    @Transactional
     public Box createBox(BoxCreateRequest request) {
         Box box = new Box();
         ProductBatch batch = productBatchRepository.findById(request.getProductBatchId())
@@ -43,10 +45,14 @@ public class BoxService {
         
         // Сначала сохраняем коробку чтобы она получила ID
         box = boxRepository.save(box);
+        productBatchService.onBoxStatusChanged(batch.getId(), null, GoodsStatus.GENERATED, 1);
         
-        // Пытаемся сгенерировать QR-код сразу после создания
+        // Пытаемся сгенерировать QR-код сразу после создания. Счётчики загруженной партии
+        // не видят только что добавленную коробку, поэтому число коробок читается из БД
         try {
-            generateQRCodeIfNeeded(box);
+            int totalBoxes = productBatchRepository.countTotalBoxes(batch.getId()).orElse(0);
+            box.setCode(QRCodeContentBuilder.buildContent(box.getId(),
+                    QRCodeContentBuilder.BatchMetadata.of(batch, totalBoxes)));
             box = boxRepository.save(box); // Сохраняем с обновленным QR-кодом
         } catch (Exception e) {
             // Логируем ошибку генерации QR-кода, но не прерываем работу
@@ -69,6 +75,8 @@ public class BoxService {
 
     /**
      * Генерирует QR-код для коробки, если он еще не был сгенерирован.
+     * В поле code сохраняется компактное содержимое QR-кода (QRCodeContentBuilder),
+     * изображение рендерится по запросу в QRCodeService.
      *
      * @param box коробка, для которой генерируется QR-код
      * @return true если QR-код был сгенерирован, false если он уже существовал
@@ -76,11 +84,7 @@ public class BoxService {
      */
     public boolean generateQRCodeIfNeeded(Box box) throws Exception {
         if (box.getCode() == null || box.getCode().isEmpty()) {
-            String qrContent = QRCodeContentBuilder.buildContent(box);
-            CodeGenerator generator = codeGeneratorFactory.getGenerator("QR");
-            byte[] qrImageBytes = generator.generateCodeImage(qrContent, 200, 200);
-            String base64Image = Base64.getEncoder().encodeToString(qrImageBytes);
-            box.setCode(base64Image);
+            box.setCode(QRCodeContentBuilder.buildContent(box));
             return true;
         }
         return false;
@@ -90,17 +94,60 @@ public class BoxService {
         return boxRepository.findAll();
     }
 
+    @Transactional
     public Box updateBox(Long id, Box boxDetails) {
-        Box box = getBoxById(id);
+        Box box = boxRepository.findByIdForUpdate(id)
+                .orElseThrow(() -> new IllegalArgumentException("Box not found with id " + id));
+        GoodsStatus previousStatus = box.getStatus();
         box.setCode(boxDetails.getCode());
         box.setStatus(boxDetails.getStatus());
         box.setScannedAt(boxDetails.getScannedAt());
         box.setScannedBy(boxDetails.getScannedBy());
-        return boxRepository.save(box);
+        Box savedBox = boxRepository.save(box);
+        productBatchService.onBoxStatusChanged(box.getProductBatch().getId(), previousStatus, box.getStatus(), 1);
+        // Код коробки мог измениться — сохранённые этикетки и PDF партии больше не актуальны
+        deleteStoredLabelsAfterCommit(box);
+        return savedBox;
     }
 
+    @Transactional
     public void deleteBox(Long id) {
-        boxRepository.deleteById(id);
+        boxRepository.findByIdForUpdate(id).ifPresent(box -> {
+            boxRepository.delete(box);
+            productBatchService.onBoxStatusChanged(box.getProductBatch().getId(), box.getStatus(), null, 1);
+            deleteStoredLabelsAfterCommit(box);
+        });
+    }
+
+    /**
+     * Удаляет сохранённые этикетки коробки и PDF её партии после коммита транзакции.
+     * До коммита параллельный запрос печати ещё видит старые данные и пересоздал бы
+     * удалённый файл, а при откате удалять нечего.
+     *
+     * @param box коробка
+     */
+    private void deleteStoredLabelsAfterCommit(Box box) {
+        Long productId = productIdOf(box.getProductBatch());
+        Long boxId = box.getId();
+        Long batchId = box.getProductBatch().getId();
+        Runnable delete = () -> {
+            FileStorageUtil.deleteQrCodeFiles(productId, boxId);
+            FileStorageUtil.deleteBatchPdfs(productId, batchId);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    delete.run();
+                }
+            });
+        } else {
+            delete.run();
+        }
+    }
+
+    private Long productIdOf(ProductBatch batch) {
+        return batch.getProduct() != null ? batch.getProduct().getId() : null;
     }
 
     public List<Box> getBoxesByProductBatchId(Long batchId) {
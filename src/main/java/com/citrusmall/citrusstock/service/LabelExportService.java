@@ -0,0 +1,396 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.LabelExportJobStatus;
+import com.citrusmall.citrusstock.dto.LabelExportJobStatus.State;
+import com.citrusmall.citrusstock.exception.RenderingCapacityExceededException;
+import com.citrusmall.citrusstock.repository.ProductBatchRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновые задания выгрузки этикеток партии (PDF/ZIP).
+ * Большие партии не рендерятся внутри HTTP-запроса: задание ставится в ограниченный
+ * пул потоков, результат пишется в файл в {@code citrusstock.labels.export.dir},
+ * а клиент опрашивает прогресс и скачивает готовый файл (с поддержкой Range).
+ * Состояние каждого задания сохраняется рядом с файлом выгрузки в {@code <jobId>.json},
+ * поэтому после перезапуска готовые выгрузки остаются доступны, а незавершённые
+ * задания ставятся в очередь заново. Задания удаляются вместе с файлами по истечении
+ * {@code citrusstock.labels.export.retention-minutes}.
+ */
+@Service
+public class LabelExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LabelExportService.class);
+
+    private static final String METADATA_SUFFIX = ".json";
+
+    @Autowired
+    private QrOutputService qrOutputService;
+
+    @Autowired
+    private ProductBatchRepository productBatchRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${citrusstock.labels.export.threads:2}")
+    private int threads;
+
+    @Value("${citrusstock.labels.export.queue-capacity:20}")
+    private int queueCapacity;
+
+    @Value("${citrusstock.labels.export.dir:qr/exports}")
+    private String exportDir;
+
+    @Value("${citrusstock.labels.export.retention-minutes:60}")
+    private long retentionMinutes;
+
+    private ThreadPoolExecutor executor;
+    private Path exportPath;
+
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Изменяемое состояние задания; наружу отдаётся снимок {@link LabelExportJobStatus}.
+     */
+    private static final class ExportJob {
+        private final String jobId;
+        private final Long batchId;
+        private final String format;
+        private final String layout;
+        private final LocalDateTime createdAt;
+        private volatile State state = State.QUEUED;
+        private volatile int boxesDone;
+        private volatile int boxesTotal;
+        private volatile long sizeBytes;
+        private volatile String error;
+        private volatile LocalDateTime finishedAt;
+        private volatile Path file;
+
+        private ExportJob(String jobId, Long batchId, String format, String layout, int boxesTotal) {
+            this.jobId = jobId;
+            this.batchId = batchId;
+            this.format = format;
+            this.layout = layout;
+            this.boxesTotal = boxesTotal;
+            this.createdAt = LocalDateTime.now();
+        }
+
+        /**
+         * Восстанавливает задание из сохранённого состояния.
+         */
+        private ExportJob(LabelExportJobStatus status, Path exportPath) {
+            this.jobId = status.getJobId();
+            this.batchId = status.getBatchId();
+            this.format = status.getFormat();
+            this.layout = status.getLayout();
+            this.createdAt = status.getCreatedAt();
+            this.state = status.getState();
+            this.boxesDone = status.getBoxesDone();
+            this.boxesTotal = status.getBoxesTotal();
+            this.sizeBytes = status.getSizeBytes();
+            this.error = status.getError();
+            this.finishedAt = status.getFinishedAt();
+            if (state == State.COMPLETED) {
+                this.file = exportPath.resolve(artifactName());
+            }
+        }
+
+        private String artifactName() {
+            return jobId + "." + format;
+        }
+
+        private LabelExportJobStatus toStatus() {
+            return toStatus(state);
+        }
+
+        private LabelExportJobStatus toStatus(State state) {
+            return new LabelExportJobStatus(jobId, batchId, format, layout, state, boxesDone, boxesTotal,
+                    sizeBytes, error, createdAt, finishedAt);
+        }
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        exportPath = Paths.get(exportDir);
+        Files.createDirectories(exportPath);
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "label-export-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        restoreJobs();
+    }
+
+    /**
+     * Загружает задания прошлых запусков из файлов состояния. Готовые выгрузки снова
+     * доступны для скачивания, прерванные перезапуском задания ставятся в очередь
+     * заново, а временные и осиротевшие файлы удаляются.
+     */
+    private void restoreJobs() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(exportPath, "*" + METADATA_SUFFIX)) {
+            for (Path metadataFile : files) {
+                try {
+                    LabelExportJobStatus status = objectMapper.readValue(metadataFile.toFile(), LabelExportJobStatus.class);
+                    jobs.put(status.getJobId(), new ExportJob(status, exportPath));
+                } catch (IOException e) {
+                    logger.warn("Skipping unreadable export job metadata {}", metadataFile, e);
+                }
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(exportPath)) {
+            for (Path file : files) {
+                if (!belongsToJob(file)) {
+                    deleteQuietly(file);
+                }
+            }
+        }
+        for (ExportJob job : jobs.values()) {
+            if (job.state == State.COMPLETED && !Files.exists(job.file)) {
+                job.file = null;
+                job.error = "Export file is missing";
+                job.state = State.FAILED;
+                saveMetadata(job);
+            } else if (job.state == State.QUEUED || job.state == State.RUNNING) {
+                requeue(job);
+            }
+        }
+        if (!jobs.isEmpty()) {
+            logger.info("Restored {} label export jobs from {}", jobs.size(), exportPath);
+        }
+        purgeExpiredJobs();
+    }
+
+    private boolean belongsToJob(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.indexOf('.');
+        ExportJob job = dot > 0 ? jobs.get(name.substring(0, dot)) : null;
+        if (job == null) {
+            return false;
+        }
+        return name.equals(job.jobId + METADATA_SUFFIX)
+                || (job.state == State.COMPLETED && name.equals(job.artifactName()));
+    }
+
+    private void requeue(ExportJob job) {
+        job.state = State.QUEUED;
+        job.boxesDone = 0;
+        saveMetadata(job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            job.error = "Export queue is full";
+            job.state = State.FAILED;
+            job.finishedAt = LocalDateTime.now();
+            saveMetadata(job);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Ставит выгрузку партии в очередь.
+     *
+     * @param batchId ID партии
+     * @param format  формат ("pdf", "zip")
+     * @param layout  код раскладки или null для раскладки по умолчанию
+     * @return состояние созданного задания
+     * @throws IllegalArgumentException если формат не поддерживается или партия не найдена
+     * @throws RejectedExecutionException если очередь заданий заполнена
+     */
+    public LabelExportJobStatus submit(Long batchId, String format, String layout) {
+        // Проверяем формат и партию сразу, чтобы ошибка вернулась в ответ на POST
+        qrOutputService.getContentType(format);
+        int boxesTotal = productBatchRepository.countTotalBoxes(batchId)
+                .orElseThrow(() -> new IllegalArgumentException("ProductBatch not found with id " + batchId));
+        purgeExpiredJobs();
+        ExportJob job = new ExportJob(UUID.randomUUID().toString(), batchId, format.toLowerCase(), layout, boxesTotal);
+        jobs.put(job.jobId, job);
+        saveMetadata(job);
+        // Снимок до запуска: ответ на POST всегда описывает задание в очереди
+        LabelExportJobStatus status = job.toStatus();
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.jobId);
+            deleteQuietly(metadataFile(job));
+            throw e;
+        }
+        return status;
+    }
+
+    /**
+     * Возвращает состояние задания.
+     *
+     * @param jobId ID задания
+     * @return состояние или пусто, если задание неизвестно или устарело
+     */
+    public Optional<LabelExportJobStatus> getStatus(String jobId) {
+        purgeExpiredJobs();
+        return Optional.ofNullable(jobs.get(jobId)).map(ExportJob::toStatus);
+    }
+
+    /**
+     * Возвращает файл завершённого задания.
+     *
+     * @param jobId ID задания
+     * @return путь к файлу или пусто, если задание ещё не завершено
+     */
+    public Optional<Path> getArtifact(String jobId) {
+        ExportJob job = jobs.get(jobId);
+        if (job == null || job.state != State.COMPLETED) {
+            return Optional.empty();
+        }
+        return Optional.of(job.file);
+    }
+
+    public String getContentType(LabelExportJobStatus status) {
+        return qrOutputService.getContentType(status.getFormat());
+    }
+
+    public String getContentDisposition(LabelExportJobStatus status) {
+        return qrOutputService.getContentDisposition(status.getBatchId(), status.getFormat());
+    }
+
+    private void run(ExportJob job) {
+        Path tempFile = exportPath.resolve(job.jobId + ".tmp");
+        State finalState;
+        try {
+            writeWhenCapacityAvailable(job, tempFile);
+            Path file = Files.move(tempFile, exportPath.resolve(job.artifactName()),
+                    StandardCopyOption.REPLACE_EXISTING);
+            job.sizeBytes = Files.size(file);
+            job.file = file;
+            finalState = State.COMPLETED;
+        } catch (Exception e) {
+            logger.error("Label export job {} for batch {} failed", job.jobId, job.batchId, e);
+            job.error = e.getMessage();
+            finalState = State.FAILED;
+            deleteQuietly(tempFile);
+        }
+        job.finishedAt = LocalDateTime.now();
+        // Итоговое состояние сначала сохраняется и только потом становится видно клиентам:
+        // увиденное COMPLETED не откатится к RUNNING после перезапуска
+        saveMetadata(job, finalState);
+        job.state = finalState;
+    }
+
+    /**
+     * Сохраняет состояние задания в {@code <jobId>.json}. Файл пишется во временный
+     * и переименовывается, поэтому после сбоя на диске остаётся целая версия.
+     * Прогресс по коробкам сохраняется только вместе со сменой состояния.
+     */
+    private void saveMetadata(ExportJob job) {
+        saveMetadata(job, job.state);
+    }
+
+    private void saveMetadata(ExportJob job, State state) {
+        Path metadataFile = metadataFile(job);
+        Path tempFile = exportPath.resolve(job.jobId + METADATA_SUFFIX + ".tmp");
+        try {
+            objectMapper.writeValue(tempFile.toFile(), job.toStatus(state));
+            try {
+                Files.move(tempFile, metadataFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, metadataFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Задание продолжает работать, но не переживёт перезапуск
+            logger.warn("Failed to save export job metadata {}", metadataFile, e);
+            deleteQuietly(tempFile);
+        }
+    }
+
+    private Path metadataFile(ExportJob job) {
+        return exportPath.resolve(job.jobId + METADATA_SUFFIX);
+    }
+
+    /**
+     * Пишет выгрузку задания во временный файл. Место в bulkhead занимается до
+     * начала рендеринга; пока bulkhead занят, задание остаётся в состоянии QUEUED
+     * и повторяет попытку через Retry-After, а не завершается ошибкой.
+     */
+    private void writeWhenCapacityAvailable(ExportJob job, Path tempFile) throws Exception {
+        while (true) {
+            StreamingResponseBody body;
+            try {
+                body = qrOutputService.streamOutput(job.batchId, job.format, job.layout,
+                        (done, total) -> {
+                            job.boxesTotal = total;
+                            job.boxesDone = done;
+                        }).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RenderingCapacityExceededException capacityExceeded) {
+                    TimeUnit.SECONDS.sleep(capacityExceeded.getRetryAfterSeconds());
+                    continue;
+                }
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+            job.state = State.RUNNING;
+            saveMetadata(job);
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+                body.writeTo(outputStream);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Удаляет завершённые задания старше срока хранения вместе с их файлами.
+     */
+    private void purgeExpiredJobs() {
+        LocalDateTime threshold = LocalDateTime.now().minusMinutes(retentionMinutes);
+        jobs.values().removeIf(job -> {
+            LocalDateTime finishedAt = job.finishedAt;
+            if (finishedAt == null || finishedAt.isAfter(threshold)) {
+                return false;
+            }
+            if (job.file != null) {
+                deleteQuietly(job.file);
+            }
+            deleteQuietly(metadataFile(job));
+            return true;
+        });
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete export file {}", file, e);
+        }
+    }
+}
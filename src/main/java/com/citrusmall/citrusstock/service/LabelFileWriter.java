@@ -0,0 +1,198 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.LabelStorageStats;
+import com.citrusmall.citrusstock.util.FileStorageUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фоновая (write-behind) запись сгенерированных этикеток в файловый кэш qr/codes.
+ * HTTP-ответ с этикеткой не ждёт диска: файл ставится в ограниченную очередь,
+ * которую разбирают выделенные потоки ввода-вывода. Поток забирает из очереди
+ * пачку файлов, пишет их во временные файлы, при включённом fsync сбрасывает их
+ * и директории на диск один раз на пачку и публикует атомарным переименованием.
+ * Файлы этикеток — это кэш, поэтому при переполненной очереди запись отбрасывается:
+ * этикетка будет перерендерена при следующем запросе.
+ */
+@Service
+public class LabelFileWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(LabelFileWriter.class);
+
+    @Value("${citrusstock.labels.storage.async:true}")
+    private boolean async;
+
+    @Value("${citrusstock.labels.storage.threads:2}")
+    private int threads;
+
+    @Value("${citrusstock.labels.storage.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${citrusstock.labels.storage.batch-size:64}")
+    private int batchSize;
+
+    @Value("${citrusstock.labels.storage.fsync:false}")
+    private boolean fsync;
+
+    private BlockingQueue<WriteTask> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private record WriteTask(Long productId, Long boxId, String fingerprint, byte[] content, long enqueuedAt) {
+    }
+
+    @PostConstruct
+    void start() {
+        if (!async) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        for (int i = 1; i <= threads; i++) {
+            Thread worker = new Thread(this::runWorker, "label-file-writer-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Сохраняет этикетку коробки в файловый кэш. В асинхронном режиме только
+     * ставит запись в очередь и сразу возвращает управление.
+     *
+     * @param productId   ID продукта
+     * @param boxId       ID коробки
+     * @param fingerprint отпечаток содержимого этикетки
+     * @param content     содержимое PDF
+     * @throws IOException ошибка записи в синхронном режиме
+     */
+    public void write(Long productId, Long boxId, String fingerprint, byte[] content) throws IOException {
+        WriteTask task = new WriteTask(productId, boxId, fingerprint, content, System.nanoTime());
+        if (!async) {
+            writeBatch(List.of(task));
+            return;
+        }
+        if (!queue.offer(task)) {
+            dropped.incrementAndGet();
+            logger.debug("Label file queue is full, label of box {} is not stored", boxId);
+        }
+    }
+
+    public LabelStorageStats getStats() {
+        long count = written.get();
+        double averageMs = count == 0 ? 0.0 : totalLatencyNanos.get() / (double) count / 1_000_000;
+        return new LabelStorageStats(async, queue == null ? 0 : queue.size(), async ? queueCapacity : 0,
+                count, dropped.get(), failed.get(), batches.get(),
+                averageMs, maxLatencyNanos.get() / 1_000_000.0);
+    }
+
+    private void runWorker() {
+        List<WriteTask> batch = new ArrayList<>(batchSize);
+        // После остановки поток дописывает то, что осталось в очереди
+        while (running || !queue.isEmpty()) {
+            try {
+                WriteTask first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Failed to store label files", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<WriteTask> batch) throws IOException {
+        batches.incrementAndGet();
+        // Фаза 1: содержимое во временные файлы (с fsync каждого файла, если включён)
+        List<Path> tempFiles = new ArrayList<>(batch.size());
+        for (WriteTask task : batch) {
+            try {
+                tempFiles.add(FileStorageUtil.writeTempFile(task.productId(), fileName(task), task.content(), fsync));
+            } catch (IOException e) {
+                tempFiles.add(null);
+                failed.incrementAndGet();
+                logger.warn("Failed to write label file of box {}", task.boxId(), e);
+            }
+        }
+        // Фаза 2: публикация переименованием и удаление устаревших версий
+        Set<Path> directories = new LinkedHashSet<>();
+        IOException firstError = null;
+        for (int i = 0; i < batch.size(); i++) {
+            WriteTask task = batch.get(i);
+            Path tempFile = tempFiles.get(i);
+            if (tempFile == null) {
+                continue;
+            }
+            try {
+                Path file = FileStorageUtil.commitTempFile(tempFile, fileName(task));
+                directories.add(file.getParent());
+                FileStorageUtil.deleteOutdatedQrCodePdfs(task.productId(), task.boxId(), task.fingerprint());
+                recordWritten(task);
+            } catch (IOException e) {
+                Files.deleteIfExists(tempFile);
+                failed.incrementAndGet();
+                logger.warn("Failed to publish label file of box {}", task.boxId(), e);
+                if (firstError == null) {
+                    firstError = e;
+                }
+            }
+        }
+        // Один fsync на директорию за пачку, чтобы переименования пережили сбой
+        if (fsync) {
+            directories.forEach(FileStorageUtil::syncDirectory);
+        }
+        if (!async && firstError != null) {
+            throw firstError;
+        }
+    }
+
+    private void recordWritten(WriteTask task) {
+        long latency = System.nanoTime() - task.enqueuedAt();
+        written.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    private static String fileName(WriteTask task) {
+        return FileStorageUtil.generateQrCodePdfFileName(task.boxId(), task.fingerprint());
+    }
+}
@@ -0,0 +1,296 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.LabelRenderingStats;
+import com.citrusmall.citrusstock.exception.RenderingCapacityExceededException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ограничение одновременных тяжёлых заданий рендеринга (PDF/ZIP партии).
+ * Задание допускается, если число выполняющихся заданий меньше
+ * {@code citrusstock.labels.bulkhead.max-concurrent-jobs} и его оценка памяти
+ * укладывается в бюджет. Иначе запрос ждёт в ограниченной очереди, а при
+ * заполненной очереди или истечении ожидания получает 429 с Retry-After.
+ * Ожидание не занимает поток: очередь хранит незавершённые {@link CompletableFuture},
+ * которые завершаются при освобождении места. Так волна печати не отнимает
+ * процессор, heap и потоки Tomcat у сканирования.
+ */
+@Service
+public class LabelRenderingBulkhead {
+
+    private static final Logger logger = LoggerFactory.getLogger(LabelRenderingBulkhead.class);
+
+    @Value("${citrusstock.labels.bulkhead.max-concurrent-jobs:2}")
+    private int maxConcurrentJobs;
+
+    @Value("${citrusstock.labels.bulkhead.max-queued-jobs:4}")
+    private int maxQueuedJobs;
+
+    @Value("${citrusstock.labels.bulkhead.queue-timeout-ms:30000}")
+    private long queueTimeoutMillis;
+
+    // 0 = четверть максимального heap
+    @Value("${citrusstock.labels.bulkhead.memory-budget-bytes:0}")
+    private long memoryBudgetBytes;
+
+    @Value("${citrusstock.labels.bulkhead.retry-after-seconds:10}")
+    private long retryAfterSeconds;
+
+    private final Set<Permit> active = new HashSet<>();
+    // Ожидающие задания в порядке прихода: новое задание не обгоняет очередь
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private long reservedBytes;
+    private long admitted;
+    private long rejected;
+
+    // Таймауты ожидания в очереди и сторож неначатых заданий
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Разрешение на выполнение задания. Освобождается через {@link #close()} один раз.
+     */
+    public final class Permit implements AutoCloseable {
+        private final long estimatedBytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+        // Задание начато телом ответа или разрешение уже отобрано сторожем
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Permit(long estimatedBytes) {
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        /**
+         * Отмечает начало задания.
+         *
+         * @return false, если разрешение уже освобождено сторожем и выполнять задание нельзя
+         */
+        public boolean start() {
+            return claimed.compareAndSet(false, true) && !released.get();
+        }
+
+        /**
+         * Освобождает разрешение, если задание не начато за указанное время: тело
+         * ответа может так и не запуститься, если клиент отключился раньше.
+         * Начатое задание не отбирается, сколько бы оно ни длилось.
+         *
+         * @param timeoutMillis время, за которое задание должно начаться
+         * @return это разрешение
+         */
+        public Permit releaseUnlessStartedWithin(long timeoutMillis) {
+            timer.schedule(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    logger.warn("Releasing label rendering permit not used within {} ms", timeoutMillis);
+                    close();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(this);
+            }
+        }
+    }
+
+    /**
+     * Задание в очереди: оценка памяти и разрешение, которое оно получит.
+     */
+    private final class Waiter {
+        private final long bytes;
+        private final CompletableFuture<Permit> permit = new CompletableFuture<>();
+        private ScheduledFuture<?> timeout;
+        private Permit granted;
+
+        private Waiter(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        if (memoryBudgetBytes <= 0) {
+            memoryBudgetBytes = Runtime.getRuntime().maxMemory() / 4;
+        }
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "label-bulkhead-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    void stop() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Занимает место для задания, не блокируя вызывающий поток.
+     *
+     * @param estimatedBytes оценка памяти, нужной заданию
+     * @return future разрешения, которое нужно закрыть по завершении задания; завершается
+     * с {@link RenderingCapacityExceededException}, если очередь заполнена или ожидание истекло
+     */
+    public CompletableFuture<Permit> acquireAsync(long estimatedBytes) {
+        return acquireAsync(estimatedBytes, queueTimeoutMillis);
+    }
+
+    /**
+     * Занимает место для задания, ожидая в очереди не дольше указанного времени.
+     * Отмена возвращённого future снимает задание с очереди.
+     *
+     * @param estimatedBytes оценка памяти, нужной заданию
+     * @param timeoutMillis  максимальное время ожидания в очереди
+     * @return future разрешения, которое нужно закрыть по завершении задания
+     */
+    public CompletableFuture<Permit> acquireAsync(long estimatedBytes, long timeoutMillis) {
+        // Одно задание больше бюджета всё равно допускается, но только в одиночку
+        long bytes = Math.min(estimatedBytes, memoryBudgetBytes);
+        Waiter waiter;
+        synchronized (this) {
+            if (waiting.isEmpty() && hasCapacity(bytes)) {
+                return CompletableFuture.completedFuture(admit(bytes));
+            }
+            if (waiting.size() >= maxQueuedJobs) {
+                return CompletableFuture.failedFuture(reject("Label rendering queue is full"));
+            }
+            waiter = new Waiter(bytes);
+            waiting.addLast(waiter);
+            waiter.timeout = timer.schedule(() -> expire(waiter), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        waiter.permit.whenComplete((permit, error) -> {
+            if (error != null) {
+                withdraw(waiter);
+            }
+        });
+        return waiter.permit;
+    }
+
+    /**
+     * Занимает место для задания, ожидая в вызывающем потоке. Только для фоновых
+     * заданий; обработчики запросов используют {@link #acquireAsync(long)}.
+     *
+     * @param estimatedBytes оценка памяти, нужной заданию
+     * @return разрешение, которое нужно закрыть по завершении задания
+     * @throws RenderingCapacityExceededException если очередь заполнена или ожидание истекло
+     */
+    public Permit acquire(long estimatedBytes) {
+        CompletableFuture<Permit> permit = acquireAsync(estimatedBytes);
+        try {
+            return permit.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RenderingCapacityExceededException capacityExceeded) {
+                throw capacityExceeded;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permit.cancel(false);
+            throw new RenderingCapacityExceededException(
+                    "Interrupted while waiting for label rendering capacity", retryAfterSeconds);
+        }
+    }
+
+    public synchronized LabelRenderingStats getStats() {
+        return new LabelRenderingStats(active.size(), maxConcurrentJobs, waiting.size(), maxQueuedJobs,
+                reservedBytes, memoryBudgetBytes, admitted, rejected);
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    private boolean hasCapacity(long bytes) {
+        return active.size() < maxConcurrentJobs && (active.isEmpty() || reservedBytes + bytes <= memoryBudgetBytes);
+    }
+
+    private Permit admit(long bytes) {
+        Permit permit = new Permit(bytes);
+        active.add(permit);
+        reservedBytes += bytes;
+        admitted++;
+        return permit;
+    }
+
+    private RenderingCapacityExceededException reject(String message) {
+        rejected++;
+        return new RenderingCapacityExceededException(message, retryAfterSeconds);
+    }
+
+    private void expire(Waiter waiter) {
+        RenderingCapacityExceededException timedOut;
+        synchronized (this) {
+            if (!waiting.contains(waiter)) {
+                return;
+            }
+            timedOut = reject("Timed out waiting for label rendering capacity");
+        }
+        waiter.permit.completeExceptionally(timedOut);
+    }
+
+    private void withdraw(Waiter waiter) {
+        List<Waiter> granted;
+        synchronized (this) {
+            if (!waiting.remove(waiter)) {
+                return;
+            }
+            waiter.timeout.cancel(false);
+            // Следующий в очереди может оказаться первым
+            granted = admitWaiting();
+        }
+        complete(granted);
+    }
+
+    private void release(Permit permit) {
+        List<Waiter> granted;
+        synchronized (this) {
+            if (!active.remove(permit)) {
+                return;
+            }
+            reservedBytes -= permit.estimatedBytes;
+            granted = admitWaiting();
+        }
+        complete(granted);
+    }
+
+    // Под блокировкой: допускает ожидающих по порядку очереди, пока хватает места
+    private List<Waiter> admitWaiting() {
+        List<Waiter> granted = new ArrayList<>();
+        while (!waiting.isEmpty() && hasCapacity(waiting.peekFirst().bytes)) {
+            Waiter waiter = waiting.pollFirst();
+            waiter.timeout.cancel(false);
+            waiter.granted = admit(waiter.bytes);
+            granted.add(waiter);
+        }
+        return granted;
+    }
+
+    // Вне блокировки: зависимые стадии future выполняются в текущем потоке
+    private static void complete(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            if (!waiter.permit.complete(waiter.granted)) {
+                // Ожидание уже отменено — место сразу возвращается
+                waiter.granted.close();
+            }
+        }
+    }
+}
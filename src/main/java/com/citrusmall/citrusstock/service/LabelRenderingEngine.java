@@ -0,0 +1,136 @@
+package com.citrusmall.citrusstock.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Параллельный рендеринг этикеток на ограниченном пуле потоков.
+ * Элементы рендерятся конкурентно, а результаты возвращаются в исходном порядке,
+ * поэтому страницы PDF и записи ZIP собираются в порядке коробок.
+ */
+@Service
+public class LabelRenderingEngine {
+
+    // Сколько фоновый рендеринг ждёт освобождения пула перед каждым элементом
+    private static final long BACKGROUND_MAX_YIELD_MILLIS = 1000;
+    private static final long BACKGROUND_YIELD_STEP_MILLIS = 10;
+
+    @Value("${citrusstock.labels.render-threads:0}")
+    private int renderThreads;
+
+    @Value("${citrusstock.labels.render-queue-capacity:1000}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Рендерер одного элемента.
+     *
+     * @param <T> тип исходных данных
+     * @param <R> тип результата
+     */
+    @FunctionalInterface
+    public interface Renderer<T, R> {
+        R render(T item) throws Exception;
+    }
+
+    @PostConstruct
+    void start() {
+        int threads = renderThreads > 0 ? renderThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCounter = new AtomicInteger();
+        // При переполнении очереди задачу выполняет вызывающий поток — это ограничивает память
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "label-render-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdown();
+    }
+
+    /**
+     * Рендерит все элементы параллельно и возвращает результаты в исходном порядке.
+     *
+     * @param items    исходные данные
+     * @param renderer функция рендеринга одного элемента
+     * @return результаты рендеринга в порядке items
+     * @throws Exception первая ошибка рендеринга
+     */
+    public <T, R> List<R> renderAll(List<T> items, Renderer<T, R> renderer) throws Exception {
+        List<CompletableFuture<R>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return renderer.render(item);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        List<R> results = new ArrayList<>(items.size());
+        try {
+            for (CompletableFuture<R> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(false));
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Рендерит элементы последовательно в вызывающем (фоновом) потоке, не занимая пул
+     * интерактивных запросов. Перед каждым элементом ждёт, пока пул занят
+     * интерактивным рендерингом, но не дольше секунды, чтобы фоновая задача
+     * всё же продвигалась под постоянной нагрузкой.
+     *
+     * @param items    исходные данные
+     * @param renderer функция рендеринга одного элемента
+     * @return результаты рендеринга в порядке items
+     * @throws Exception первая ошибка рендеринга
+     */
+    public <T, R> List<R> renderAllInBackground(List<T> items, Renderer<T, R> renderer) throws Exception {
+        List<R> results = new ArrayList<>(items.size());
+        for (T item : items) {
+            yieldToInteractive();
+            results.add(renderer.render(item));
+        }
+        return results;
+    }
+
+    /**
+     * Занят ли пул рендерингом интерактивных запросов.
+     *
+     * @return true, если есть выполняющиеся или ожидающие задачи
+     */
+    public boolean isBusy() {
+        return executor.getActiveCount() > 0 || !executor.getQueue().isEmpty();
+    }
+
+    private void yieldToInteractive() throws InterruptedException {
+        long waited = 0;
+        while (isBusy() && waited < BACKGROUND_MAX_YIELD_MILLIS) {
+            Thread.sleep(BACKGROUND_YIELD_STEP_MILLIS);
+            waited += BACKGROUND_YIELD_STEP_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.ProductBatchImportEvent;
+import com.citrusmall.citrusstock.dto.ProductBatchManifestLine;
+import com.citrusmall.citrusstock.model.Product;
+import com.citrusmall.citrusstock.model.ProductBatch;
+import com.citrusmall.citrusstock.model.Supplier;
+import com.citrusmall.citrusstock.model.Zone;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Потоковый импорт партий из манифеста поставки (CSV с заголовком или NDJSON).
+ * Манифест читается построчно, без буферизации файла целиком. Разобранные строки
+ * копятся в порции по {@code citrusstock.import.chunk-size}, и каждая порция
+ * создаётся в своей транзакции, поэтому уже записанные порции не откатываются
+ * из-за ошибки дальше по файлу. Продукты, поставщики и зоны ищутся по имени
+ * через {@link ReferenceDataCache}. Ошибки строк и прогресс передаются слушателю.
+ */
+@Service
+public class ProductBatchImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProductBatchImportService.class);
+
+    public enum Format {
+        CSV, NDJSON
+    }
+
+    /**
+     * Получатель событий импорта. Исключение слушателя (например, клиент отключился)
+     * прерывает импорт; уже созданные порции остаются в БД.
+     */
+    public interface ImportListener {
+        void onEvent(ProductBatchImportEvent event) throws IOException;
+    }
+
+    @Autowired
+    private ProductBatchService productBatchService;
+
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${citrusstock.import.chunk-size:200}")
+    private int chunkSize;
+
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Строка манифеста с уже найденными справочными данными.
+     * Сущность партии создаётся только при записи, чтобы её можно было повторить.
+     */
+    private record ParsedLine(long lineNumber, Long productId, Long supplierId, Zone zone,
+                              LocalDateTime receivedAt, int totalBoxes) {
+    }
+
+    private static final class ImportProgress {
+        private long linesRead;
+        private int batchesCreated;
+        private long boxesCreated;
+        private int failedLines;
+
+        private ProductBatchImportEvent toEvent(ProductBatchImportEvent.Type type, Long line, String message) {
+            return new ProductBatchImportEvent(type, line, message, linesRead, batchesCreated, boxesCreated, failedLines);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Импортирует партии из манифеста.
+     * Колонки CSV (первая строка — заголовок, разделитель ',' или ';'):
+     * product, supplier, receivedAt, totalBoxes, zone; обязательны product и totalBoxes.
+     * NDJSON — по одному объекту {@link ProductBatchManifestLine} на строку.
+     *
+     * @param input    поток манифеста в UTF-8
+     * @param format   формат манифеста
+     * @param listener получатель ошибок, прогресса и итога
+     * @return итоговое событие импорта
+     * @throws IOException при ошибке чтения манифеста или отправки события
+     */
+    public ProductBatchImportEvent importManifest(InputStream input, Format format, ImportListener listener) throws IOException {
+        ImportProgress progress = new ImportProgress();
+        List<ParsedLine> chunk = new ArrayList<>(chunkSize);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            CsvHeader header = null;
+            String text;
+            while ((text = reader.readLine()) != null) {
+                long lineNumber = ++progress.linesRead;
+                if (lineNumber == 1 && !text.isEmpty() && text.charAt(0) == '\uFEFF') {
+                    text = text.substring(1);
+                }
+                if (text.isBlank()) {
+                    continue;
+                }
+                try {
+                    if (format == Format.CSV && header == null) {
+                        header = CsvHeader.parse(text);
+                        continue;
+                    }
+                    ProductBatchManifestLine line = format == Format.CSV
+                            ? header.toManifestLine(text)
+                            : objectMapper.readValue(text, ProductBatchManifestLine.class);
+                    chunk.add(resolve(lineNumber, line));
+                } catch (JsonProcessingException e) {
+                    fail(progress, lineNumber, "Malformed JSON: " + e.getOriginalMessage(), listener);
+                } catch (IllegalArgumentException e) {
+                    fail(progress, lineNumber, e.getMessage(), listener);
+                    if (format == Format.CSV && header == null) {
+                        // Без заголовка остальные строки не разобрать
+                        break;
+                    }
+                }
+                if (chunk.size() >= chunkSize) {
+                    flush(chunk, progress, listener);
+                }
+            }
+        }
+        flush(chunk, progress, listener);
+        ProductBatchImportEvent summary = progress.toEvent(ProductBatchImportEvent.Type.SUMMARY, null, null);
+        listener.onEvent(summary);
+        logger.info("Imported {} product batches ({} boxes) from {} manifest lines, {} lines failed",
+                progress.batchesCreated, progress.boxesCreated, progress.linesRead, progress.failedLines);
+        return summary;
+    }
+
+    private ParsedLine resolve(long lineNumber, ProductBatchManifestLine line) {
+        if (isBlank(line.getProduct())) {
+            throw new IllegalArgumentException("Product must be provided");
+        }
+        Product product = referenceDataCache.findProductByName(line.getProduct().trim())
+                .orElseThrow(() -> new IllegalArgumentException("Product not found with name " + line.getProduct()));
+        Long supplierId = null;
+        if (!isBlank(line.getSupplier())) {
+            Supplier supplier = referenceDataCache.findSupplierByName(line.getSupplier().trim())
+                    .orElseThrow(() -> new IllegalArgumentException("Supplier not found with name " + line.getSupplier()));
+            supplierId = supplier.getId();
+        }
+        Zone zone = null;
+        if (!isBlank(line.getZone())) {
+            zone = referenceDataCache.findZoneByName(line.getZone().trim())
+                    .orElseThrow(() -> new IllegalArgumentException("Zone not found with name " + line.getZone()));
+        }
+        if (line.getTotalBoxes() == null || line.getTotalBoxes() < 1) {
+            throw new IllegalArgumentException("Total boxes must be a positive number");
+        }
+        return new ParsedLine(lineNumber, product.getId(), supplierId, zone,
+                parseReceivedAt(line.getReceivedAt()), line.getTotalBoxes());
+    }
+
+    /**
+     * Создаёт порцию партий одной транзакцией. Если порция не записалась,
+     * строки повторяются по одной, чтобы ошибка касалась только виновной строки.
+     */
+    private void flush(List<ParsedLine> chunk, ImportProgress progress, ImportListener listener) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> chunk.forEach(this::createBatch));
+            for (ParsedLine line : chunk) {
+                progress.batchesCreated++;
+                progress.boxesCreated += line.totalBoxes();
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Import chunk of {} lines failed, retrying line by line: {}", chunk.size(), e.getMessage());
+            for (ParsedLine line : chunk) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> createBatch(line));
+                    progress.batchesCreated++;
+                    progress.boxesCreated += line.totalBoxes();
+                } catch (RuntimeException lineError) {
+                    fail(progress, line.lineNumber(), lineError.getMessage(), listener);
+                }
+            }
+        }
+        chunk.clear();
+        listener.onEvent(progress.toEvent(ProductBatchImportEvent.Type.PROGRESS, null, null));
+    }
+
+    private void createBatch(ParsedLine line) {
+        ProductBatch batch = new ProductBatch();
+        batch.setReceivedAt(line.receivedAt());
+        batch.setZone(line.zone());
+        productBatchService.createProductBatch(batch, line.productId(), line.supplierId(), line.totalBoxes());
+    }
+
+    private void fail(ImportProgress progress, long lineNumber, String message, ImportListener listener) throws IOException {
+        progress.failedLines++;
+        listener.onEvent(progress.toEvent(ProductBatchImportEvent.Type.ERROR, lineNumber, message));
+    }
+
+    private static LocalDateTime parseReceivedAt(String value) {
+        if (isBlank(value)) {
+            return null;
+        }
+        String text = value.trim();
+        try {
+            return text.contains("T") ? LocalDateTime.parse(text) : LocalDate.parse(text).atStartOfDay();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid receivedAt date: " + value);
+        }
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    /**
+     * Заголовок CSV: положение известных колонок и разделитель.
+     */
+    private static final class CsvHeader {
+        private final char separator;
+        private final Map<String, Integer> columns;
+
+        private CsvHeader(char separator, Map<String, Integer> columns) {
+            this.separator = separator;
+            this.columns = columns;
+        }
+
+        private static CsvHeader parse(String text) {
+            char separator = text.indexOf(';') >= 0 && text.indexOf(',') < 0 ? ';' : ',';
+            Map<String, Integer> columns = new HashMap<>();
+            List<String> names = splitCsvLine(text, separator);
+            for (int i = 0; i < names.size(); i++) {
+                columns.putIfAbsent(names.get(i).toLowerCase(Locale.ROOT), i);
+            }
+            if (!columns.containsKey("product") || !columns.containsKey("totalboxes")) {
+                throw new IllegalArgumentException("CSV header must contain 'product' and 'totalBoxes' columns");
+            }
+            return new CsvHeader(separator, columns);
+        }
+
+        private ProductBatchManifestLine toManifestLine(String text) {
+            List<String> fields = splitCsvLine(text, separator);
+            ProductBatchManifestLine line = new ProductBatchManifestLine();
+            line.setProduct(field(fields, "product"));
+            line.setSupplier(field(fields, "supplier"));
+            line.setReceivedAt(field(fields, "receivedat"));
+            line.setZone(field(fields, "zone"));
+            String totalBoxes = field(fields, "totalboxes");
+            if (!isBlank(totalBoxes)) {
+                try {
+                    line.setTotalBoxes(Integer.valueOf(totalBoxes));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid totalBoxes: " + totalBoxes);
+                }
+            }
+            return line;
+        }
+
+        private String field(List<String> fields, String column) {
+            Integer index = columns.get(column);
+            return index != null && index < fields.size() ? fields.get(index) : null;
+        }
+    }
+
+    /**
+     * Разбивает строку CSV на поля с учётом кавычек ("" внутри кавычек — литеральная кавычка).
+     * Переводы строк внутри полей не поддерживаются.
+     */
+    static List<String> splitCsvLine(String text, char separator) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+}
@@ -1,46 +1,68 @@
 package com.citrusmall.citrusstock.service;
 
+import com.citrusmall.citrusstock.dto.BoxStatusCount;
+import com.citrusmall.citrusstock.dto.BoxStatusCounters;
 import com.citrusmall.citrusstock.dto.ProductBatchCreateRequest;
 import com.citrusmall.citrusstock.dto.ProductBatchFilterCriteria;
 import com.citrusmall.citrusstock.model.*;
 import com.citrusmall.citrusstock.model.enums.GoodsStatus;
 import com.citrusmall.citrusstock.repository.*;
 import com.citrusmall.citrusstock.specification.ProductBatchSpecification;
+import com.citrusmall.citrusstock.util.FileStorageUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class ProductBatchService {
 
+    // Ограничение размера IN-списка для статистики по нескольким партиям
+    static final int MAX_STATISTICS_BATCH_IDS = 500;
+
     @Autowired
     private ProductBatchRepository productBatchRepository;
 
     @Autowired
-    private ProductRepository productRepository;
+    private ReferenceDataCache referenceDataCache;
 
     @Autowired
-    private SupplierRepository supplierRepository;
+    private BoxRepository boxRepository;
 
     @Autowired
-    private ZoneRepository zoneRepository;
+    private BatchLabelPreRenderer batchLabelPreRenderer;
 
-    @Autowired
-    private BoxRepository boxRepository;
+    // С этого числа коробок партия заполняется одним INSERT ... SELECT вместо сущностей (0 — всегда через JPA)
+    @Value("${citrusstock.boxes.bulk-insert-threshold:1000}")
+    private int bulkInsertThreshold;
 
+    @Transactional
     public ProductBatch createProductBatch(ProductBatch productBatch, Long productId, Long supplierId, Integer totalBoxes) {
         if (productId != null) {
-            Product product = productRepository.findById(productId)
+            Product product = referenceDataCache.findProductById(productId)
                     .orElseThrow(() -> new IllegalArgumentException("Product not found with id " + productId));
             productBatch.setProduct(product);
         }
         if (supplierId != null) {
-            Supplier supplier = supplierRepository.findById(supplierId)
+            Supplier supplier = referenceDataCache.findSupplierById(supplierId)
                     .orElseThrow(() -> new IllegalArgumentException("Supplier not found with id " + supplierId));
             productBatch.setSupplier(supplier);
         }
@@ -49,26 +71,42 @@ public class ProductBatchService {
         }
         // Если зона не задана, устанавливаем дефолтную зону "RECEIVING"
         if (productBatch.getZone() == null) {
-            Zone defaultZone = zoneRepository.findByName("RECEIVING")
+            Zone defaultZone = referenceDataCache.findZoneByName("RECEIVING")
                     .orElseThrow(() -> new IllegalStateException("Default zone 'RECEIVING' not found"));
             productBatch.setZone(defaultZone);
         }
         productBatch.setStatus(GoodsStatus.GENERATED);
-        // Сохраняем партию
-        ProductBatch savedBatch = productBatchRepository.save(productBatch);
         // Если указано количество коробок, создаём их
         if (totalBoxes != null && totalBoxes > 0) {
-            List<Box> boxes = new ArrayList<>();
-            for (int i = 0; i < totalBoxes; i++) {
-                Box box = new Box();
-                box.setProductBatch(savedBatch);
-                box.setStatus(GoodsStatus.GENERATED);
-                boxes.add(box);
+            ProductBatch savedBatch;
+            if (bulkInsertThreshold > 0 && totalBoxes >= bulkInsertThreshold) {
+                // Большая партия: коробки вставляются одним запросом без создания сущностей.
+                // Партию записываем сразу — на неё ссылаются внешние ключи коробок
+                savedBatch = productBatchRepository.saveAndFlush(productBatch);
+                List<Long> boxIds = boxRepository.insertGeneratedBoxes(savedBatch.getId(), totalBoxes);
+                onBoxStatusChanged(savedBatch.getId(), null, GoodsStatus.GENERATED, boxIds.size());
+                savedBatch.setGeneratedBoxes(boxIds.size());
+            } else {
+                savedBatch = productBatchRepository.save(productBatch);
+                List<Box> boxes = new ArrayList<>();
+                for (int i = 0; i < totalBoxes; i++) {
+                    Box box = new Box();
+                    box.setProductBatch(savedBatch);
+                    box.setStatus(GoodsStatus.GENERATED);
+                    boxes.add(box);
+                }
+                boxRepository.saveAll(boxes);
+                onBoxStatusChanged(savedBatch.getId(), null, GoodsStatus.GENERATED, boxes.size());
+                savedBatch.setGeneratedBoxes(boxes.size());
             }
-            boxRepository.saveAll(boxes);
-            savedBatch.setBoxes(boxes);
-            savedBatch = productBatchRepository.save(savedBatch);
+            // Счётчики обновлены запросом в обход сущности; новая партия начинала с нуля,
+            // поэтому возвращаемой партии достаточно выставить число созданных коробок
+            // Этикетки новой партии рендерятся в фоне после коммита, чтобы печать отдавалась из кэша
+            batchLabelPreRenderer.schedule(savedBatch.getId());
+            return savedBatch;
         }
+        // Сохраняем партию
+        ProductBatch savedBatch = productBatchRepository.save(productBatch);
         return savedBatch;
 
     }
@@ -83,9 +121,12 @@ public class ProductBatchService {
         return productBatchRepository.findAll(spec, pageable);
     }
 
+    @Transactional
     public ProductBatch updateProductBatch(Long id, ProductBatchCreateRequest request) {
         ProductBatch batch = productBatchRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("ProductBatch not found with id " + id));
+        // Продукт, поставщик и дата печатаются на этикетках — сбрасываем сохранённые файлы
+        invalidateStoredLabels(batch);
 
         // Обновляем время получения, если передано
         if (request.getReceivedAt() != null) {
@@ -96,24 +137,54 @@ public class ProductBatchService {
 
         // Обновляем продукт, если указан productId
         if (request.getProductId() != null) {
-            Product product = productRepository.findById(request.getProductId())
+            Product product = referenceDataCache.findProductById(request.getProductId())
                     .orElseThrow(() -> new IllegalArgumentException("Product not found with id " + request.getProductId()));
             batch.setProduct(product);
         }
 
         // Обновляем поставщика, если указан supplierId
         if (request.getSupplierId() != null) {
-            Supplier supplier = supplierRepository.findById(request.getSupplierId())
+            Supplier supplier = referenceDataCache.findSupplierById(request.getSupplierId())
                     .orElseThrow(() -> new IllegalArgumentException("Supplier not found with id " + request.getSupplierId()));
             batch.setSupplier(supplier);
         }
         return productBatchRepository.save(batch);
     }
 
+    @Transactional
     public void deleteProductBatch(Long id) {
+        productBatchRepository.findById(id).ifPresent(this::invalidateStoredLabels);
         productBatchRepository.deleteById(id);
     }
 
+    /**
+     * Удаляет сохранённые на диске этикетки всех коробок партии и PDF самой партии.
+     * ID коробок читаются сразу, а файлы удаляются после коммита транзакции: до коммита
+     * параллельный запрос печати ещё видит старые данные и пересоздал бы удалённый файл.
+     * Вне транзакции файлы удаляются сразу.
+     *
+     * @param batch партия
+     */
+    private void invalidateStoredLabels(ProductBatch batch) {
+        Long productId = batch.getProduct() != null ? batch.getProduct().getId() : null;
+        Long batchId = batch.getId();
+        List<Long> boxIds = boxRepository.findIdsByProductBatchId(batchId);
+        Runnable delete = () -> {
+            FileStorageUtil.deleteQrCodeFiles(productId, boxIds);
+            FileStorageUtil.deleteBatchPdfs(productId, batchId);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    delete.run();
+                }
+            });
+        } else {
+            delete.run();
+        }
+    }
+
     public void updateBatchStatus(Long batchId, GoodsStatus newStatus, Zone newZone) {
         ProductBatch batch = productBatchRepository.findById(batchId)
                 .orElseThrow(() -> new IllegalArgumentException("ProductBatch not found with id " + batchId));
@@ -128,36 +199,65 @@ public class ProductBatchService {
      * 1. Если все коробки имеют статус SCANNED, устанавливает партии статус SCANNED
      * 2. Если все коробки имеют статус SHIPPED, устанавливает партии статус SHIPPED
      * 3. В других случаях (коробки в разных статусах), статус партии не меняется
+     * Проверка выполняется по счётчикам коробок в product_batches, без загрузки самих коробок.
      *
      * @param batchId    ID партии для обновления
      * @param targetZone Целевая зона для партии при обновлении статуса
      * @throws IllegalArgumentException если партия не найдена
      */
     public void updateBatchStatusBasedOnBoxes(Long batchId, Zone targetZone) {
-        // Находим партию и все связанные с ней коробки
+        // Находим партию и актуальные счётчики её коробок
         ProductBatch batch = productBatchRepository.findById(batchId)
                 .orElseThrow(() -> new IllegalArgumentException("ProductBatch not found with id " + batchId));
-        
-        List<Box> boxes = boxRepository.findByProductBatch_Id(batchId);
-        
+
+        BoxStatusCounters counters = productBatchRepository.findBoxStatusCounters(batchId)
+                .orElseThrow(() -> new IllegalArgumentException("ProductBatch not found with id " + batchId));
+
         // Если коробок нет, статус партии не меняем
-        if (boxes.isEmpty()) {
+        int total = counters.getTotal();
+        if (total == 0) {
             return;
         }
-        
-        // Проверяем, все ли коробки имеют одинаковый статус
-        boolean allBoxesScanned = boxes.stream().allMatch(box -> box.getStatus() == GoodsStatus.SCANNED);
-        boolean allBoxesShipped = boxes.stream().allMatch(box -> box.getStatus() == GoodsStatus.SHIPPED);
-        
+
         // Применяем бизнес-правила обновления статуса партии
-        if (allBoxesScanned) {
+        if (counters.getScanned() == total) {
             updateBatchStatusAndZone(batch, GoodsStatus.SCANNED, targetZone);
-        } else if (allBoxesShipped) {
+        } else if (counters.getShipped() == total) {
             updateBatchStatusAndZone(batch, GoodsStatus.SHIPPED, targetZone);
         }
         // Если у коробок разные статусы, оставляем текущий статус партии
     }
-    
+
+    /**
+     * Атомарно обновляет счётчики коробок партии при смене статуса коробок.
+     * Должен вызываться при каждом создании, удалении или смене статуса коробки.
+     *
+     * @param batchId    ID партии
+     * @param fromStatus прежний статус коробок (null для новых коробок)
+     * @param toStatus   новый статус коробок (null для удалённых коробок)
+     * @param count      количество коробок
+     */
+    public void onBoxStatusChanged(Long batchId, GoodsStatus fromStatus, GoodsStatus toStatus, int count) {
+        if (count <= 0 || fromStatus == toStatus) {
+            return;
+        }
+        productBatchRepository.shiftBoxStatusCounters(batchId, statusName(fromStatus), statusName(toStatus), count);
+    }
+
+    /**
+     * Пересчитывает счётчики коробок партии по таблице boxes.
+     * Используется для восстановления счётчиков после ручных правок данных.
+     *
+     * @param batchId ID партии
+     */
+    public void recalculateBoxStatusCounters(Long batchId) {
+        productBatchRepository.recalculateBoxStatusCounters(batchId);
+    }
+
+    private static String statusName(GoodsStatus status) {
+        return status == null ? "" : status.name();
+    }
+
     /**
      * Обновляет статус и зону партии и сохраняет изменения.
      * 
@@ -172,62 +272,75 @@ public class ProductBatchService {
     }
     
     /**
-     * Находит все партии, у которых коробки имеют разные статусы.
+     * Находит партии, у которых коробки имеют разные статусы.
      * Позволяет выявить проблемные партии, требующие внимания.
+     * Партии отбираются в БД одним запросом с GROUP BY по коробкам, затем одним
+     * запросом загружаются сами партии текущей страницы со справочными данными.
      *
-     * @return Список партий с коробками в разных статусах
+     * @param pageable номер и размер страницы (сортировка — по ID партии)
+     * @return Страница партий с коробками в разных статусах
      */
-    public List<ProductBatch> findBatchesWithMixedBoxStatuses() {
-        List<ProductBatch> result = new ArrayList<>();
-        
-        // Получаем все партии
-        List<ProductBatch> allBatches = productBatchRepository.findAll();
-        
-        // Проверяем каждую партию
-        for (ProductBatch batch : allBatches) {
-            if (hasMixedBoxStatuses(batch.getId())) {
-                result.add(batch);
-            }
+    public Page<ProductBatch> findBatchesWithMixedBoxStatuses(Pageable pageable) {
+        Page<Long> batchIds = boxRepository.findProductBatchIdsWithMixedStatuses(pageable);
+        if (batchIds.isEmpty()) {
+            return new PageImpl<>(List.of(), batchIds.getPageable(), batchIds.getTotalElements());
         }
-        
-        return result;
+        Map<Long, ProductBatch> batchesById = productBatchRepository.findAllWithReferencesByIdIn(batchIds.getContent())
+                .stream()
+                .collect(Collectors.toMap(ProductBatch::getId, Function.identity()));
+        // Сохраняем порядок страницы; партию могли удалить между запросами
+        List<ProductBatch> batches = batchIds.getContent().stream()
+                .map(batchesById::get)
+                .filter(Objects::nonNull)
+                .toList();
+        return new PageImpl<>(batches, batchIds.getPageable(), batchIds.getTotalElements());
     }
-    
+
     /**
-     * Проверяет, имеет ли партия коробки в разных статусах.
+     * Возвращает статистику распределения коробок партии по статусам.
+     * Коробки не загружаются: количество по статусам считает БД.
      *
-     * @param batchId ID партии для проверки
-     * @return true, если коробки имеют разные статусы, иначе false
+     * @param batchId ID партии
+     * @return Карта, где ключ - статус, значение - количество коробок
      */
-    private boolean hasMixedBoxStatuses(Long batchId) {
-        List<Box> boxes = boxRepository.findByProductBatch_Id(batchId);
-        
-        // Если коробок нет или одна, статусы не могут быть разными
-        if (boxes.size() <= 1) {
-            return false;
-        }
-        
-        // Берем статус первой коробки как эталон
-        GoodsStatus firstStatus = boxes.get(0).getStatus();
-        
-        // Проверяем, все ли коробки имеют такой же статус
-        return boxes.stream().anyMatch(box -> box.getStatus() != firstStatus);
+    public Map<GoodsStatus, Long> getBoxStatusStatisticsForBatch(Long batchId) {
+        return toStatusMap(boxRepository.countByStatusForBatch(batchId));
     }
-    
+
     /**
-     * Возвращает статистику распределения коробок партии по статусам.
+     * Возвращает статистику статусов коробок сразу для нескольких партий одним запросом.
      *
-     * @param batchId ID партии
-     * @return Карта, где ключ - статус, значение - количество коробок
+     * @param batchIds ID партий (не больше {@value #MAX_STATISTICS_BATCH_IDS})
+     * @return Карта ID партии -> (статус -> количество коробок) в порядке запроса;
+     *         для партий без коробок и несуществующих партий — пустая карта
+     * @throws IllegalArgumentException если список ID пуст или слишком велик
      */
-    public java.util.Map<GoodsStatus, Long> getBoxStatusStatisticsForBatch(Long batchId) {
-        List<Box> boxes = boxRepository.findByProductBatch_Id(batchId);
-        
-        // Группируем коробки по статусу и подсчитываем количество в каждом статусе
-        return boxes.stream()
-                .collect(java.util.stream.Collectors.groupingBy(
-                        Box::getStatus,
-                        java.util.stream.Collectors.counting()
-                ));
+    public Map<Long, Map<GoodsStatus, Long>> getBoxStatusStatisticsForBatches(Collection<Long> batchIds) {
+        if (batchIds == null || batchIds.isEmpty()) {
+            throw new IllegalArgumentException("Batch IDs must be provided");
+        }
+        Set<Long> uniqueIds = new LinkedHashSet<>(batchIds);
+        if (uniqueIds.size() > MAX_STATISTICS_BATCH_IDS) {
+            throw new IllegalArgumentException("At most " + MAX_STATISTICS_BATCH_IDS + " batch IDs are allowed");
+        }
+        Map<Long, Map<GoodsStatus, Long>> result = new LinkedHashMap<>();
+        uniqueIds.forEach(id -> result.put(id, new EnumMap<>(GoodsStatus.class)));
+        for (BoxStatusCount count : boxRepository.countByStatusForBatches(uniqueIds)) {
+            if (count.getStatus() != null) {
+                result.get(count.getBatchId()).put(count.getStatus(), count.getCount());
+            }
+        }
+        return result;
+    }
+
+    private static Map<GoodsStatus, Long> toStatusMap(List<BoxStatusCount> counts) {
+        Map<GoodsStatus, Long> statistics = new EnumMap<>(GoodsStatus.class);
+        for (BoxStatusCount count : counts) {
+            // Коробки без статуса в статистику не попадают
+            if (count.getStatus() != null) {
+                statistics.put(count.getStatus(), count.getCount());
+            }
+        }
+        return statistics;
     }
 }
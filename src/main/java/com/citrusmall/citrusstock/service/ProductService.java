@@ -12,6 +12,9 @@ public class ProductService {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
     public Product createProduct(Product product) {
         return productRepository.save(product);
     }
@@ -28,10 +31,13 @@ public class ProductService {
     public Product updateProduct(Long id, Product productDetails) {
         Product product = getProductById(id);
         product.setName(productDetails.getName());
-        return productRepository.save(product);
+        Product savedProduct = productRepository.save(product);
+        referenceDataCache.invalidateProduct(id);
+        return savedProduct;
     }
 
     public void deleteProduct(Long id) {
         productRepository.deleteById(id);
+        referenceDataCache.invalidateProduct(id);
     }
 }
@@ -1,27 +1,48 @@
 package com.citrusmall.citrusstock.service;
 
+import com.citrusmall.citrusstock.dto.BoxLabelData;
+import com.citrusmall.citrusstock.exception.RenderingCapacityExceededException;
 import com.citrusmall.citrusstock.model.Box;
 import com.citrusmall.citrusstock.model.Product;
 import com.citrusmall.citrusstock.model.ProductBatch;
+import com.citrusmall.citrusstock.model.Supplier;
 import com.citrusmall.citrusstock.repository.BoxRepository;
 import com.citrusmall.citrusstock.util.FileStorageUtil;
 import com.citrusmall.citrusstock.util.QRCodeContentBuilder;
 import com.citrusmall.citrusstock.util.codegen.CodeGenerator;
 import com.citrusmall.citrusstock.util.codegen.CodeGeneratorFactory;
-import com.citrusmall.citrusstock.util.codegen.QRCodeWithTextUtil;
-import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import com.citrusmall.citrusstock.util.codegen.LabelLayout;
+import com.citrusmall.citrusstock.util.codegen.LabelSheetWriter;
+import com.citrusmall.citrusstock.util.codegen.LabelFontProvider;
+import com.google.zxing.common.BitMatrix;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -30,6 +51,13 @@ public class QRCodeService {
 
     private static final int QR_CODE_SIZE = 200;
     private static final String QR_CODES_DIR = "qr/codes";
+    private static final long PDF_MAIN_MEMORY_BYTES = 16L * 1024 * 1024;
+    // Оценка памяти на этикетку в обрабатываемой порции: матрица, PDF коробки, объекты страницы
+    private static final long ESTIMATED_LABEL_RENDER_BYTES = 16L * 1024;
+    // Оценка размера этикетки в готовом файле, когда результат собирается в памяти целиком
+    private static final long ESTIMATED_LABEL_OUTPUT_BYTES = 4L * 1024;
+    // Увеличивается при изменении шаблона этикетки, чтобы сохранённые файлы перерендерились
+    private static final String LABEL_TEMPLATE_VERSION = "1";
 
     @Autowired
     private BoxRepository boxRepository;
@@ -37,35 +65,95 @@ public class QRCodeService {
     @Autowired
     private CodeGeneratorFactory codeGeneratorFactory;
 
+    @Autowired
+    private LabelRenderingEngine labelRenderingEngine;
+
+    @Autowired
+    private LabelFontProvider labelFontProvider;
+
+    @Autowired
+    private LabelFileWriter labelFileWriter;
+
+    @Autowired
+    private LabelRenderingBulkhead labelRenderingBulkhead;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${citrusstock.labels.stream-chunk-size:256}")
+    private int streamChunkSize;
+
+    @Value("${citrusstock.labels.default-layout:a4}")
+    private String defaultLayout;
+
+    // Не запущенное за это время тело ответа отдаёт место в bulkhead
+    @Value("${spring.mvc.async.request-timeout:600000}")
+    private long asyncRequestTimeoutMillis;
+
+    private TransactionTemplate transactionTemplate;
+
     /**
-     * Генерирует QR-код для коробки и обновляет её поле code.
+     * Получатель прогресса выгрузки партии: вызывается после каждой записанной порции этикеток.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    private static final ProgressListener NO_PROGRESS = (done, total) -> {
+    };
+
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Формирует содержимое QR-кода для коробки и обновляет её поле code.
      *
      * @param boxId идентификатор коробки
-     * @return строка в формате Base64, содержащая QR-код
+     * @return компактное содержимое QR-кода
      * @throws Exception в случае ошибки генерации
      */
     public String generateQRCodeForBox(Long boxId) throws Exception {
         Box box = getBoxById(boxId);
-        byte[] qrImageBytes = generateQRCodeBytesForBox(boxId);
-        String base64Image = Base64.getEncoder().encodeToString(qrImageBytes);
+        String payload = QRCodeContentBuilder.buildContent(box);
 
-        box.setCode(base64Image);
+        box.setCode(payload);
         boxRepository.save(box);
 
-        return base64Image;
+        return payload;
     }
 
     /**
-     * Возвращает существующий QR-код для коробки или null, если его нет.
-     * Не генерирует QR-код, только возвращает существующий.
+     * Возвращает содержимое QR-кода коробки или null, если код ещё не сгенерирован.
+     * Содержимое формируется по текущим данным партии, а не берётся из поля code,
+     * которое могло устареть после изменения партии.
      *
      * @param boxId идентификатор коробки
-     * @return строка в формате Base64, содержащая QR-код, или null
+     * @return компактное содержимое QR-кода или null
      * @throws Exception если коробка не найдена
      */
     public String getQRCodeForBox(Long boxId) throws Exception {
         Box box = getBoxById(boxId);
-        return box.getCode();
+        if (box.getCode() == null || box.getCode().isEmpty()) {
+            return null;
+        }
+        return resolvePayload(box);
+    }
+
+    /**
+     * Рендерит содержимое QR-кода коробки в изображение в формате Base64 PNG.
+     *
+     * @param payload содержимое QR-кода ({@link #getQRCodeForBox})
+     * @return Base64-строка с PNG или null, если код ещё не сгенерирован
+     * @throws Exception в случае ошибки генерации
+     */
+    public String toBase64Image(String payload) throws Exception {
+        if (payload == null || payload.isEmpty()) {
+            return null;
+        }
+        return Base64.getEncoder().encodeToString(renderQRCode(payload));
     }
 
     /**
@@ -77,23 +165,68 @@ public class QRCodeService {
      * @throws Exception в случае ошибки генерации
      */
     public byte[] generateAndStoreQRCodeWithTextForBox(Long boxId) throws Exception {
-        // Находим коробку по ID и обеспечиваем наличие QR-кода
-        Box box = getBoxAndEnsureQRCode(boxId);
-
-        // Генерируем бинарный QR-код
-        byte[] qrImageBytes = generateQRCodeBytesForBox(boxId);
+        // Находим коробку один раз, обеспечиваем наличие кода и готовим данные этикетки
+        BoxLabelData label = prepareLabelForBox(boxId);
 
-        // Получаем название продукта для текста под QR-кодом
-        String productName = box.getProductBatch().getProduct().getName();
-
-        // Создаем PDF с QR-кодом и текстом продукта
-        byte[] pdfBytes = QRCodeWithTextUtil.addTextBelowQRCode(qrImageBytes, productName);
+        // Берём сохранённую этикетку или рендерим PDF с QR-кодом и сохраняем его на диск
+        return renderAndStoreLabelPdf(label);
+    }
 
-        // Сохраняем PDF-файл в директорию
-        savePdfFile(box, pdfBytes);
+    /**
+     * Готовит потоковую выдачу PDF-этикетки коробки. Если актуальная этикетка
+     * в стандартной раскладке уже сохранена на диске, файл передаётся в ответ
+     * через {@link FileStorageUtil#transferFile} без повторного рендеринга.
+     *
+     * @param boxId  идентификатор коробки
+     * @param layout код раскладки или null для раскладки по умолчанию
+     * @return тело ответа, записывающее PDF в поток
+     * @throws Exception в случае ошибки подготовки данных
+     */
+    public StreamingResponseBody streamLabelPdfForBox(Long boxId, String layout) throws Exception {
+        LabelLayout labelLayout = resolveLayout(layout);
+        if (labelLayout != LabelLayout.A4) {
+            byte[] output = generateAndStoreQRCodeWithTextForBox(boxId, layout);
+            return outputStream -> outputStream.write(output);
+        }
+        BoxLabelData label = prepareLabelForBox(boxId);
+        Optional<Path> storedLabel = findStoredLabel(label);
+        if (storedLabel.isEmpty()) {
+            byte[] output = renderAndStoreLabelPdf(label);
+            return outputStream -> outputStream.write(output);
+        }
+        return outputStream -> {
+            try {
+                FileStorageUtil.transferFile(storedLabel.get(), outputStream);
+            } catch (NoSuchFileException e) {
+                // Файл удалили между поиском и передачей (инвалидация) — рендерим заново
+                try {
+                    outputStream.write(renderAndStoreLabelPdf(label));
+                } catch (IOException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new IOException("Failed to render label for box " + boxId, ex);
+                }
+            }
+        };
+    }
 
-        // Возвращаем PDF как массив байтов
-        return pdfBytes;
+    /**
+     * Генерирует PDF-этикетку коробки в указанной раскладке. Для стандартной
+     * раскладки A4 этикетка также сохраняется на диск; остальные раскладки
+     * (рулонные форматы, ячейка листа) только возвращаются.
+     *
+     * @param boxId  идентификатор коробки
+     * @param layout код раскладки или null для раскладки по умолчанию
+     * @return массив байтов PDF
+     * @throws Exception в случае ошибки генерации
+     */
+    public byte[] generateAndStoreQRCodeWithTextForBox(Long boxId, String layout) throws Exception {
+        LabelLayout labelLayout = resolveLayout(layout);
+        if (labelLayout == LabelLayout.A4) {
+            return generateAndStoreQRCodeWithTextForBox(boxId);
+        }
+        BoxLabelData label = prepareLabelForBox(boxId);
+        return renderLabelPdf(encodeQRCode(label.getPayload()), label, labelLayout);
     }
 
     /**
@@ -105,25 +238,187 @@ public class QRCodeService {
      * @throws Exception if an error occurs during generation
      */
     public byte[] generatePdfForBatch(Long batchId) throws Exception {
-        List<Box> boxes = getBoxesForBatch(batchId);
+        List<BoxLabelData> labels = prepareLabelsForBatch(batchId);
+        LabelLayout layout = resolveLayout(null);
+        Optional<Path> storedPdf = findStoredBatchPdf(labels, layout);
+        if (storedPdf.isPresent()) {
+            try {
+                return Files.readAllBytes(storedPdf.get());
+            } catch (NoSuchFileException e) {
+                // Удалён при инвалидации — собираем заново
+            }
+        }
+        LabelRenderingBulkhead.Permit permit =
+                labelRenderingBulkhead.acquire(estimateRenderMemory(labels.size(), true, true));
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writePdfForBatch(labels, layout, baos, false, NO_PROGRESS);
+            return baos.toByteArray();
+        } finally {
+            permit.close();
+        }
+    }
 
-        PDFMergerUtility merger = new PDFMergerUtility();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    /**
+     * Готовит потоковую выдачу PDF партии: данные этикеток загружаются сразу
+     * (ошибки вроде пустой партии возникают до начала ответа), а страницы
+     * пишутся в один документ и сохраняются прямо в выходной поток.
+     * Если актуальный PDF партии заранее собран ({@link #preRenderBatch}),
+     * файл передаётся в ответ без рендеринга.
+     *
+     * @param batchId the identifier of the ProductBatch
+     * @param layout  код раскладки этикеток или null для раскладки по умолчанию
+     * @return future тела ответа, записывающего PDF в поток; завершается, когда место в bulkhead занято
+     * @throws IllegalArgumentException если коробки не найдены или раскладка неизвестна
+     */
+    public CompletableFuture<StreamingResponseBody> streamPdfForBatch(Long batchId, String layout) {
+        return streamPdfForBatch(batchId, layout, NO_PROGRESS);
+    }
 
-        try {
-            // Добавляем все PDF с QR-кодами в merger
-            for (Box box : boxes) {
-                byte[] pdfBytes = generateAndStoreQRCodeWithTextForBox(box.getId());
-                merger.addSource(new ByteArrayInputStream(pdfBytes));
-            }
+    /**
+     * Потоковая выдача PDF партии с отчётом о прогрессе (для фоновых заданий выгрузки).
+     * Место в bulkhead занимается до того, как тело отдаётся вызывающему: при
+     * перегрузке future завершается с {@link RenderingCapacityExceededException},
+     * пока заголовки ответа ещё не отправлены.
+     *
+     * @param batchId  the identifier of the ProductBatch
+     * @param layout   код раскладки этикеток или null для раскладки по умолчанию
+     * @param progress получатель числа записанных этикеток
+     * @return future тела ответа, записывающего PDF в поток
+     * @throws IllegalArgumentException если коробки не найдены или раскладка неизвестна
+     */
+    public CompletableFuture<StreamingResponseBody> streamPdfForBatch(Long batchId, String layout,
+                                                                      ProgressListener progress) {
+        LabelLayout labelLayout = resolveLayout(layout);
+        List<BoxLabelData> labels = prepareLabelsForBatch(batchId);
+        Optional<Path> storedPdf = findStoredBatchPdf(labels, labelLayout);
+        long estimatedBytes = estimateRenderMemory(labels.size(), true, false);
+        if (storedPdf.isPresent()) {
+            // Передача готового файла не рендерит и места в bulkhead не занимает
+            return CompletableFuture.completedFuture(outputStream -> {
+                try {
+                    FileStorageUtil.transferFile(storedPdf.get(), outputStream);
+                    progress.onProgress(labels.size(), labels.size());
+                } catch (NoSuchFileException e) {
+                    // Удалён при инвалидации до начала передачи — собираем заново. Ответ
+                    // уже начат, поэтому место ожидается здесь; случай редкий
+                    permittedBody(labelRenderingBulkhead.acquire(estimatedBytes), batchId, "PDF",
+                            stream -> writePdfForBatch(labels, labelLayout, stream, false, progress))
+                            .writeTo(outputStream);
+                }
+            });
+        }
+        return labelRenderingBulkhead.acquireAsync(estimatedBytes)
+                .thenApply(permit -> permittedBody(permit, batchId, "PDF",
+                        stream -> writePdfForBatch(labels, labelLayout, stream, false, progress)));
+    }
 
-            // Объединяем все PDF-документы
-            merger.setDestinationStream(baos);
-            merger.mergeDocuments(null);
+    /**
+     * Рендеринг партии, который пишет результат в поток.
+     */
+    @FunctionalInterface
+    private interface RenderTask {
+        void writeTo(OutputStream outputStream) throws Exception;
+    }
 
-            return baos.toByteArray();
+    /**
+     * Оборачивает рендеринг в тело ответа, владеющее уже полученным разрешением bulkhead.
+     * Разрешение освобождается по завершении записи, а если тело так и не запущено
+     * (клиент отключился до начала ответа) — по истечении таймаута async-запроса.
+     *
+     * @param permit  разрешение bulkhead
+     * @param batchId идентификатор партии (для сообщений об ошибках)
+     * @param format  название формата (для сообщений об ошибках)
+     * @param task    рендеринг партии
+     * @return тело ответа
+     */
+    private StreamingResponseBody permittedBody(LabelRenderingBulkhead.Permit permit, Long batchId,
+                                                String format, RenderTask task) {
+        permit.releaseUnlessStartedWithin(asyncRequestTimeoutMillis);
+        return outputStream -> {
+            if (!permit.start()) {
+                throw new IOException("Rendering permit for product batch " + batchId + " expired before writing");
+            }
+            try {
+                task.writeTo(outputStream);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Failed to write " + format + " for product batch " + batchId, e);
+            } finally {
+                permit.close();
+            }
+        };
+    }
+
+    /**
+     * Заранее рендерит этикетки партии в фоне: сохраняет отдельные PDF коробок
+     * (из них собирается ZIP) и PDF партии в раскладке по умолчанию, чтобы
+     * запросы печати отдавались из файлового кэша. Рендеринг идёт в вызывающем
+     * потоке и уступает пул интерактивным запросам; место в bulkhead
+     * занимается так же, как при печати.
+     *
+     * @param batchId идентификатор партии
+     * @throws RenderingCapacityExceededException если bulkhead рендеринга занят
+     * @throws Exception в случае ошибки рендеринга или записи
+     */
+    public void preRenderBatch(Long batchId) throws Exception {
+        List<BoxLabelData> labels = prepareLabelsForBatch(batchId);
+        LabelLayout layout = resolveLayout(null);
+        if (findStoredBatchPdf(labels, layout).isPresent()) {
+            return;
+        }
+        Long productId = labels.get(0).getProductId();
+        String fingerprint = batchFingerprint(labels, layout);
+        String fileName = FileStorageUtil.generateBatchPdfFileName(batchId, layout.getCode(), fingerprint);
+        LabelRenderingBulkhead.Permit permit =
+                labelRenderingBulkhead.acquire(estimateRenderMemory(labels.size(), true, false));
+        Path tempFile = FileStorageUtil.createTempFile(productId, fileName);
+        try {
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+                writePdfForBatch(labels, layout, outputStream, true, NO_PROGRESS);
+            }
+            FileStorageUtil.commitTempFile(tempFile, fileName);
+            FileStorageUtil.deleteOutdatedBatchPdfs(productId, batchId, layout.getCode(), fingerprint);
         } finally {
-            baos.close();
+            permit.close();
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Пишет этикетки партии в один PDF-документ, раскладывая их по листам
+     * согласно раскладке. QR-коды рендерятся параллельно порциями по
+     * {@code citrusstock.labels.stream-chunk-size}, этикетки добавляются
+     * в порядке коробок. Документ использует временный файл сверх небольшого
+     * буфера в памяти, поэтому потребление heap не растёт с размером партии.
+     *
+     * @param labels       данные этикеток
+     * @param layout       раскладка этикеток на листе
+     * @param outputStream поток, в который сохраняется PDF
+     * @param background   рендерить в вызывающем потоке, уступая пул интерактивным запросам
+     * @param progress     получатель числа добавленных этикеток
+     * @throws Exception в случае ошибки рендеринга или записи
+     */
+    private void writePdfForBatch(List<BoxLabelData> labels, LabelLayout layout, OutputStream outputStream,
+                                  boolean background, ProgressListener progress) throws Exception {
+        try (PDDocument document = new PDDocument(MemoryUsageSetting.setupMixed(PDF_MAIN_MEMORY_BYTES))) {
+            try (LabelSheetWriter writer = new LabelSheetWriter(document, layout, labelFontProvider)) {
+                for (int from = 0; from < labels.size(); from += streamChunkSize) {
+                    List<BoxLabelData> chunk = labels.subList(from, Math.min(from + streamChunkSize, labels.size()));
+
+                    // Параллельно: матрица QR-кода и отдельный PDF коробки на диске
+                    List<BitMatrix> qrMatrices = background
+                            ? labelRenderingEngine.renderAllInBackground(chunk, this::renderAndStoreLabelMatrix)
+                            : labelRenderingEngine.renderAll(chunk, this::renderAndStoreLabelMatrix);
+
+                    for (int i = 0; i < chunk.size(); i++) {
+                        writer.addLabel(qrMatrices.get(i), chunk.get(i));
+                    }
+                    progress.onProgress(from + chunk.size(), labels.size());
+                }
+            }
+            document.save(outputStream);
         }
     }
 
@@ -136,19 +431,82 @@ public class QRCodeService {
      * @throws Exception if an error occurs during generation
      */
     public byte[] generateAndStoreQRCodesZipForBatch(Long batchId) throws Exception {
-        List<Box> boxes = getBoxesForBatch(batchId);
+        List<BoxLabelData> labels = prepareLabelsForBatch(batchId);
+        LabelRenderingBulkhead.Permit permit =
+                labelRenderingBulkhead.acquire(estimateRenderMemory(labels.size(), false, true));
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writeZipForBatch(labels, baos, NO_PROGRESS);
+            return baos.toByteArray();
+        } finally {
+            permit.close();
+        }
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
-            for (Box box : boxes) {
-                byte[] pdfBytes = generateAndStoreQRCodeWithTextForBox(box.getId());
-                String fileName = "qr_box_" + box.getId() + ".pdf";
-                zos.putNextEntry(new ZipEntry(fileName));
+    /**
+     * Готовит потоковую выдачу ZIP-архива партии. Данные этикеток загружаются сразу,
+     * записи архива пишутся в ответ по мере рендеринга.
+     *
+     * @param batchId the identifier of the ProductBatch
+     * @return future тела ответа, записывающего ZIP в поток; завершается, когда место в bulkhead занято
+     * @throws IllegalArgumentException если коробки не найдены
+     */
+    public CompletableFuture<StreamingResponseBody> streamZipForBatch(Long batchId) {
+        return streamZipForBatch(batchId, NO_PROGRESS);
+    }
+
+    /**
+     * Потоковая выдача ZIP-архива партии с отчётом о прогрессе (для фоновых заданий выгрузки).
+     *
+     * @param batchId  the identifier of the ProductBatch
+     * @param progress получатель числа записанных этикеток
+     * @return future тела ответа, записывающего ZIP в поток
+     * @throws IllegalArgumentException если коробки не найдены
+     */
+    public CompletableFuture<StreamingResponseBody> streamZipForBatch(Long batchId, ProgressListener progress) {
+        List<BoxLabelData> labels = prepareLabelsForBatch(batchId);
+        long estimatedBytes = estimateRenderMemory(labels.size(), false, false);
+        return labelRenderingBulkhead.acquireAsync(estimatedBytes)
+                .thenApply(permit -> permittedBody(permit, batchId, "ZIP",
+                        stream -> writeZipForBatch(labels, stream, progress)));
+    }
+
+    /**
+     * Пишет PDF-этикетки партии в ZIP-архив. PDF уже сжаты, поэтому записи
+     * сохраняются без сжатия (STORED) с заранее посчитанным CRC. Этикетки
+     * рендерятся параллельно порциями, в памяти держится только текущая порция.
+     *
+     * @param labels       данные этикеток
+     * @param outputStream поток, в который пишется архив (не закрывается)
+     * @param progress     получатель числа записанных этикеток
+     * @throws Exception в случае ошибки рендеринга или записи
+     */
+    private void writeZipForBatch(List<BoxLabelData> labels, OutputStream outputStream,
+                                  ProgressListener progress) throws Exception {
+        ZipOutputStream zos = new ZipOutputStream(outputStream);
+        for (int from = 0; from < labels.size(); from += streamChunkSize) {
+            List<BoxLabelData> chunk = labels.subList(from, Math.min(from + streamChunkSize, labels.size()));
+            List<byte[]> labelPdfs = labelRenderingEngine.renderAll(chunk, this::renderAndStoreLabelPdf);
+
+            for (int i = 0; i < chunk.size(); i++) {
+                byte[] pdfBytes = labelPdfs.get(i);
+                CRC32 crc = new CRC32();
+                crc.update(pdfBytes);
+
+                ZipEntry entry = new ZipEntry(FileStorageUtil.generateQrCodePdfFileName(chunk.get(i).getBoxId()));
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(pdfBytes.length);
+                entry.setCompressedSize(pdfBytes.length);
+                entry.setCrc(crc.getValue());
+
+                zos.putNextEntry(entry);
                 zos.write(pdfBytes);
                 zos.closeEntry();
             }
+            zos.flush();
+            progress.onProgress(from + chunk.size(), labels.size());
         }
-        return baos.toByteArray();
+        zos.finish();
     }
 
     /**
@@ -194,23 +552,132 @@ public class QRCodeService {
     }
 
     /**
-     * Получает коробку и гарантирует наличие QR-кода.
+     * Получает коробку, гарантирует наличие кода и готовит данные её этикетки.
      *
      * @param boxId идентификатор коробки
-     * @return коробка с QR-кодом
+     * @return данные этикетки
      * @throws Exception в случае ошибки
      */
-    private Box getBoxAndEnsureQRCode(Long boxId) throws Exception {
-        Box box = getBoxById(boxId);
+    private BoxLabelData prepareLabelForBox(Long boxId) throws Exception {
+        return transactionTemplate.execute(status -> {
+            Box box = getBoxById(boxId);
+            boolean missingCode = box.getCode() == null || box.getCode().isEmpty();
+            int boxNumber = (int) boxRepository.countBoxesUpTo(box.getProductBatch().getId(), boxId);
+            BoxLabelData label = toLabelData(box, boxNumber, box.getProductBatch().getTotalBoxes());
+            if (missingCode) {
+                box.setCode(label.getPayload());
+                boxRepository.save(box);
+            }
+            return label;
+        });
+    }
 
-        // Если у коробки нет QR-кода, генерируем его
-        if (box.getCode() == null || box.getCode().isEmpty()) {
-            generateQRCodeForBox(boxId);
-            // Перезагружаем коробку с обновленным QR-кодом
-            box = getBoxById(boxId);
+    /**
+     * Загружает все коробки партии одним запросом (вместе с партией, продуктом и поставщиком),
+     * сохраняет недостающие коды и готовит данные этикеток в порядке коробок.
+     * Рендеринг выполняется уже вне транзакции.
+     *
+     * @param batchId идентификатор партии
+     * @return данные этикеток
+     * @throws IllegalArgumentException если коробки не найдены
+     */
+    private List<BoxLabelData> prepareLabelsForBatch(Long batchId) {
+        return transactionTemplate.execute(status -> {
+            List<Box> boxes = boxRepository.findForLabelsByProductBatchId(batchId);
+            if (boxes.isEmpty()) {
+                throw new IllegalArgumentException("No boxes found for product batch id " + batchId);
+            }
+            List<BoxLabelData> labels = new ArrayList<>(boxes.size());
+            List<Box> boxesWithoutCode = new ArrayList<>();
+            for (Box box : boxes) {
+                BoxLabelData label = toLabelData(box, labels.size() + 1, boxes.size());
+                if (box.getCode() == null || box.getCode().isEmpty()) {
+                    box.setCode(label.getPayload());
+                    boxesWithoutCode.add(box);
+                }
+                labels.add(label);
+            }
+            boxRepository.saveAll(boxesWithoutCode);
+            return labels;
+        });
+    }
+
+    private BoxLabelData toLabelData(Box box, int boxNumber, int totalBoxes) {
+        ProductBatch batch = box.getProductBatch();
+        Product product = batch.getProduct();
+        Supplier supplier = batch.getSupplier();
+        try {
+            return new BoxLabelData(box.getId(), batch.getId(),
+                    product != null ? product.getId() : null,
+                    product != null ? product.getName() : null,
+                    supplier != null ? supplier.getName() : null,
+                    boxNumber, totalBoxes, batch.getReceivedAt(),
+                    resolvePayload(box, totalBoxes));
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to build QR content for box " + box.getId(), e);
+        }
+    }
+
+    /**
+     * Возвращает PDF-этикетку коробки в стандартной раскладке: из файлового кэша,
+     * если актуальная версия уже сохранена, иначе рендерит и сохраняет её на диск.
+     * Не обращается к БД, поэтому может выполняться в рабочих потоках LabelRenderingEngine.
+     *
+     * @param label данные этикетки
+     * @return массив байтов PDF
+     * @throws Exception в случае ошибки рендеринга или записи
+     */
+    private byte[] renderAndStoreLabelPdf(BoxLabelData label) throws Exception {
+        Optional<Path> storedLabel = findStoredLabel(label);
+        if (storedLabel.isPresent()) {
+            try {
+                return Files.readAllBytes(storedLabel.get());
+            } catch (NoSuchFileException e) {
+                // Удалён при инвалидации — рендерим заново
+            }
+        }
+        BitMatrix qrMatrix = encodeQRCode(label.getPayload());
+        byte[] pdfBytes = renderLabelPdf(qrMatrix, label, LabelLayout.A4);
+        savePdfFile(label, pdfBytes);
+        return pdfBytes;
+    }
+
+    /**
+     * Рендерит и сохраняет PDF-этикетку коробки (если актуальной ещё нет на диске),
+     * но возвращает только матрицу QR-кода — пакетный PDF строит страницу из неё сам.
+     *
+     * @param label данные этикетки
+     * @return матрица модулей QR-кода
+     * @throws Exception в случае ошибки рендеринга или записи
+     */
+    private BitMatrix renderAndStoreLabelMatrix(BoxLabelData label) throws Exception {
+        BitMatrix qrMatrix = encodeQRCode(label.getPayload());
+        if (findStoredLabel(label).isEmpty()) {
+            savePdfFile(label, renderLabelPdf(qrMatrix, label, LabelLayout.A4));
         }
+        return qrMatrix;
+    }
 
-        return box;
+    /**
+     * Рендерит отдельный PDF с одной этикеткой по шаблону раскладки.
+     *
+     * @param qrMatrix матрица модулей QR-кода
+     * @param label    данные этикетки
+     * @param layout   раскладка этикетки
+     * @return массив байтов PDF
+     * @throws IOException в случае ошибки рендеринга
+     */
+    private byte[] renderLabelPdf(BitMatrix qrMatrix, BoxLabelData label, LabelLayout layout) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            try (LabelSheetWriter writer = new LabelSheetWriter(document, layout, labelFontProvider)) {
+                writer.addLabel(qrMatrix, label);
+            }
+            document.save(baos);
+        }
+        return baos.toByteArray();
     }
 
     /**
@@ -222,21 +689,152 @@ public class QRCodeService {
      */
     public byte[] generateQRCodeBytesForBox(Long boxId) throws Exception {
         Box box = getBoxById(boxId);
-        String qrContent = QRCodeContentBuilder.buildContent(box);
+        return renderQRCode(resolvePayload(box));
+    }
+
+    /**
+     * Возвращает содержимое QR-кода коробки, сформированное по текущим данным партии.
+     *
+     * @param box коробка
+     * @return содержимое QR-кода
+     * @throws Exception в случае ошибки формирования содержимого
+     */
+    private String resolvePayload(Box box) throws Exception {
+        return resolvePayload(box, box.getProductBatch().getTotalBoxes());
+    }
+
+    /**
+     * Формирует содержимое QR-кода коробки по текущим данным партии и уже известному
+     * числу коробок — без обращения к коллекции boxes партии. Сохранённое поле code
+     * не используется: оно фиксирует число коробок и продукт на момент генерации
+     * и устаревает, когда партию дополняют или меняют её продукт.
+     *
+     * @param box        коробка (с загруженными партией и продуктом)
+     * @param totalBoxes общее число коробок партии
+     * @return содержимое QR-кода
+     * @throws Exception в случае ошибки формирования содержимого
+     */
+    private String resolvePayload(Box box, int totalBoxes) throws Exception {
+        return QRCodeContentBuilder.buildContent(box.getId(),
+                QRCodeContentBuilder.BatchMetadata.of(box.getProductBatch(), totalBoxes));
+    }
+
+    /**
+     * Рендерит изображение QR-кода по его содержимому.
+     *
+     * @param payload содержимое QR-кода
+     * @return массив байтов с QR-кодом в формате PNG
+     * @throws Exception в случае ошибки генерации
+     */
+    private byte[] renderQRCode(String payload) throws Exception {
+        CodeGenerator generator = codeGeneratorFactory.getGenerator("QR");
+        return generator.generateCodeImage(payload, QR_CODE_SIZE, QR_CODE_SIZE);
+    }
+
+    /**
+     * Возвращает раскладку этикеток по коду; пустой код — раскладка по умолчанию
+     * ({@code citrusstock.labels.default-layout}).
+     *
+     * @param layout код раскладки или null
+     * @return раскладка
+     * @throws IllegalArgumentException если раскладка неизвестна
+     */
+    private LabelLayout resolveLayout(String layout) {
+        return LabelLayout.fromCode(layout == null || layout.isBlank() ? defaultLayout : layout);
+    }
+
+    /**
+     * Кодирует содержимое QR-кода в матрицу модулей для векторного вывода в PDF.
+     *
+     * @param payload содержимое QR-кода
+     * @return матрица модулей
+     * @throws Exception в случае ошибки кодирования
+     */
+    private BitMatrix encodeQRCode(String payload) throws Exception {
         CodeGenerator generator = codeGeneratorFactory.getGenerator("QR");
-        return generator.generateCodeImage(qrContent, QR_CODE_SIZE, QR_CODE_SIZE);
+        return generator.generateCodeMatrix(payload);
     }
 
     /**
-     * Сохраняет PDF-файл в соответствующую директорию.
+     * Сохраняет PDF-файл в соответствующую директорию. Запись выполняется
+     * в фоне ({@link LabelFileWriter}), ответ не ждёт диска.
      *
-     * @param box      коробка
+     * @param label    данные этикетки коробки
      * @param pdfBytes содержимое PDF-файла
-     * @throws IOException в случае ошибки ввода-вывода
+     * @throws IOException в случае ошибки ввода-вывода (в синхронном режиме)
      */
-    private void savePdfFile(Box box, byte[] pdfBytes) throws IOException {
-        Long productId = box.getProductBatch().getProduct().getId();
-        String filename = FileStorageUtil.generateQrCodePdfFileName(box.getId());
-        FileStorageUtil.saveQrCodeFile(productId, filename, pdfBytes);
+    private void savePdfFile(BoxLabelData label, byte[] pdfBytes) throws IOException {
+        labelFileWriter.write(label.getProductId(), label.getBoxId(), labelFingerprint(label), pdfBytes);
+    }
+
+    private Optional<Path> findStoredLabel(BoxLabelData label) {
+        return FileStorageUtil.findQrCodePdf(label.getProductId(), label.getBoxId(), labelFingerprint(label));
+    }
+
+    /**
+     * Оценка памяти задания рендеринга партии для bulkhead: буфер документа PDF,
+     * обрабатываемая порция этикеток и, если результат собирается в памяти, весь файл.
+     *
+     * @param labelCount  число этикеток
+     * @param pdfDocument собирается ли один PDF-документ
+     * @param buffered    собирается ли результат в массив байтов
+     * @return оценка в байтах
+     */
+    private long estimateRenderMemory(int labelCount, boolean pdfDocument, boolean buffered) {
+        long bytes = Math.min(labelCount, streamChunkSize) * ESTIMATED_LABEL_RENDER_BYTES;
+        if (pdfDocument) {
+            bytes += PDF_MAIN_MEMORY_BYTES;
+        }
+        if (buffered) {
+            bytes += labelCount * ESTIMATED_LABEL_OUTPUT_BYTES;
+        }
+        return bytes;
+    }
+
+    private Optional<Path> findStoredBatchPdf(List<BoxLabelData> labels, LabelLayout layout) {
+        BoxLabelData first = labels.get(0);
+        return FileStorageUtil.findBatchPdf(first.getProductId(), first.getBatchId(), layout.getCode(),
+                batchFingerprint(labels, layout));
+    }
+
+    /**
+     * Отпечаток содержимого PDF партии: раскладка и отпечатки всех этикеток в порядке коробок.
+     *
+     * @param labels данные этикеток партии
+     * @param layout раскладка
+     * @return первые 16 hex-символов SHA-256
+     */
+    private String batchFingerprint(List<BoxLabelData> labels, LabelLayout layout) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((LABEL_TEMPLATE_VERSION + "\u0000" + layout.getCode()).getBytes(StandardCharsets.UTF_8));
+            for (BoxLabelData label : labels) {
+                digest.update(labelFingerprint(label).getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Отпечаток содержимого сохраняемой этикетки: всё, что на ней печатается,
+     * плюс версия шаблона. Любое изменение данных коробки или партии даёт
+     * новый отпечаток, поэтому устаревший файл не будет выдан из кэша.
+     *
+     * @param label данные этикетки
+     * @return первые 16 hex-символов SHA-256
+     */
+    private String labelFingerprint(BoxLabelData label) {
+        String content = String.join("\u0000", LABEL_TEMPLATE_VERSION, LabelLayout.A4.getCode(),
+                label.getPayload(), String.valueOf(label.getProductName()), String.valueOf(label.getSupplierName()),
+                String.valueOf(label.getBatchId()), String.valueOf(label.getBoxNumber()),
+                String.valueOf(label.getTotalBoxes()), String.valueOf(label.getReceivedAt()));
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,243 @@
 package com.citrusmall.citrusstock.service;
 
+import com.citrusmall.citrusstock.dto.CacheStats;
 import com.citrusmall.citrusstock.strategy.QrOutputStrategy;
 import com.citrusmall.citrusstock.strategy.QrOutputStrategyFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class QrOutputService {
 
+    private static final Logger logger = LoggerFactory.getLogger(QrOutputService.class);
+    private static final int SPOOL_BUFFER_SIZE = 64 * 1024;
+
     @Autowired
     private QrOutputStrategyFactory strategyFactory;
 
+    @Value("${citrusstock.labels.coalescing.enabled:true}")
+    private boolean coalescingEnabled;
+
+    @Value("${citrusstock.labels.coalescing.result-ttl-seconds:10}")
+    private long resultTtlSeconds;
+
+    @Value("${citrusstock.labels.coalescing.max-results:16}")
+    private int maxResults;
+
+    @Value("${citrusstock.labels.coalescing.spool-dir:qr/spool}")
+    private String spoolDir;
+
+    // Сколько читатель ждёт следующую порцию выгрузки, прежде чем оборвать ответ
+    @Value("${spring.mvc.async.request-timeout:600000}")
+    private long waitTimeoutMillis;
+
+    @Value("${citrusstock.labels.coalescing.render-threads:4}")
+    private int renderThreads;
+
+    private Path spoolPath;
+    // Рендеринг выгрузок идёт в собственных потоках, а не в общем async-пуле MVC.
+    // Очередь не ограничена: число запущенных рендерингов ограничивает bulkhead
+    private ThreadPoolExecutor renderExecutor;
+
+    // Выгрузки в работе и недавно завершённые (пока не истёк TTL результата)
+    private final Map<OutputKey, SharedOutput> sharedOutputs = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private record OutputKey(Long batchId, String format, String layout) {
+    }
+
+    /**
+     * Общий результат одной выгрузки: файл спула, который рендерит первый запрос.
+     * Все запросы, включая первый, передают в ответ уже записанную часть файла,
+     * не дожидаясь конца рендеринга. Файл удаляется, когда выгрузка вытеснена
+     * и последний читатель закончил передачу.
+     */
+    private static final class SharedOutput {
+        // Завершается, когда рендеринг получил место в bulkhead и поставлен в очередь
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+        private volatile Path file;
+        private volatile long completedAt;
+        private volatile long lastJoinedAt = System.nanoTime();
+        private long written;
+        private boolean complete;
+        private Throwable failure;
+        private int readers;
+        private boolean retired;
+        private boolean deleted;
+
+        private synchronized void advance(long bytes) {
+            written += bytes;
+            notifyAll();
+        }
+
+        private synchronized void finish(Throwable error) {
+            if (error == null) {
+                complete = true;
+            } else {
+                failure = error;
+            }
+            completedAt = System.nanoTime();
+            notifyAll();
+        }
+
+        private synchronized boolean isFinished() {
+            return complete || failure != null;
+        }
+
+        private synchronized boolean isExpired(long now, long ttlNanos) {
+            // Выгрузка в работе не вытесняется; TTL отсчитывается и от последнего присоединения
+            return isFinished() && now - Math.max(completedAt, lastJoinedAt) >= ttlNanos;
+        }
+
+        /**
+         * Ждёт, пока в файле появятся байты дальше position.
+         *
+         * @return число записанных байтов; равно position, если выгрузка завершена
+         * @throws IOException если рендеринг завершился ошибкой или не продвинулся за timeoutMillis
+         */
+        private synchronized long awaitBytes(long position, long timeoutMillis) throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            try {
+                while (written <= position && !complete && failure == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new IOException("Timed out waiting for shared label output");
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for shared label output");
+            }
+            if (failure != null) {
+                throw new IOException("Shared label output failed", failure);
+            }
+            return written;
+        }
+
+        // false — файл уже удалён, читать нечего
+        private synchronized boolean addReader() {
+            if (deleted) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        // true — читатель последний после вытеснения и должен удалить файл
+        private synchronized boolean removeReader() {
+            readers--;
+            return retired && readers == 0 && markDeleted();
+        }
+
+        // true — читателей нет и файл удаляет вытесняющий
+        private synchronized boolean retire() {
+            retired = true;
+            return readers == 0 && markDeleted();
+        }
+
+        private boolean markDeleted() {
+            if (deleted) {
+                return false;
+            }
+            deleted = true;
+            return true;
+        }
+    }
+
+    /**
+     * Поток в файл спула, сообщающий читателям о каждой записанной порции.
+     */
+    private static final class SpoolOutputStream extends OutputStream {
+        private final OutputStream file;
+        private final SharedOutput shared;
+
+        private SpoolOutputStream(OutputStream file, SharedOutput shared) {
+            this.file = file;
+            this.shared = shared;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            file.write(b);
+            shared.advance(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            file.write(b, off, len);
+            shared.advance(len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        if (!coalescingEnabled) {
+            return;
+        }
+        spoolPath = Paths.get(spoolDir);
+        Files.createDirectories(spoolPath);
+        // Результаты прошлого запуска не используются
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolPath)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        AtomicInteger threadCounter = new AtomicInteger();
+        renderExecutor = new ThreadPoolExecutor(renderThreads, renderThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "label-output-" + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    void stop() {
+        if (renderExecutor != null) {
+            renderExecutor.shutdownNow();
+        }
+    }
+
     /**
      * Generates output for the given product batch in the specified format.
      *
@@ -23,6 +250,212 @@ public class QrOutputService {
         QrOutputStrategy strategy = strategyFactory.getStrategy(format);
         return strategy.generateOutput(batchId);
     }
+
+    /**
+     * Prepares streaming output for the given product batch in the specified format.
+     * Concurrent requests for the same batch, format and layout share one render:
+     * the first request renders the output into a spool file on a dedicated executor,
+     * and every request, the first one included, streams the part of the file written
+     * so far while rendering goes on. Memory use stays constant and the first bytes are
+     * sent as soon as they are rendered. A finished file is reused by retries for
+     * {@code citrusstock.labels.coalescing.result-ttl-seconds}.
+     *
+     * @param batchId the identifier of the ProductBatch
+     * @param format  the desired format ("pdf", "zip", or "png")
+     * @param layout  the label layout code for sheet formats, or null for the default
+     * @return a future body that writes the output to the response stream;
+     *         completes exceptionally if rendering cannot start or capacity is exceeded
+     * @throws Exception if an error occurs before rendering is scheduled
+     */
+    public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String format, String layout) throws Exception {
+        QrOutputStrategy strategy = strategyFactory.getStrategy(format);
+        if (!coalescingEnabled) {
+            return strategy.streamOutput(batchId, layout);
+        }
+        OutputKey key = new OutputKey(batchId, format.toLowerCase(), layout == null || layout.isBlank() ? null : layout);
+        purgeExpiredOutputs();
+        SharedOutput created = new SharedOutput();
+        SharedOutput existing = sharedOutputs.putIfAbsent(key, created);
+        SharedOutput shared;
+        if (existing != null) {
+            hits.incrementAndGet();
+            existing.lastJoinedAt = System.nanoTime();
+            shared = existing;
+        } else {
+            misses.incrementAndGet();
+            startRender(key, created, strategy);
+            shared = created;
+        }
+        return shared.started.thenApply(ignored -> outputStream -> writeSharedOutput(shared, strategy, key, outputStream));
+    }
+
+    /**
+     * Статистика объединения выгрузок: hits — запросы, получившие чужой результат
+     * (в работе или недавно завершённый), misses — запросы, запустившие рендеринг.
+     */
+    public CacheStats getStats() {
+        return new CacheStats("labelOutputs", sharedOutputs.size(), maxResults,
+                hits.get(), misses.get(), evictions.get());
+    }
+
+    /**
+     * Запускает рендеринг общей выгрузки: занимает место в bulkhead (без блокировки
+     * потока запроса) и ставит запись в файл спула в очередь renderExecutor.
+     * При перегрузке все присоединившиеся запросы получают 429.
+     */
+    private void startRender(OutputKey key, SharedOutput shared, QrOutputStrategy strategy) {
+        try {
+            shared.file = Files.createTempFile(spoolPath, "batch_" + key.batchId() + "_", "." + key.format());
+            strategy.streamOutput(key.batchId(), key.layout()).whenComplete((body, error) -> {
+                if (error != null) {
+                    fail(key, shared, unwrap(error));
+                    return;
+                }
+                try {
+                    renderExecutor.execute(() -> render(shared, body, key));
+                    shared.started.complete(null);
+                } catch (RuntimeException e) {
+                    fail(key, shared, e);
+                }
+            });
+        } catch (Exception e) {
+            fail(key, shared, e);
+        }
+    }
+
+    /**
+     * Рендерит выгрузку в файл спула. Выполняется в потоке renderExecutor
+     * и завершается независимо от того, дочитали ли результат клиенты.
+     */
+    private void render(SharedOutput shared, StreamingResponseBody body, OutputKey key) {
+        try (OutputStream spool = new BufferedOutputStream(
+                new SpoolOutputStream(Files.newOutputStream(shared.file), shared), SPOOL_BUFFER_SIZE)) {
+            body.writeTo(spool);
+        } catch (Exception e) {
+            logger.warn("Shared output of batch {} failed", key.batchId(), e);
+            fail(key, shared, e);
+            return;
+        }
+        shared.finish(null);
+    }
+
+    private void fail(OutputKey key, SharedOutput shared, Throwable error) {
+        shared.finish(error);
+        shared.started.completeExceptionally(error);
+        if (sharedOutputs.remove(key, shared) && shared.retire()) {
+            deleteQuietly(shared.file);
+        }
+    }
+
+    /**
+     * Передаёт выгрузку в ответ по мере записи файла спула. Если файл уже удалён
+     * (выгрузка вытеснена до начала передачи), рендерит заново прямо в ответ.
+     */
+    private void writeSharedOutput(SharedOutput shared, QrOutputStrategy strategy, OutputKey key,
+                                   OutputStream outputStream) throws IOException {
+        if (!shared.addReader()) {
+            logger.debug("Shared output of batch {} was evicted before transfer, rendering separately", key.batchId());
+            renderSeparately(strategy, key, outputStream);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(shared.file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = 0;
+            long available;
+            while ((available = shared.awaitBytes(position, waitTimeoutMillis)) > position) {
+                while (position < available) {
+                    long transferred = channel.transferTo(position, available - position, target);
+                    if (transferred <= 0) {
+                        throw new EOFException("Spooled output of product batch " + key.batchId() + " is truncated");
+                    }
+                    position += transferred;
+                }
+                // Клиент получает уже записанное, пока рендеринг продолжается
+                outputStream.flush();
+            }
+        } finally {
+            if (shared.removeReader()) {
+                deleteQuietly(shared.file);
+            }
+        }
+    }
+
+    private void renderSeparately(QrOutputStrategy strategy, OutputKey key, OutputStream outputStream)
+            throws IOException {
+        try {
+            strategy.streamOutput(key.batchId(), key.layout()).join().writeTo(outputStream);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to write output for product batch " + key.batchId(), unwrap(e));
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Вытесняет завершённые выгрузки старше TTL и самые старые сверх лимита.
+     * Выгрузки в работе не вытесняются. Выполняется при каждом запросе выгрузки,
+     * отдельного планировщика нет.
+     */
+    private void purgeExpiredOutputs() {
+        long now = System.nanoTime();
+        long ttlNanos = TimeUnit.SECONDS.toNanos(resultTtlSeconds);
+        sharedOutputs.forEach((key, shared) -> {
+            if (shared.isExpired(now, ttlNanos)) {
+                evict(key, shared);
+            }
+        });
+        int excess = sharedOutputs.size() - maxResults;
+        if (excess > 0) {
+            List<Map.Entry<OutputKey, SharedOutput>> completed = sharedOutputs.entrySet().stream()
+                    .filter(entry -> entry.getValue().isFinished())
+                    .sorted(Comparator.comparingLong(entry -> entry.getValue().completedAt))
+                    .limit(excess)
+                    .toList();
+            completed.forEach(entry -> evict(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    // Файл удаляется сразу или после последнего читателя
+    private void evict(OutputKey key, SharedOutput shared) {
+        if (sharedOutputs.remove(key, shared)) {
+            evictions.incrementAndGet();
+            if (shared.retire()) {
+                deleteQuietly(shared.file);
+            }
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete spooled output {}", file, e);
+        }
+    }
+
+    /**
+     * Prepares streaming output that reports progress while it is written.
+     *
+     * @param batchId  the identifier of the ProductBatch
+     * @param format   the desired format ("pdf", "zip", or "png")
+     * @param layout   the label layout code for sheet formats, or null for the default
+     * @param progress receives the number of written labels
+     * @return a future body that writes the output to the given stream;
+     *         completes exceptionally if rendering capacity is exceeded
+     * @throws Exception if an error occurs before streaming starts
+     */
+    public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String format, String layout,
+                                                                 QRCodeService.ProgressListener progress) throws Exception {
+        QrOutputStrategy strategy = strategyFactory.getStrategy(format);
+        return strategy.streamOutput(batchId, layout, progress);
+    }
     
     /**
      * Generates output for the given box in the specified format.
@@ -0,0 +1,132 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.CacheStats;
+import com.citrusmall.citrusstock.model.Product;
+import com.citrusmall.citrusstock.model.Supplier;
+import com.citrusmall.citrusstock.model.User;
+import com.citrusmall.citrusstock.model.Zone;
+import com.citrusmall.citrusstock.repository.ProductRepository;
+import com.citrusmall.citrusstock.repository.SupplierRepository;
+import com.citrusmall.citrusstock.repository.UserRepository;
+import com.citrusmall.citrusstock.repository.ZoneRepository;
+import com.citrusmall.citrusstock.util.cache.BoundedTtlCache;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Кэш справочных данных (зоны, пользователи, продукты, поставщики) для горячих путей
+ * сканирования, создания и импорта партий. Таблицы маленькие и почти не меняются,
+ * поэтому записи живут до истечения TTL или до явной инвалидации из CRUD-сервисов.
+ * Возвращаемые сущности отсоединены от контекста персистентности и не должны изменяться.
+ */
+@Service
+public class ReferenceDataCache {
+
+    @Autowired
+    private ZoneRepository zoneRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private SupplierRepository supplierRepository;
+
+    @Value("${citrusstock.cache.reference.max-size:1000}")
+    private int maxSize;
+
+    @Value("${citrusstock.cache.reference.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private BoundedTtlCache<String, Zone> zonesByName;
+    private BoundedTtlCache<Long, User> usersById;
+    private BoundedTtlCache<Long, Product> productsById;
+    private BoundedTtlCache<Long, Supplier> suppliersById;
+    private BoundedTtlCache<String, Product> productsByName;
+    private BoundedTtlCache<String, Supplier> suppliersByName;
+
+    @PostConstruct
+    void init() {
+        Duration ttl = Duration.ofSeconds(ttlSeconds);
+        zonesByName = new BoundedTtlCache<>("zonesByName", maxSize, ttl);
+        usersById = new BoundedTtlCache<>("usersById", maxSize, ttl);
+        productsById = new BoundedTtlCache<>("productsById", maxSize, ttl);
+        suppliersById = new BoundedTtlCache<>("suppliersById", maxSize, ttl);
+        productsByName = new BoundedTtlCache<>("productsByName", maxSize, ttl);
+        suppliersByName = new BoundedTtlCache<>("suppliersByName", maxSize, ttl);
+    }
+
+    public Optional<Zone> findZoneByName(String name) {
+        return zonesByName.get(name, zoneRepository::findByName);
+    }
+
+    public Optional<User> findUserById(Long id) {
+        return usersById.get(id, userRepository::findById);
+    }
+
+    public Optional<Product> findProductById(Long id) {
+        return productsById.get(id, productRepository::findById);
+    }
+
+    public Optional<Supplier> findSupplierById(Long id) {
+        return suppliersById.get(id, supplierRepository::findById);
+    }
+
+    public Optional<Product> findProductByName(String name) {
+        return productsByName.get(name, productRepository::findFirstByNameOrderByIdAsc);
+    }
+
+    public Optional<Supplier> findSupplierByName(String name) {
+        return suppliersByName.get(name, supplierRepository::findFirstByNameOrderByIdAsc);
+    }
+
+    /**
+     * Сбрасывает кэш зон целиком: при переименовании зоны меняется ключ.
+     */
+    public void invalidateZones() {
+        zonesByName.invalidateAll();
+    }
+
+    public void invalidateUser(Long id) {
+        usersById.invalidate(id);
+    }
+
+    /**
+     * Сбрасывает продукт по ID и кэш продуктов по имени целиком: при переименовании меняется ключ.
+     */
+    public void invalidateProduct(Long id) {
+        productsById.invalidate(id);
+        productsByName.invalidateAll();
+    }
+
+    /**
+     * Сбрасывает поставщика по ID и кэш поставщиков по имени целиком: при переименовании меняется ключ.
+     */
+    public void invalidateSupplier(Long id) {
+        suppliersById.invalidate(id);
+        suppliersByName.invalidateAll();
+    }
+
+    public void invalidateAll() {
+        zonesByName.invalidateAll();
+        usersById.invalidateAll();
+        productsById.invalidateAll();
+        suppliersById.invalidateAll();
+        productsByName.invalidateAll();
+        suppliersByName.invalidateAll();
+    }
+
+    public List<CacheStats> getStats() {
+        return List.of(zonesByName.getStats(), usersById.getStats(),
+                productsById.getStats(), suppliersById.getStats(),
+                productsByName.getStats(), suppliersByName.getStats());
+    }
+}
@@ -0,0 +1,576 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.model.ScanEvent;
+import com.citrusmall.citrusstock.model.enums.ScanMode;
+import com.citrusmall.citrusstock.repository.ScanEventRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Write-behind журнал событий сканирования.
+ * События копятся в ограниченной очереди в памяти и пишутся в scan_events
+ * JDBC-пакетами по достижении batch-size или по таймеру flush-interval-ms.
+ * <p>
+ * Опционально события дублируются в локальный append-only файл, который служит
+ * буфером на случай падения. В файл события пишутся до коммита транзакции
+ * сканирования (с fsync, если он включён), поэтому закоммиченное сканирование
+ * не теряет событие при падении процесса. При откате в файл дописываются отметки
+ * отмены. При старте неотправленные сегменты файла повторно вставляются в БД;
+ * у каждого события есть event_id, и уже записанные события пропускаются.
+ * При остановке приложения очередь сбрасывается в БД.
+ * <p>
+ * Место в очереди резервируется до коммита транзакции сканирования: если журнал
+ * переполнен, сканирование откатывается, а не теряет событие после коммита.
+ * Записью в БД занимается только поток сброса, каждый пакет — в своей транзакции.
+ * <p>
+ * Если журнал выключен, события сохраняются синхронно через ScanEventRepository.
+ */
+@Service
+public class ScanEventJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanEventJournal.class);
+
+    // Повторная вставка события при восстановлении журнала пропускается
+    private static final String INSERT_SQL =
+            "INSERT INTO scan_events (event_id, box_id, user_id, scan_mode, scan_time) VALUES (?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (event_id) DO NOTHING";
+    private static final String SEGMENT_SUFFIX = ".flushing";
+    private static final String REJECTED_SUFFIX = ".rejected";
+    // Строка файла журнала, отменяющая событие откатившейся транзакции
+    private static final String CANCEL_PREFIX = "CANCEL;";
+
+    @Autowired
+    private ScanEventRepository scanEventRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${citrusstock.scan-journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${citrusstock.scan-journal.capacity:10000}")
+    private int capacity;
+
+    @Value("${citrusstock.scan-journal.batch-size:500}")
+    private int batchSize;
+
+    @Value("${citrusstock.scan-journal.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${citrusstock.scan-journal.offer-timeout-ms:5000}")
+    private long offerTimeoutMs;
+
+    @Value("${citrusstock.scan-journal.file:}")
+    private String journalFile;
+
+    @Value("${citrusstock.scan-journal.fsync:false}")
+    private boolean fsync;
+
+    private BlockingQueue<Entry> queue;
+    // Свободные места очереди; занимаются до коммита, освобождаются при выборке из очереди
+    private Semaphore capacityPermits;
+    private TransactionTemplate requiresNewTransactionTemplate;
+    private ScheduledExecutorService flusher;
+    private Path journalPath;
+    private FileChannel journalChannel;
+    // Номер текущего файла журнала; увеличивается при каждой ротации
+    private long journalGeneration;
+
+    private final Object journalLock = new Object();
+    private final Object flushLock = new Object();
+    private final AtomicLong segmentCounter = new AtomicLong();
+
+    // Число транзакций, записавших события в файл журнала, но ещё не завершившихся, по номеру файла
+    private final Map<Long, Integer> inFlightByGeneration = new HashMap<>();
+    // Сегменты, в которых ещё есть события незавершённых транзакций
+    private final List<Segment> pendingSegments = new ArrayList<>();
+
+    // События, которые не удалось записать при прошлом сбросе, и их файловые сегменты
+    private final List<Entry> unflushed = new ArrayList<>();
+    private final List<Segment> unflushedSegments = new ArrayList<>();
+
+    private final AtomicLong flushedEvents = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    /**
+     * Событие сканирования в том виде, в каком оно хранится в журнале.
+     */
+    public record Entry(UUID eventId, long boxId, long userId, ScanMode scanMode, LocalDateTime scanTime) {
+
+        static Entry of(ScanEvent event) {
+            return new Entry(UUID.randomUUID(), event.getBox().getId(), event.getUser().getId(),
+                    event.getScanMode(), event.getScanTime());
+        }
+
+        String toLine() {
+            return eventId + ";" + boxId + ";" + userId + ";" + scanMode.name() + ";" + scanTime + "\n";
+        }
+
+        String toCancelLine() {
+            return CANCEL_PREFIX + eventId + "\n";
+        }
+
+        static Entry parse(String line) {
+            String[] parts = line.split(";");
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("Malformed scan journal line: " + line);
+            }
+            return new Entry(UUID.fromString(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                    ScanMode.valueOf(parts[3]), LocalDateTime.parse(parts[4]));
+        }
+    }
+
+    /**
+     * Сегмент файла журнала и номер файла, из которого он получен ротацией.
+     */
+    private record Segment(Path path, long generation) {
+    }
+
+    /**
+     * Пишет события в файл журнала до коммита транзакции сканирования, а в очередь
+     * ставит после коммита. При откате освобождает место в очереди и дописывает
+     * в файл отметки отмены, чтобы восстановление не вставило эти события.
+     */
+    private final class JournalSynchronization implements TransactionSynchronization {
+        private final List<Entry> entries;
+        // Номер файла, в который записаны события; -1 — в файл не записаны
+        private long generation = -1;
+
+        private JournalSynchronization(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (journalPath == null) {
+                return;
+            }
+            synchronized (journalLock) {
+                generation = journalGeneration;
+                inFlightByGeneration.merge(generation, 1, Integer::sum);
+                // Ошибка записи откатывает сканирование: событие не должно потеряться после коммита
+                writeToJournal(entries.stream().map(Entry::toLine).collect(Collectors.joining()));
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            synchronized (journalLock) {
+                if (generation >= 0) {
+                    inFlightByGeneration.computeIfPresent(generation, (key, count) -> count == 1 ? null : count - 1);
+                }
+                if (status != STATUS_ROLLED_BACK) {
+                    queue.addAll(entries);
+                } else {
+                    capacityPermits.release(entries.size());
+                    if (generation >= 0) {
+                        appendCancellations(entries);
+                    }
+                }
+            }
+            if (status != STATUS_ROLLED_BACK && queue.size() >= batchSize) {
+                requestFlush();
+            }
+        }
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        queue = new LinkedBlockingQueue<>();
+        capacityPermits = new Semaphore(capacity, true);
+        requiresNewTransactionTemplate = new TransactionTemplate(transactionManager);
+        requiresNewTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        if (journalFile != null && !journalFile.isBlank()) {
+            journalPath = Paths.get(journalFile);
+            if (journalPath.getParent() != null) {
+                Files.createDirectories(journalPath.getParent());
+            }
+            recoverSegments();
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scan-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (!enabled) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(flushIntervalMs * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Сбрасываем всё, что осталось в очереди, пока есть прогресс
+        while (!queue.isEmpty() || !unflushed.isEmpty()) {
+            int pending = queue.size() + unflushed.size();
+            flushQuietly();
+            if (queue.size() + unflushed.size() >= pending) {
+                logger.warn("Scan event journal stopped with {} pending events", pending);
+                break;
+            }
+        }
+        synchronized (journalLock) {
+            closeJournalChannel();
+        }
+    }
+
+    /**
+     * Регистрирует события сканирования.
+     * Внутри транзакции события пишутся в файл журнала перед коммитом, а в очередь
+     * попадают только после коммита, чтобы откат сканирования не оставлял событий
+     * для несуществующих изменений. Место в очереди занимается сразу, до коммита,
+     * поэтому после коммита постановка в очередь не ждёт и не завершается ошибкой.
+     *
+     * @param events события сканирования
+     * @throws IllegalStateException если журнал не освободил место за offer-timeout-ms
+     *                               или события не удалось записать в файл журнала
+     */
+    public void record(List<ScanEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        if (!enabled) {
+            scanEventRepository.saveAll(events);
+            return;
+        }
+        if (events.size() > capacity) {
+            // Пакет больше всего журнала — пишем синхронно в транзакции вызывающего
+            scanEventRepository.saveAll(events);
+            return;
+        }
+        List<Entry> entries = events.stream().map(Entry::of).toList();
+        reserveCapacity(entries.size());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new JournalSynchronization(entries));
+        } else {
+            enqueue(entries);
+        }
+    }
+
+    /**
+     * Сбрасывает накопленные события в БД. Каждый пакет пишется в собственной
+     * транзакции; если БД отвергла пакет, он повторяется по одному событию,
+     * и отбрасываются только отвергнутые события.
+     *
+     * @return количество записанных событий
+     */
+    public int flush() {
+        synchronized (flushLock) {
+            if (unflushed.isEmpty()) {
+                synchronized (journalLock) {
+                    capacityPermits.release(queue.drainTo(unflushed));
+                    rotateJournal();
+                    // Сегмент с событиями незавершённых транзакций удаляется при следующих сбросах:
+                    // в очередь эти события попадут уже после выборки
+                    for (Iterator<Segment> iterator = pendingSegments.iterator(); iterator.hasNext(); ) {
+                        Segment segment = iterator.next();
+                        if (!inFlightByGeneration.containsKey(segment.generation())) {
+                            unflushedSegments.add(segment);
+                            iterator.remove();
+                        }
+                    }
+                }
+            }
+            if (unflushed.isEmpty()) {
+                deleteSegments();
+                return 0;
+            }
+            int written = 0;
+            List<Entry> rejected = new ArrayList<>();
+            try {
+                while (!unflushed.isEmpty()) {
+                    List<Entry> chunk = unflushed.subList(0, Math.min(batchSize, unflushed.size()));
+                    try {
+                        insertInNewTransaction(chunk);
+                        written += chunk.size();
+                        // Записанное убираем сразу, чтобы сбой следующего пакета не повторял его
+                        chunk.clear();
+                    } catch (DataIntegrityViolationException e) {
+                        // Пакет откатился целиком — повторяем по одному событию
+                        for (Iterator<Entry> iterator = chunk.iterator(); iterator.hasNext(); ) {
+                            Entry entry = iterator.next();
+                            try {
+                                insertInNewTransaction(List.of(entry));
+                                written++;
+                            } catch (DataIntegrityViolationException entryError) {
+                                // Такое событие никогда не будет записано (например, коробка удалена)
+                                logger.error("Dropping scan event for box {} rejected by the database: {}",
+                                        entry.boxId(), entryError.getMostSpecificCause().getMessage());
+                                rejected.add(entry);
+                            }
+                            iterator.remove();
+                        }
+                    }
+                }
+            } finally {
+                flushedEvents.addAndGet(written);
+                saveRejected(rejected);
+            }
+            flushes.incrementAndGet();
+            deleteSegments();
+            return written;
+        }
+    }
+
+    public int getQueueDepth() {
+        return enabled ? queue.size() : 0;
+    }
+
+    public long getFlushedEvents() {
+        return flushedEvents.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Занимает место в очереди для count событий, при необходимости ожидая поток сброса.
+     * Сам вызывающий поток в БД не пишет.
+     */
+    private void reserveCapacity(int count) {
+        if (capacityPermits.availablePermits() < count) {
+            requestFlush();
+        }
+        try {
+            if (!capacityPermits.tryAcquire(count, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Scan event journal is full, " + count + " scan events were not recorded");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for scan event journal", e);
+        }
+    }
+
+    /**
+     * Пишет события вне транзакции в файл журнала и ставит в очередь.
+     * Место уже занято {@link #reserveCapacity}.
+     */
+    private void enqueue(List<Entry> entries) {
+        synchronized (journalLock) {
+            try {
+                writeToJournal(entries.stream().map(Entry::toLine).collect(Collectors.joining()));
+            } catch (IllegalStateException e) {
+                capacityPermits.release(entries.size());
+                throw e;
+            }
+            queue.addAll(entries);
+        }
+        if (queue.size() >= batchSize) {
+            requestFlush();
+        }
+    }
+
+    private void requestFlush() {
+        if (flusher.isShutdown()) {
+            return;
+        }
+        try {
+            flusher.execute(this::flushQuietly);
+        } catch (RejectedExecutionException e) {
+            // Журнал останавливается — остаток сбросит stop()
+        }
+    }
+
+    private void insertInNewTransaction(List<Entry> entries) {
+        requiresNewTransactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.batchUpdate(INSERT_SQL, entries, entries.size(), (ps, entry) -> {
+                    ps.setObject(1, entry.eventId());
+                    ps.setLong(2, entry.boxId());
+                    ps.setLong(3, entry.userId());
+                    ps.setString(4, entry.scanMode().name());
+                    ps.setTimestamp(5, Timestamp.valueOf(entry.scanTime()));
+                }));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.warn("Scan event journal flush failed, will retry: {}", e.getMessage());
+        }
+    }
+
+    // --- Файловый буфер ---
+
+    /**
+     * Дописывает строки в файл журнала (под journalLock), с fsync, если он включён.
+     *
+     * @throws IllegalStateException если записать не удалось
+     */
+    private void writeToJournal(String lines) {
+        if (journalPath == null) {
+            return;
+        }
+        try {
+            if (journalChannel == null) {
+                journalChannel = FileChannel.open(journalPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                journalChannel.write(buffer);
+            }
+            if (fsync) {
+                journalChannel.force(false);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write scan events to journal file " + journalPath, e);
+        }
+    }
+
+    private void appendCancellations(List<Entry> entries) {
+        try {
+            writeToJournal(entries.stream().map(Entry::toCancelLine).collect(Collectors.joining()));
+        } catch (IllegalStateException e) {
+            // Без отметки отмены восстановление может вставить события откатившегося сканирования
+            logger.error("Failed to cancel {} rolled back scan events in journal file {}", entries.size(), journalPath, e);
+        }
+    }
+
+    /**
+     * Переименовывает текущий файл журнала в сегмент, который будет удалён
+     * после успешной записи соответствующих событий в БД.
+     */
+    private void rotateJournal() {
+        if (journalPath == null || journalChannel == null) {
+            return;
+        }
+        closeJournalChannel();
+        Path segment = journalPath.resolveSibling(journalPath.getFileName() + "."
+                + System.currentTimeMillis() + "-" + segmentCounter.incrementAndGet() + SEGMENT_SUFFIX);
+        try {
+            Files.move(journalPath, segment, StandardCopyOption.ATOMIC_MOVE);
+            pendingSegments.add(new Segment(segment, journalGeneration++));
+        } catch (IOException e) {
+            logger.error("Failed to rotate scan journal file {}", journalPath, e);
+        }
+    }
+
+    private void recoverSegments() throws IOException {
+        Path directory = journalPath.toAbsolutePath().getParent();
+        String prefix = journalPath.getFileName().toString();
+        if (Files.exists(journalPath)) {
+            Path segment = journalPath.resolveSibling(prefix + "." + System.currentTimeMillis()
+                    + "-" + segmentCounter.incrementAndGet() + SEGMENT_SUFFIX);
+            Files.move(journalPath, segment, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files
+                    .filter(path -> path.getFileName().toString().startsWith(prefix + "."))
+                    .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+            Set<UUID> cancelled = new HashSet<>();
+            for (Path segment : segments) {
+                for (String line : Files.readAllLines(segment, StandardCharsets.UTF_8)) {
+                    if (line.startsWith(CANCEL_PREFIX)) {
+                        cancelled.add(UUID.fromString(line.substring(CANCEL_PREFIX.length())));
+                    } else if (!line.isBlank()) {
+                        unflushed.add(Entry.parse(line));
+                    }
+                }
+                unflushedSegments.add(new Segment(segment, -1));
+            }
+            unflushed.removeIf(entry -> cancelled.contains(entry.eventId()));
+        }
+        if (!unflushed.isEmpty()) {
+            logger.info("Recovered {} scan events from journal {}", unflushed.size(), journalPath);
+        }
+    }
+
+    private void deleteSegments() {
+        for (Segment segment : unflushedSegments) {
+            try {
+                Files.deleteIfExists(segment.path());
+            } catch (IOException e) {
+                logger.warn("Failed to delete flushed scan journal segment {}", segment.path(), e);
+            }
+        }
+        unflushedSegments.clear();
+    }
+
+    /**
+     * Откладывает отвергнутые БД события в файл рядом с журналом для ручного разбора.
+     */
+    private void saveRejected(List<Entry> rejected) {
+        if (rejected.isEmpty() || journalPath == null) {
+            return;
+        }
+        Path rejectedPath = journalPath.resolveSibling(journalPath.getFileName() + REJECTED_SUFFIX);
+        StringBuilder lines = new StringBuilder();
+        rejected.forEach(entry -> lines.append(entry.toLine()));
+        try {
+            Files.writeString(rejectedPath, lines, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.warn("Failed to save {} rejected scan events to {}", rejected.size(), rejectedPath, e);
+        }
+    }
+
+    private void closeJournalChannel() {
+        if (journalChannel == null) {
+            return;
+        }
+        try {
+            journalChannel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close scan journal file {}", journalPath, e);
+        }
+        journalChannel = null;
+    }
+}
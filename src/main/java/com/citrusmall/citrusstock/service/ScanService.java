@@ -1,23 +1,23 @@
 package com.citrusmall.citrusstock.service;
 
+import com.citrusmall.citrusstock.dto.BulkScanResponse;
 import com.citrusmall.citrusstock.model.*;
 import com.citrusmall.citrusstock.model.enums.GoodsStatus;
 import com.citrusmall.citrusstock.model.enums.ScanMode;
 import com.citrusmall.citrusstock.repository.BoxRepository;
-import com.citrusmall.citrusstock.repository.ScanEventRepository;
-import com.citrusmall.citrusstock.repository.UserRepository;
-import com.citrusmall.citrusstock.repository.ZoneRepository;
 import com.citrusmall.citrusstock.util.QRCodeContentBuilder;
-import com.citrusmall.citrusstock.util.codegen.CodeGeneratorFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.time.LocalDateTime;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class ScanService {
@@ -26,37 +26,30 @@ public class ScanService {
     private BoxRepository boxRepository;
 
     @Autowired
-    private ScanEventRepository scanEventRepository;
+    private ScanEventJournal scanEventJournal;
 
     @Autowired
-    private UserRepository userRepository;
+    private ReferenceDataCache referenceDataCache;
 
     @Autowired
     private ProductBatchService productBatchService;
 
-    @Autowired
-    private ZoneRepository zoneRepository;
-
-    @Autowired
-    private CodeGeneratorFactory codeGeneratorFactory;
-
     /**
-     * Генерирует QR-код для коробки и сохраняет его в поле code,
+     * Формирует содержимое QR-кода для коробки и сохраняет его в поле code,
      * если QR-код ещё не сгенерирован.
-     * Используется метод QRCodeContentBuilder для формирования содержимого.
+     * Используется метод QRCodeContentBuilder для формирования содержимого,
+     * изображение рендерится только при запросе этикетки.
      *
      * @param box коробка, для которой генерируется QR-код
      * @throws Exception в случае ошибки генерации
      */
     private void generateAndStoreQRCodeIfNeeded(Box box) throws Exception {
         if (box.getCode() == null || box.getCode().isEmpty()) {
-            String qrContent = QRCodeContentBuilder.buildContent(box);
-            byte[] qrImageBytes = codeGeneratorFactory.getGenerator("QR").generateCodeImage(qrContent, 200, 200);
-            String base64Image = Base64.getEncoder().encodeToString(qrImageBytes);
-            box.setCode(base64Image);
+            box.setCode(QRCodeContentBuilder.buildContent(box));
         }
     }
 
+    @Transactional(rollbackFor = Exception.class)
     public void scanBoxByMode(Long boxId, Long userId, ScanMode scanMode) throws Exception {
         if (scanMode == ScanMode.ON_WAREHOUSE) {
             scanNewBox(boxId, userId);
@@ -80,18 +73,20 @@ public class ScanService {
      * @param newBoxStatus    новый статус коробки (SCANNED для новых товаров, SHIPPED для отгрузки)
      * @throws Exception      в случае ошибки генерации QR-кода или сохранения данных
      */
+    @Transactional(rollbackFor = Exception.class)
     public void scanBox(Long boxId, Long userId, String targetZoneName, GoodsStatus newBatchStatus, GoodsStatus newBoxStatus) throws Exception {
-        // 1. Находим коробку и пользователя
-        Box box = boxRepository.findById(boxId)
+        // 1. Находим коробку (с блокировкой строки до конца транзакции) и пользователя
+        Box box = boxRepository.findByIdForUpdate(boxId)
                 .orElseThrow(() -> new IllegalArgumentException("Box with id " + boxId + " not found"));
         
-        User user = userRepository.findById(userId)
+        User user = referenceDataCache.findUserById(userId)
                 .orElseThrow(() -> new IllegalArgumentException("User not found with id " + userId));
 
         // 2. Генерируем QR-код, если необходимо
         generateAndStoreQRCodeIfNeeded(box);
 
         // 3. Обновляем статус и информацию о сканировании коробки
+        GoodsStatus previousStatus = box.getStatus();
         box.setStatus(newBoxStatus);
         box.setScannedAt(LocalDateTime.now());
         box.setScannedBy(user);
@@ -103,27 +98,101 @@ public class ScanService {
 
         // 5. Получаем партию и целевую зону
         ProductBatch batch = box.getProductBatch();
-        Zone targetZone = zoneRepository.findByName(targetZoneName)
+        Zone targetZone = referenceDataCache.findZoneByName(targetZoneName)
                 .orElseThrow(() -> new IllegalStateException("Zone '" + targetZoneName + "' not found"));
                 
-        // 6. Обновляем статус партии на основе статусов всех её коробок
+        // 6. Обновляем счётчики коробок и статус партии
+        productBatchService.onBoxStatusChanged(batch.getId(), previousStatus, newBoxStatus, 1);
         productBatchService.updateBatchStatusBasedOnBoxes(batch.getId(), targetZone);
     }
     
     /**
-     * Создает и сохраняет событие сканирования для коробки
+     * Пакетное сканирование коробок (например, целой паллеты).
+     * В отличие от поштучного scanBox, все коробки загружаются одним запросом,
+     * пользователь и целевая зона — по одному разу, события сканирования
+     * передаются в журнал одним пакетом, а статус каждой затронутой партии
+     * пересчитывается только один раз.
+     *
+     * @param boxIds   ID сканируемых коробок
+     * @param userId   ID оператора, выполнившего сканирование
+     * @param scanMode режим сканирования (ON_WAREHOUSE или SHIPMENT)
+     * @return результат сканирования с количеством коробок и ID затронутых партий
+     * @throws IllegalArgumentException если часть коробок или пользователь не найдены
+     * @throws Exception                в случае ошибки генерации QR-кода или сохранения данных
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BulkScanResponse scanBoxesBulk(List<Long> boxIds, Long userId, ScanMode scanMode) throws Exception {
+        if (boxIds == null || boxIds.isEmpty()) {
+            throw new IllegalArgumentException("Box IDs must be provided");
+        }
+        if (scanMode == null) {
+            throw new IllegalArgumentException("Unsupported scan mode: " + scanMode);
+        }
+        String targetZoneName = scanMode == ScanMode.SHIPMENT ? "SHIPMENT" : "RECEIVING";
+        GoodsStatus newBoxStatus = scanMode == ScanMode.SHIPMENT ? GoodsStatus.SHIPPED : GoodsStatus.SCANNED;
+
+        // 1. Загружаем все коробки (вместе с партиями) одним запросом и блокируем их строки,
+        //    чтобы прежний статус для счётчиков не устарел из-за параллельного сканирования
+        Set<Long> uniqueIds = new LinkedHashSet<>(boxIds);
+        List<Box> boxes = boxRepository.findAllWithProductBatchByIdInForUpdate(uniqueIds);
+        if (boxes.size() != uniqueIds.size()) {
+            Set<Long> foundIds = boxes.stream().map(Box::getId).collect(Collectors.toSet());
+            List<Long> missingIds = uniqueIds.stream().filter(id -> !foundIds.contains(id)).toList();
+            throw new IllegalArgumentException("Boxes not found with ids " + missingIds);
+        }
+
+        // 2. Пользователь и целевая зона нужны один раз на весь пакет
+        User user = referenceDataCache.findUserById(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User not found with id " + userId));
+        Zone targetZone = referenceDataCache.findZoneByName(targetZoneName)
+                .orElseThrow(() -> new IllegalStateException("Zone '" + targetZoneName + "' not found"));
+
+        // 3. Обновляем коробки и готовим события сканирования
+        LocalDateTime scanTime = LocalDateTime.now();
+        List<ScanEvent> events = new ArrayList<>(boxes.size());
+        Map<Long, List<Box>> boxesByBatch = new LinkedHashMap<>();
+        Map<Long, Map<GoodsStatus, Integer>> statusChangesByBatch = new LinkedHashMap<>();
+        for (Box box : boxes) {
+            generateAndStoreQRCodeIfNeeded(box);
+            statusChangesByBatch.computeIfAbsent(box.getProductBatch().getId(), id -> new LinkedHashMap<>())
+                    .merge(box.getStatus(), 1, Integer::sum);
+            box.setStatus(newBoxStatus);
+            box.setScannedAt(scanTime);
+            box.setScannedBy(user);
+            events.add(buildScanEvent(box, user, scanMode, scanTime));
+            boxesByBatch.computeIfAbsent(box.getProductBatch().getId(), id -> new ArrayList<>()).add(box);
+        }
+        boxRepository.saveAll(boxes);
+        scanEventJournal.record(events);
+
+        // 4. Обновляем счётчики и пересчитываем статус каждой затронутой партии один раз
+        for (Long batchId : boxesByBatch.keySet()) {
+            Map<GoodsStatus, Integer> previousStatuses = statusChangesByBatch.getOrDefault(batchId, Map.of());
+            previousStatuses.forEach((previousStatus, count) ->
+                    productBatchService.onBoxStatusChanged(batchId, previousStatus, newBoxStatus, count));
+            productBatchService.updateBatchStatusBasedOnBoxes(batchId, targetZone);
+        }
+        return new BulkScanResponse(boxes.size(), new ArrayList<>(boxesByBatch.keySet()));
+    }
+
+    /**
+     * Создает событие сканирования для коробки и передает его в журнал событий
      *
      * @param box  отсканированная коробка
      * @param user пользователь, выполнивший сканирование
      * @param mode режим сканирования
      */
     private void createScanEvent(Box box, User user, ScanMode mode) {
+        scanEventJournal.record(List.of(buildScanEvent(box, user, mode, LocalDateTime.now())));
+    }
+
+    private ScanEvent buildScanEvent(Box box, User user, ScanMode mode, LocalDateTime scanTime) {
         ScanEvent event = new ScanEvent();
         event.setBox(box);
         event.setUser(user);
         event.setScanMode(mode);
-        event.setScanTime(LocalDateTime.now());
-        scanEventRepository.save(event);
+        event.setScanTime(scanTime);
+        return event;
     }
 
     /**
@@ -12,6 +12,9 @@ public class SupplierService {
     @Autowired
     private SupplierRepository supplierRepository;
 
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
     public Supplier createSupplier(Supplier supplier) {
         return supplierRepository.save(supplier);
     }
@@ -28,10 +31,13 @@ public class SupplierService {
     public Supplier updateSupplier(Long id, Supplier supplierDetails) {
         Supplier supplier = getSupplierById(id);
         supplier.setName(supplierDetails.getName());
-        return supplierRepository.save(supplier);
+        Supplier savedSupplier = supplierRepository.save(supplier);
+        referenceDataCache.invalidateSupplier(id);
+        return savedSupplier;
     }
 
     public void deleteSupplier(Long id) {
         supplierRepository.deleteById(id);
+        referenceDataCache.invalidateSupplier(id);
     }
 }
\ No newline at end of file
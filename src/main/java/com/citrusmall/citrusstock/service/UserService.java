@@ -13,6 +13,9 @@ public class UserService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
     public User createUser(User user) {
         return userRepository.save(user);
     }
@@ -31,10 +34,13 @@ public class UserService {
         user.setUsername(userDetails.getUsername());
         user.setPassword(userDetails.getPassword());
         user.setRole(userDetails.getRole());
-        return userRepository.save(user);
+        User savedUser = userRepository.save(user);
+        referenceDataCache.invalidateUser(id);
+        return savedUser;
     }
 
     public void deleteUser(Long id) {
         userRepository.deleteById(id);
+        referenceDataCache.invalidateUser(id);
     }
 }
@@ -13,8 +13,13 @@ public class ZoneService {
     @Autowired
     private ZoneRepository zoneRepository;
 
+    @Autowired
+    private ReferenceDataCache referenceDataCache;
+
     public Zone createZone(Zone zone) {
-        return zoneRepository.save(zone);
+        Zone savedZone = zoneRepository.save(zone);
+        referenceDataCache.invalidateZones();
+        return savedZone;
     }
 
     public Zone getZoneById(Long id) {
@@ -30,10 +35,13 @@ public class ZoneService {
         Zone zone = getZoneById(id);
         zone.setName(zoneDetails.getName());
         zone.setColor(zoneDetails.getColor());
-        return zoneRepository.save(zone);
+        Zone savedZone = zoneRepository.save(zone);
+        referenceDataCache.invalidateZones();
+        return savedZone;
     }
 
     public void deleteZone(Long id) {
         zoneRepository.deleteById(id);
+        referenceDataCache.invalidateZones();
     }
 }
@@ -3,6 +3,7 @@ package com.citrusmall.citrusstock.strategy;
 import com.citrusmall.citrusstock.service.QRCodeService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * Адаптер для работы с QR-кодами Box в паттерне Strategy.
@@ -27,6 +28,35 @@ public class BoxQrOutputAdapter {
         return strategy.generateOutputForBox(boxId);
     }
 
+    /**
+     * Генерирует выходные данные QR-кода для Box в указанном формате и раскладке этикетки.
+     *
+     * @param boxId идентификатор коробки
+     * @param format формат ("pdf", "png", "zip")
+     * @param layout код раскладки этикетки или null для раскладки по умолчанию
+     * @return массив байтов с QR-кодом
+     * @throws Exception в случае ошибки
+     */
+    public byte[] generateOutputForBox(Long boxId, String format, String layout) throws Exception {
+        QrOutputStrategy strategy = strategyFactory.getStrategy(format);
+        return strategy.generateOutputForBox(boxId, layout);
+    }
+
+    /**
+     * Готовит потоковую выдачу QR-кода для Box; сохранённые этикетки
+     * передаются из файлового кэша без повторного рендеринга.
+     *
+     * @param boxId идентификатор коробки
+     * @param format формат ("pdf", "png")
+     * @param layout код раскладки этикетки или null для раскладки по умолчанию
+     * @return тело ответа
+     * @throws Exception в случае ошибки
+     */
+    public StreamingResponseBody streamOutputForBox(Long boxId, String format, String layout) throws Exception {
+        QrOutputStrategy strategy = strategyFactory.getStrategy(format);
+        return strategy.streamOutputForBox(boxId, layout);
+    }
+
     /**
      * Возвращает тип содержимого для указанного формата.
      *
@@ -4,6 +4,9 @@ import com.citrusmall.citrusstock.service.QRCodeService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.concurrent.CompletableFuture;
 
 @Component("pdf")
 public class PdfQrOutputStrategy implements QrOutputStrategy {
@@ -15,12 +18,38 @@ public class PdfQrOutputStrategy implements QrOutputStrategy {
     public byte[] generateOutput(Long batchId) throws Exception {
         return qrCodeService.generatePdfForBatch(batchId);
     }
+
+    @Override
+    public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId) {
+        return qrCodeService.streamPdfForBatch(batchId, null);
+    }
+
+    @Override
+    public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String layout) {
+        return qrCodeService.streamPdfForBatch(batchId, layout);
+    }
+
+    @Override
+    public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String layout,
+                                                                 QRCodeService.ProgressListener progress) {
+        return qrCodeService.streamPdfForBatch(batchId, layout, progress);
+    }
     
     @Override
     public byte[] generateOutputForBox(Long boxId) throws Exception {
         return qrCodeService.generateAndStoreQRCodeWithTextForBox(boxId);
     }
 
+    @Override
+    public byte[] generateOutputForBox(Long boxId, String layout) throws Exception {
+        return qrCodeService.generateAndStoreQRCodeWithTextForBox(boxId, layout);
+    }
+
+    @Override
+    public StreamingResponseBody streamOutputForBox(Long boxId, String layout) throws Exception {
+        return qrCodeService.streamLabelPdfForBox(boxId, layout);
+    }
+
     @Override
     public String getContentType() {
         return MediaType.APPLICATION_PDF_VALUE;
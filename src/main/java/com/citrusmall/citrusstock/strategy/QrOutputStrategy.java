@@ -1,5 +1,10 @@
 package com.citrusmall.citrusstock.strategy;
 
+import com.citrusmall.citrusstock.service.QRCodeService;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.concurrent.CompletableFuture;
+
 public interface QrOutputStrategy {
     /**
      * Generates output for the given product batch ID in a specific format.
@@ -9,6 +14,51 @@ public interface QrOutputStrategy {
      * @throws Exception if an error occurs during generation
      */
     byte[] generateOutput(Long batchId) throws Exception;
+
+    /**
+     * Streaming variant of {@link #generateOutput(Long)}: validation and data loading
+     * happen in this call, the returned body writes the output directly to the response.
+     * The future completes once rendering capacity is reserved, so an overloaded server
+     * fails it with {@link com.citrusmall.citrusstock.exception.RenderingCapacityExceededException}
+     * before any response header is sent. Default implementation buffers the result of
+     * {@link #generateOutput(Long)}.
+     *
+     * @param batchId the identifier of the ProductBatch
+     * @return a future of the body that writes the output to the given stream
+     * @throws Exception if an error occurs before streaming starts
+     */
+    default CompletableFuture<StreamingResponseBody> streamOutput(Long batchId) throws Exception {
+        byte[] output = generateOutput(batchId);
+        return CompletableFuture.completedFuture(outputStream -> outputStream.write(output));
+    }
+
+    /**
+     * Streaming output with a label layout ("a4", "a4-3x8", "roll-58x40", ...).
+     * Default implementation ignores the layout, formats that place labels on sheets override it.
+     *
+     * @param batchId the identifier of the ProductBatch
+     * @param layout  the label layout code, or null for the default layout
+     * @return a future of the body that writes the output to the given stream
+     * @throws Exception if an error occurs before streaming starts
+     */
+    default CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String layout) throws Exception {
+        return streamOutput(batchId);
+    }
+
+    /**
+     * Streaming output that reports how many labels have been written (used by export jobs).
+     * Default implementation reports nothing until the body is written completely.
+     *
+     * @param batchId  the identifier of the ProductBatch
+     * @param layout   the label layout code, or null for the default layout
+     * @param progress receives the number of written labels
+     * @return a future of the body that writes the output to the given stream
+     * @throws Exception if an error occurs before streaming starts
+     */
+    default CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String layout,
+                                                                  QRCodeService.ProgressListener progress) throws Exception {
+        return streamOutput(batchId, layout);
+    }
     
     /**
      * Generates output for the given box ID in a specific format.
@@ -22,6 +72,32 @@ public interface QrOutputStrategy {
         throw new UnsupportedOperationException("Box output not supported for this format");
     }
 
+    /**
+     * Generates box output with a label layout. Default implementation ignores the layout.
+     *
+     * @param boxId  the identifier of the Box
+     * @param layout the label layout code, or null for the default layout
+     * @return a byte array containing the output
+     * @throws Exception if an error occurs during generation
+     */
+    default byte[] generateOutputForBox(Long boxId, String layout) throws Exception {
+        return generateOutputForBox(boxId);
+    }
+
+    /**
+     * Streaming variant of {@link #generateOutputForBox(Long, String)}.
+     * Default implementation buffers the generated output.
+     *
+     * @param boxId  the identifier of the Box
+     * @param layout the label layout code, or null for the default layout
+     * @return a body that writes the output to the given stream
+     * @throws Exception if an error occurs before streaming starts
+     */
+    default StreamingResponseBody streamOutputForBox(Long boxId, String layout) throws Exception {
+        byte[] output = generateOutputForBox(boxId, layout);
+        return outputStream -> outputStream.write(output);
+    }
+
     /**
      * Returns the MIME type of the output.
      */
@@ -4,6 +4,9 @@ import com.citrusmall.citrusstock.service.QRCodeService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.concurrent.CompletableFuture;
 
 @Component("zip")
 public class ZipQrOutputStrategy implements QrOutputStrategy {
@@ -16,6 +19,17 @@ public class ZipQrOutputStrategy implements QrOutputStrategy {
         return qrCodeService.generateAndStoreQRCodesZipForBatch(batchId);
     }
 
+    @Override
+    public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId) {
+        return qrCodeService.streamZipForBatch(batchId);
+    }
+
+    @Override
+    public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String layout,
+                                                                 QRCodeService.ProgressListener progress) {
+        return qrCodeService.streamZipForBatch(batchId, progress);
+    }
+
     @Override
     public String getContentType() {
         return MediaType.APPLICATION_OCTET_STREAM_VALUE;
@@ -1,20 +1,43 @@
 package com.citrusmall.citrusstock.util;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Утилитный класс для работы с файловой системой.
  * Инкапсулирует логику сохранения файлов в определенные директории.
+ * Директория QR-кодов работает как файловый кэш готовых этикеток: в имя файла
+ * входит отпечаток содержимого этикетки, поэтому найденный файл всегда
+ * соответствует текущим данным коробки, а устаревшие версии удаляются
+ * при сохранении новой и при изменении коробки или партии.
  */
 public class FileStorageUtil {
 
     private static final String QR_CODES_BASE_DIR = "qr/codes";
 
+    // Директории продуктов, существование которых уже проверено: без stat на каждую запись
+    private static final Set<Path> KNOWN_FOLDERS = ConcurrentHashMap.newKeySet();
+
     /**
      * Сохраняет файл в директорию QR-кодов для указанного продукта.
+     * Файл пишется во временный и затем переименовывается, поэтому
+     * конкурентные читатели никогда не видят его частично записанным.
      *
      * @param productId ID продукта
      * @param fileName имя файла
@@ -22,9 +45,228 @@ public class FileStorageUtil {
      * @throws IOException если возникла ошибка ввода-вывода
      */
     public static void saveQrCodeFile(Long productId, String fileName, byte[] fileContent) throws IOException {
+        Path tempFile = writeTempFile(productId, fileName, fileContent, false);
+        try {
+            commitTempFile(tempFile, fileName);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Первая фаза записи: содержимое пишется во временный файл в директории продукта.
+     * Разделение на фазы позволяет записать пачку файлов, сделать fsync и только
+     * потом опубликовать их переименованием ({@link #commitTempFile}).
+     *
+     * @param productId ID продукта
+     * @param fileName итоговое имя файла
+     * @param fileContent содержимое файла
+     * @param fsync сбросить ли содержимое на диск перед возвратом
+     * @return путь к временному файлу
+     * @throws IOException если возникла ошибка ввода-вывода
+     */
+    public static Path writeTempFile(Long productId, String fileName, byte[] fileContent, boolean fsync) throws IOException {
+        Path tempFile = createTempFile(productId, fileName);
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(fileContent);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        return tempFile;
+    }
+
+    /**
+     * Создаёт пустой временный файл в директории продукта. Крупные файлы
+     * (PDF партии) пишутся в него потоком и публикуются через {@link #commitTempFile}.
+     *
+     * @param productId ID продукта
+     * @param fileName итоговое имя файла
+     * @return путь к временному файлу
+     * @throws IOException если возникла ошибка ввода-вывода
+     */
+    public static Path createTempFile(Long productId, String fileName) throws IOException {
         Path productFolder = getOrCreateProductFolder(productId);
-        Path filePath = productFolder.resolve(fileName);
-        Files.write(filePath, fileContent);
+        try {
+            return Files.createTempFile(productFolder, fileName, ".tmp");
+        } catch (NoSuchFileException e) {
+            // Директорию удалили снаружи — кэш директорий устарел
+            KNOWN_FOLDERS.remove(productFolder);
+            return Files.createTempFile(getOrCreateProductFolder(productId), fileName, ".tmp");
+        }
+    }
+
+    /**
+     * Вторая фаза записи: атомарно переименовывает временный файл в итоговое имя.
+     *
+     * @param tempFile временный файл из {@link #writeTempFile}
+     * @param fileName итоговое имя файла
+     * @return путь к итоговому файлу
+     * @throws IOException если возникла ошибка ввода-вывода
+     */
+    public static Path commitTempFile(Path tempFile, String fileName) throws IOException {
+        Path filePath = tempFile.resolveSibling(fileName);
+        try {
+            Files.move(tempFile, filePath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, filePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return filePath;
+    }
+
+    /**
+     * Сбрасывает на диск запись директории, чтобы переименования в ней пережили сбой питания.
+     * На платформах, где директорию нельзя открыть как канал, ничего не делает.
+     *
+     * @param directory директория
+     */
+    public static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Например, Windows: fsync директорий не поддерживается
+        }
+    }
+
+    /**
+     * Удаляет предыдущие версии этикетки коробки, оставляя версию с указанным отпечатком.
+     *
+     * @param productId   ID продукта
+     * @param boxId       ID коробки
+     * @param fingerprint отпечаток актуальной версии
+     */
+    public static void deleteOutdatedQrCodePdfs(Long productId, Long boxId, String fingerprint) {
+        deleteQrCodeFiles(productId, boxId, generateQrCodePdfFileName(boxId, fingerprint));
+    }
+
+    /**
+     * Ищет сохранённую этикетку коробки с указанным отпечатком содержимого.
+     *
+     * @param productId   ID продукта
+     * @param boxId       ID коробки
+     * @param fingerprint отпечаток текущего содержимого этикетки
+     * @return путь к файлу, если актуальная этикетка уже сохранена
+     */
+    public static Optional<Path> findQrCodePdf(Long productId, Long boxId, String fingerprint) {
+        return findQrCodeFile(productId, generateQrCodePdfFileName(boxId, fingerprint));
+    }
+
+    /**
+     * Ищет сохранённый PDF партии в указанной раскладке с указанным отпечатком содержимого.
+     *
+     * @param productId   ID продукта
+     * @param batchId     ID партии
+     * @param layoutCode  код раскладки
+     * @param fingerprint отпечаток текущего содержимого партии
+     * @return путь к файлу, если актуальный PDF партии уже сохранён
+     */
+    public static Optional<Path> findBatchPdf(Long productId, Long batchId, String layoutCode, String fingerprint) {
+        return findQrCodeFile(productId, generateBatchPdfFileName(batchId, layoutCode, fingerprint));
+    }
+
+    private static Optional<Path> findQrCodeFile(Long productId, String fileName) {
+        Path filePath = getProductFolder(productId).resolve(fileName);
+        try {
+            return Files.isRegularFile(filePath) && Files.size(filePath) > 0 ? Optional.of(filePath) : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Передаёт файл в выходной поток через {@link FileChannel#transferTo},
+     * без копирования содержимого через heap, где это поддерживает ОС.
+     *
+     * @param filePath файл
+     * @param outputStream выходной поток
+     * @throws IOException если возникла ошибка ввода-вывода
+     */
+    public static void transferFile(Path filePath, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = 0;
+            long size = channel.size();
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    /**
+     * Удаляет все сохранённые этикетки коробки.
+     *
+     * @param productId ID продукта
+     * @param boxId ID коробки
+     */
+    public static void deleteQrCodeFiles(Long productId, Long boxId) {
+        deleteQrCodeFiles(productId, boxId, null);
+    }
+
+    /**
+     * Удаляет сохранённые этикетки нескольких коробок одного продукта.
+     *
+     * @param productId ID продукта
+     * @param boxIds ID коробок
+     */
+    public static void deleteQrCodeFiles(Long productId, Collection<Long> boxIds) {
+        for (Long boxId : boxIds) {
+            deleteQrCodeFiles(productId, boxId, null);
+        }
+    }
+
+    private static void deleteQrCodeFiles(Long productId, Long boxId, String keepFileName) {
+        deleteMatchingFiles(productId, "qr_box_" + boxId + "*.pdf", "qr_box_" + boxId + "_",
+                generateQrCodePdfFileName(boxId), keepFileName);
+    }
+
+    /**
+     * Удаляет предыдущие версии PDF партии в раскладке, оставляя версию с указанным отпечатком.
+     *
+     * @param productId   ID продукта
+     * @param batchId     ID партии
+     * @param layoutCode  код раскладки
+     * @param fingerprint отпечаток актуальной версии
+     */
+    public static void deleteOutdatedBatchPdfs(Long productId, Long batchId, String layoutCode, String fingerprint) {
+        deleteMatchingFiles(productId, "qr_batch_" + batchId + "_*.pdf", "qr_batch_" + batchId + "_" + layoutCode + "_",
+                null, generateBatchPdfFileName(batchId, layoutCode, fingerprint));
+    }
+
+    /**
+     * Удаляет все сохранённые PDF партии во всех раскладках.
+     *
+     * @param productId ID продукта
+     * @param batchId ID партии
+     */
+    public static void deleteBatchPdfs(Long productId, Long batchId) {
+        deleteMatchingFiles(productId, "qr_batch_" + batchId + "_*.pdf", "qr_batch_" + batchId + "_", null, null);
+    }
+
+    private static void deleteMatchingFiles(Long productId, String glob, String prefix,
+                                            String legacyName, String keepFileName) {
+        Path productFolder = getProductFolder(productId);
+        if (!Files.isDirectory(productFolder)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(productFolder, glob)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.equals(keepFileName)) {
+                    continue;
+                }
+                if (name.equals(legacyName) || name.startsWith(prefix)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            // Кэш этикеток: неудачное удаление не критично, отпечаток не даст выдать устаревший файл
+        }
     }
 
     /**
@@ -35,17 +277,25 @@ public class FileStorageUtil {
      * @throws IOException если возникла ошибка при создании директории
      */
     public static Path getOrCreateProductFolder(Long productId) throws IOException {
-        String productFolderName = "product_" + productId;
-        Path storageBasePath = Paths.get(QR_CODES_BASE_DIR);
-        Path productFolder = storageBasePath.resolve(productFolderName);
+        Path productFolder = getProductFolder(productId);
+        if (KNOWN_FOLDERS.contains(productFolder)) {
+            return productFolder;
+        }
         
         if (!Files.exists(productFolder)) {
             Files.createDirectories(productFolder);
         }
+        KNOWN_FOLDERS.add(productFolder);
         
         return productFolder;
     }
 
+    private static Path getProductFolder(Long productId) {
+        String productFolderName = "product_" + productId;
+        Path storageBasePath = Paths.get(QR_CODES_BASE_DIR);
+        return storageBasePath.resolve(productFolderName);
+    }
+
     /**
      * Генерирует имя файла PDF для QR-кода коробки.
      *
@@ -55,4 +305,27 @@ public class FileStorageUtil {
     public static String generateQrCodePdfFileName(Long boxId) {
         return "qr_box_" + boxId + ".pdf";
     }
-} 
\ No newline at end of file
+
+    /**
+     * Генерирует имя сохраняемого файла этикетки с отпечатком содержимого.
+     *
+     * @param boxId ID коробки
+     * @param fingerprint отпечаток содержимого этикетки
+     * @return имя файла
+     */
+    public static String generateQrCodePdfFileName(Long boxId, String fingerprint) {
+        return "qr_box_" + boxId + "_" + fingerprint + ".pdf";
+    }
+
+    /**
+     * Генерирует имя сохраняемого PDF партии в раскладке с отпечатком содержимого.
+     *
+     * @param batchId ID партии
+     * @param layoutCode код раскладки
+     * @param fingerprint отпечаток содержимого партии
+     * @return имя файла
+     */
+    public static String generateBatchPdfFileName(Long batchId, String layoutCode, String fingerprint) {
+        return "qr_batch_" + batchId + "_" + layoutCode + "_" + fingerprint + ".pdf";
+    }
+}
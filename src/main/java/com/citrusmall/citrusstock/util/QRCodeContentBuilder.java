@@ -13,6 +13,66 @@ public class QRCodeContentBuilder {
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * Данные партии, которые входят в содержимое QR-кода. Вычисляются один раз
+     * на партию, чтобы при рендеринге партии не обращаться к БД для каждой коробки.
+     *
+     * @param batchId     ID партии
+     * @param productId   ID продукта
+     * @param productName название продукта
+     * @param totalBoxes  общее число коробок партии
+     */
+    public record BatchMetadata(Long batchId, Long productId, String productName, int totalBoxes) {
+
+        /**
+         * Метаданные партии с числом коробок по счётчикам статусов партии.
+         *
+         * @param batch партия
+         * @return метаданные
+         */
+        public static BatchMetadata of(ProductBatch batch) {
+            return of(batch, batch == null ? 0 : batch.getTotalBoxes());
+        }
+
+        /**
+         * Метаданные партии с заранее известным числом коробок.
+         *
+         * @param batch      партия
+         * @param totalBoxes общее число коробок партии
+         * @return метаданные
+         */
+        public static BatchMetadata of(ProductBatch batch, int totalBoxes) {
+            if (batch == null) {
+                throw new IllegalArgumentException("ProductBatch is not provided for the box");
+            }
+            if (batch.getId() == null) {
+                throw new IllegalArgumentException("Batch ID is not provided");
+            }
+            if (totalBoxes <= 0) {
+                throw new IllegalArgumentException("Total number of boxes is not provided for the batch");
+            }
+            Product product = batch.getProduct();
+            if (product == null) {
+                throw new IllegalArgumentException("Product is not provided for the batch");
+            }
+            if (product.getId() == null) {
+                throw new IllegalArgumentException("Product ID is not provided");
+            }
+            if (product.getName() == null || product.getName().trim().isEmpty()) {
+                throw new IllegalArgumentException("Product name is not provided");
+            }
+            return new BatchMetadata(batch.getId(), product.getId(), product.getName(), totalBoxes);
+        }
+    }
+
+    /**
+     * Формирует содержимое QR-кода коробки. Число коробок берётся из счётчиков
+     * партии, коллекция boxes не загружается.
+     *
+     * @param box коробка
+     * @return содержимое QR-кода (JSON)
+     * @throws Exception в случае ошибки сериализации
+     */
     public static String buildContent(Box box) throws Exception {
         if (box == null) {
             throw new IllegalArgumentException("Box object cannot be null");
@@ -20,41 +80,27 @@ public class QRCodeContentBuilder {
         if (box.getId() == null) {
             throw new IllegalArgumentException("Box ID is not provided");
         }
-
-        ProductBatch batch = box.getProductBatch();
-        if (batch == null) {
-            throw new IllegalArgumentException("ProductBatch is not provided for the box");
-        }
-        if (batch.getId() == null) {
-            throw new IllegalArgumentException("Batch ID is not provided");
-        }
-        if (batch.getBoxes().isEmpty()) {
-            throw new IllegalArgumentException("Total number of boxes is not provided for the batch");
-        }
-
-        Map<String, Object> data = getStringObjectMap(box, batch);
-
-        return mapper.writeValueAsString(data);
+        return buildContent(box.getId(), BatchMetadata.of(box.getProductBatch()));
     }
 
-    private static Map<String, Object> getStringObjectMap(Box box, ProductBatch batch) {
-        Product product = batch.getProduct();
-        if (product == null) {
-            throw new IllegalArgumentException("Product is not provided for the batch");
-        }
-        if (product.getId() == null) {
-            throw new IllegalArgumentException("Product ID is not provided");
-        }
-        if (product.getName() == null || product.getName().trim().isEmpty()) {
-            throw new IllegalArgumentException("Product name is not provided");
+    /**
+     * Формирует содержимое QR-кода коробки по заранее вычисленным метаданным партии.
+     *
+     * @param boxId    ID коробки
+     * @param metadata метаданные партии
+     * @return содержимое QR-кода (JSON)
+     * @throws Exception в случае ошибки сериализации
+     */
+    public static String buildContent(Long boxId, BatchMetadata metadata) throws Exception {
+        if (boxId == null) {
+            throw new IllegalArgumentException("Box ID is not provided");
         }
-
         Map<String, Object> data = new HashMap<>();
-        data.put("productId", product.getId());
-        data.put("productName", product.getName());
-        data.put("batchId", batch.getId());
-        data.put("totalBoxes", batch.getBoxes().size());
-        data.put("boxId", box.getId());
-        return data;
+        data.put("productId", metadata.productId());
+        data.put("productName", metadata.productName());
+        data.put("batchId", metadata.batchId());
+        data.put("totalBoxes", metadata.totalBoxes());
+        data.put("boxId", boxId);
+        return mapper.writeValueAsString(data);
     }
-}
\ No newline at end of file
+}
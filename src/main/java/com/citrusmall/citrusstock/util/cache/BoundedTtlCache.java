@@ -0,0 +1,104 @@
+package com.citrusmall.citrusstock.util.cache;
+
+import com.citrusmall.citrusstock.dto.CacheStats;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Простой потокобезопасный in-process кэш с ограничением по количеству записей (LRU)
+ * и временем жизни записи (TTL). Ведёт статистику попаданий и промахов.
+ * Отсутствующие значения (пустой Optional) не кэшируются.
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public class BoundedTtlCache<K, V> {
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BoundedTtlCache(String name, int maxSize, Duration ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > BoundedTtlCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Возвращает значение из кэша или загружает его через loader.
+     * Загрузка выполняется вне блокировки, поэтому конкурентные промахи
+     * по одному ключу могут вызвать loader несколько раз.
+     *
+     * @param key    ключ
+     * @param loader функция загрузки значения при промахе
+     * @return найденное значение или пустой Optional
+     */
+    public Optional<V> get(K key, Function<K, Optional<V>> loader) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            CacheEntry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (now - entry.loadedAt() < ttlNanos) {
+                    hits.incrementAndGet();
+                    return Optional.of(entry.value());
+                }
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        Optional<V> loaded = loader.apply(key);
+        loaded.ifPresent(value -> {
+            synchronized (entries) {
+                entries.put(key, new CacheEntry<>(value, System.nanoTime()));
+            }
+        });
+        return loaded;
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public CacheStats getStats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new CacheStats(name, size, maxSize, hits.get(), misses.get(), evictions.get());
+    }
+
+    private record CacheEntry<V>(V value, long loadedAt) {
+    }
+}
@@ -0,0 +1,129 @@
+package com.citrusmall.citrusstock.util.cache;
+
+import com.citrusmall.citrusstock.dto.CacheStats;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Потокобезопасный LRU-кэш бинарных значений, ограниченный суммарным объёмом в байтах.
+ * Значения могут храниться вне heap (direct ByteBuffer), тогда при попадании
+ * возвращается копия. Вес записи — длина значения плюс оценка накладных расходов
+ * на ключ и запись. Значения больше всего бюджета не кэшируются.
+ * В статистике size и maxSize — занятый и допустимый объём в байтах.
+ *
+ * @param <K> тип ключа
+ */
+public class ByteBudgetCache<K> {
+
+    // Примерные накладные расходы на запись LinkedHashMap, ключ и ByteBuffer
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final String name;
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final LinkedHashMap<K, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Загрузчик значения при промахе.
+     */
+    @FunctionalInterface
+    public interface Loader<K> {
+        byte[] load(K key) throws Exception;
+    }
+
+    public ByteBudgetCache(String name, long maxBytes, boolean offHeap) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive: " + maxBytes);
+        }
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Возвращает значение из кэша или загружает его через loader.
+     * Загрузка выполняется вне блокировки, поэтому конкурентные промахи
+     * по одному ключу могут вызвать loader несколько раз.
+     *
+     * @param key    ключ
+     * @param loader функция загрузки значения при промахе
+     * @return значение (копия для хранения вне heap)
+     * @throws Exception ошибка загрузчика
+     */
+    public byte[] get(K key, Loader<K> loader) throws Exception {
+        synchronized (entries) {
+            ByteBuffer buffer = entries.get(key);
+            if (buffer != null) {
+                hits.incrementAndGet();
+                return toArray(buffer);
+            }
+        }
+        misses.incrementAndGet();
+        byte[] value = loader.load(key);
+        put(key, value);
+        return value;
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            usedBytes = 0;
+        }
+    }
+
+    public CacheStats getStats() {
+        long used;
+        synchronized (entries) {
+            used = usedBytes;
+        }
+        return new CacheStats(name, used, maxBytes, hits.get(), misses.get(), evictions.get());
+    }
+
+    private void put(K key, byte[] value) {
+        long weight = weight(value.length);
+        if (weight > maxBytes) {
+            return;
+        }
+        ByteBuffer buffer;
+        if (offHeap) {
+            buffer = ByteBuffer.allocateDirect(value.length);
+            buffer.put(value).flip();
+        } else {
+            buffer = ByteBuffer.wrap(value.clone());
+        }
+        synchronized (entries) {
+            ByteBuffer previous = entries.put(key, buffer);
+            if (previous != null) {
+                usedBytes -= weight(previous.capacity());
+            }
+            usedBytes += weight;
+            Iterator<Map.Entry<K, ByteBuffer>> eldest = entries.entrySet().iterator();
+            while (usedBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<K, ByteBuffer> entry = eldest.next();
+                usedBytes -= weight(entry.getValue().capacity());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.capacity()];
+        // duplicate(): позиция общего буфера не меняется при конкурентном чтении
+        buffer.duplicate().rewind().get(copy);
+        return copy;
+    }
+
+    private static long weight(int valueLength) {
+        return (long) valueLength + ENTRY_OVERHEAD_BYTES;
+    }
+}
@@ -0,0 +1,114 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import com.citrusmall.citrusstock.dto.CacheStats;
+import com.citrusmall.citrusstock.util.cache.ByteBudgetCache;
+import com.google.zxing.common.BitMatrix;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Кэширующая обёртка над {@link QRCodeGenerator}. Ключ — содержимое QR-кода
+ * (компактный payload из QRCodeContentBuilder) и размер, поэтому повторные
+ * печати одной коробки не повторяют работу ZXing. Кэшируются и PNG-изображения,
+ * и матрицы модулей для векторного PDF (в упакованном виде).
+ * Объём ограничен {@code citrusstock.qr.image-cache.max-bytes}; 0 отключает кэш.
+ */
+@Service
+public class CachingQRCodeGenerator implements CodeGenerator {
+
+    @Autowired
+    private QRCodeGenerator delegate;
+
+    @Value("${citrusstock.qr.image-cache.max-bytes:33554432}")
+    private long maxBytes;
+
+    @Value("${citrusstock.qr.image-cache.off-heap:false}")
+    private boolean offHeap;
+
+    private ByteBudgetCache<CodeKey> cache;
+
+    private record CodeKey(String content, int width, int height, boolean matrix) {
+    }
+
+    @PostConstruct
+    void init() {
+        if (maxBytes > 0) {
+            cache = new ByteBudgetCache<>("qrCodes", maxBytes, offHeap);
+        }
+    }
+
+    @Override
+    public byte[] generateCodeImage(String content, int width, int height) throws Exception {
+        if (cache == null) {
+            return delegate.generateCodeImage(content, width, height);
+        }
+        return cache.get(new CodeKey(content, width, height, false),
+                key -> delegate.generateCodeImage(key.content(), key.width(), key.height()));
+    }
+
+    @Override
+    public BitMatrix generateCodeMatrix(String content) throws Exception {
+        if (cache == null) {
+            return delegate.generateCodeMatrix(content);
+        }
+        byte[] packed = cache.get(new CodeKey(content, 0, 0, true),
+                key -> pack(delegate.generateCodeMatrix(key.content())));
+        return unpack(packed);
+    }
+
+    public Optional<CacheStats> getStats() {
+        return Optional.ofNullable(cache).map(ByteBudgetCache::getStats);
+    }
+
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    // Формат: ширина, высота, затем строки матрицы по битам (старший бит — левый модуль)
+    static byte[] pack(BitMatrix matrix) {
+        int width = matrix.getWidth();
+        int height = matrix.getHeight();
+        int rowBytes = (width + 7) / 8;
+        ByteBuffer buffer = ByteBuffer.allocate(8 + rowBytes * height);
+        buffer.putInt(width).putInt(height);
+        for (int y = 0; y < height; y++) {
+            for (int byteIndex = 0; byteIndex < rowBytes; byteIndex++) {
+                int bits = 0;
+                for (int bit = 0; bit < 8; bit++) {
+                    int x = byteIndex * 8 + bit;
+                    if (x < width && matrix.get(x, y)) {
+                        bits |= 0x80 >>> bit;
+                    }
+                }
+                buffer.put((byte) bits);
+            }
+        }
+        return buffer.array();
+    }
+
+    static BitMatrix unpack(byte[] packed) {
+        ByteBuffer buffer = ByteBuffer.wrap(packed);
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int rowBytes = (width + 7) / 8;
+        BitMatrix matrix = new BitMatrix(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int byteIndex = 0; byteIndex < rowBytes; byteIndex++) {
+                int bits = buffer.get() & 0xFF;
+                for (int bit = 0; bit < 8 && bits != 0; bit++) {
+                    if ((bits & (0x80 >>> bit)) != 0) {
+                        matrix.set(byteIndex * 8 + bit, y);
+                    }
+                }
+            }
+        }
+        return matrix;
+    }
+}
@@ -1,6 +1,14 @@
 package com.citrusmall.citrusstock.util.codegen;
 
+import com.google.zxing.common.BitMatrix;
+
 public interface CodeGenerator {
 
     byte[] generateCodeImage(String content, int width, int height) throws Exception;
+
+    /**
+     * Кодирует содержимое в матрицу модулей (один элемент на модуль, включая
+     * поле тишины) без растеризации — для векторного вывода в PDF.
+     */
+    BitMatrix generateCodeMatrix(String content) throws Exception;
 }
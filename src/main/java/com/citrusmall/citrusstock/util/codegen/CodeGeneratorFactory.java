@@ -6,8 +6,9 @@ import org.springframework.stereotype.Service;
 @Service
 public class CodeGeneratorFactory {
 
+    // QR-коды выдаются через кэш: повторная печать не повторяет кодирование ZXing
     @Autowired
-    private QRCodeGenerator qrCodeGenerator;
+    private CachingQRCodeGenerator qrCodeGenerator;
 
 
 
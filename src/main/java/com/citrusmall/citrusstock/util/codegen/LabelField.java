@@ -0,0 +1,35 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import com.citrusmall.citrusstock.dto.BoxLabelData;
+
+import java.time.format.DateTimeFormatter;
+import java.util.function.Function;
+
+/**
+ * Текстовые поля этикетки. Каждое поле выводится отдельной строкой под
+ * или рядом с QR-кодом; пустые значения пропускаются.
+ */
+public enum LabelField {
+    PRODUCT_NAME(BoxLabelData::getProductName),
+    SUPPLIER(BoxLabelData::getSupplierName),
+    BATCH_ID(label -> label.getBatchId() != null ? "Партия №" + label.getBatchId() : null),
+    BOX_ID(label -> label.getBoxId() != null ? "Коробка №" + label.getBoxId() : null),
+    BOX_SEQUENCE(label -> label.getTotalBoxes() > 0
+            ? "Коробка " + label.getBoxNumber() + "/" + label.getTotalBoxes() : null),
+    RECEIVED_DATE(label -> label.getReceivedAt() != null
+            ? "Принято " + Formats.DATE.format(label.getReceivedAt()) : null);
+
+    private final Function<BoxLabelData, String> extractor;
+
+    LabelField(Function<BoxLabelData, String> extractor) {
+        this.extractor = extractor;
+    }
+
+    public String format(BoxLabelData label) {
+        return extractor.apply(label);
+    }
+
+    private static final class Formats {
+        private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+    }
+}
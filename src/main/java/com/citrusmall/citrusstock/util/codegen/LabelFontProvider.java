@@ -0,0 +1,67 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import jakarta.annotation.PostConstruct;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Шрифт этикеток с поддержкой кириллицы. Файл TrueType читается один раз при
+ * старте; в каждый документ шрифт подключается один раз и встраивается
+ * подмножеством только использованных глифов при сохранении.
+ * По умолчанию используется Liberation Sans из состава PDFBox, свой шрифт
+ * задаётся через {@code citrusstock.labels.font-path}.
+ */
+@Component
+public class LabelFontProvider {
+
+    private static final String BUNDLED_FONT = "/org/apache/pdfbox/resources/ttf/LiberationSans-Regular.ttf";
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Value("${citrusstock.labels.font-path:}")
+    private String fontPath;
+
+    private byte[] fontBytes;
+
+    @PostConstruct
+    void init() throws IOException {
+        if (fontPath != null && !fontPath.isBlank()) {
+            Path path = Paths.get(fontPath);
+            if (Files.isReadable(path)) {
+                fontBytes = Files.readAllBytes(path);
+                return;
+            }
+            logger.warn("Label font {} is not readable, falling back to bundled font", fontPath);
+        }
+        try (InputStream in = LabelFontProvider.class.getResourceAsStream(BUNDLED_FONT)) {
+            if (in == null) {
+                throw new IllegalStateException("Bundled label font not found: " + BUNDLED_FONT);
+            }
+            fontBytes = in.readAllBytes();
+        }
+    }
+
+    /**
+     * Подключает шрифт этикеток к документу. Вызывается один раз на документ,
+     * все страницы документа используют один и тот же объект шрифта.
+     *
+     * @param document документ
+     * @return шрифт, встраиваемый подмножеством
+     * @throws IOException если шрифт не удалось разобрать
+     */
+    public PDFont loadFont(PDDocument document) throws IOException {
+        return PDType0Font.load(document, new ByteArrayInputStream(fontBytes), true);
+    }
+}
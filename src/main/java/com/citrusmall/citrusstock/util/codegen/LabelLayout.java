@@ -0,0 +1,143 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+import java.util.List;
+
+/**
+ * Раскладки этикеток на листе. Размеры задаются в пунктах PDF (1/72 дюйма).
+ * Лист делится на сетку columns x rows с полями и промежутками; рулонные
+ * форматы — это лист размером с одну этикетку. Раскладка вместе со списком
+ * полей — это определение шаблона, которое {@link LabelTemplate} компилирует
+ * в готовую геометрию.
+ */
+public enum LabelLayout {
+    /** Одна этикетка по центру листа A4 — исходный формат. */
+    A4("a4", PDRectangle.A4, 1, 1, 50, 50, 0, 0, 0, 200, 12,
+            List.of(LabelField.PRODUCT_NAME)),
+    /** Лист A4 с 24 этикетками 70 x 37 мм. */
+    A4_3X8("a4-3x8", PDRectangle.A4, 3, 8, 0, mm(0.5f), 0, 0, mm(2), 200, 7,
+            detailedFields()),
+    /** Рулон термоэтикеток 58 x 40 мм. */
+    ROLL_58X40("roll-58x40", new PDRectangle(mm(58), mm(40)), 1, 1, 0, 0, 0, 0, mm(2), mm(25), 7,
+            detailedFields()),
+    /** Рулон транспортных этикеток 100 x 150 мм. */
+    ROLL_100X150("roll-100x150", new PDRectangle(mm(100), mm(150)), 1, 1, 0, 0, 0, 0, mm(5), mm(80), 12,
+            detailedFields());
+
+    private final String code;
+    private final PDRectangle pageSize;
+    private final int columns;
+    private final int rows;
+    private final float marginX;
+    private final float marginY;
+    private final float gapX;
+    private final float gapY;
+    private final float padding;
+    private final float maxQrSize;
+    private final float fontSize;
+    private final List<LabelField> fields;
+
+    LabelLayout(String code, PDRectangle pageSize, int columns, int rows,
+                float marginX, float marginY, float gapX, float gapY, float padding,
+                float maxQrSize, float fontSize, List<LabelField> fields) {
+        this.code = code;
+        this.pageSize = pageSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.marginX = marginX;
+        this.marginY = marginY;
+        this.gapX = gapX;
+        this.gapY = gapY;
+        this.padding = padding;
+        this.maxQrSize = maxQrSize;
+        this.fontSize = fontSize;
+        this.fields = fields;
+    }
+
+    /**
+     * Находит раскладку по коду ("a4", "a4-3x8", "roll-58x40", ...).
+     *
+     * @param code код раскладки
+     * @return раскладка
+     * @throws IllegalArgumentException если раскладка неизвестна
+     */
+    public static LabelLayout fromCode(String code) {
+        for (LabelLayout layout : values()) {
+            if (layout.code.equalsIgnoreCase(code)) {
+                return layout;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported label layout: " + code);
+    }
+
+    // Поля для компактных этикеток: всё, что нужно кладовщику без сканирования
+    private static List<LabelField> detailedFields() {
+        return List.of(LabelField.PRODUCT_NAME, LabelField.SUPPLIER, LabelField.BATCH_ID,
+                LabelField.BOX_SEQUENCE, LabelField.RECEIVED_DATE);
+    }
+
+    private static float mm(float millimeters) {
+        return millimeters / 25.4f * 72;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public PDRectangle getPageSize() {
+        return pageSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getLabelsPerPage() {
+        return columns * rows;
+    }
+
+    public float getMarginX() {
+        return marginX;
+    }
+
+    public float getMarginY() {
+        return marginY;
+    }
+
+    public float getGapX() {
+        return gapX;
+    }
+
+    public float getGapY() {
+        return gapY;
+    }
+
+    public float getPadding() {
+        return padding;
+    }
+
+    public float getMaxQrSize() {
+        return maxQrSize;
+    }
+
+    public float getFontSize() {
+        return fontSize;
+    }
+
+    public List<LabelField> getFields() {
+        return fields;
+    }
+
+    public float getCellWidth() {
+        return (pageSize.getWidth() - 2 * marginX - (columns - 1) * gapX) / columns;
+    }
+
+    public float getCellHeight() {
+        return (pageSize.getHeight() - 2 * marginY - (rows - 1) * gapY) / rows;
+    }
+}
@@ -0,0 +1,138 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import com.citrusmall.citrusstock.dto.BoxLabelData;
+import com.google.zxing.common.BitMatrix;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Раскладывает этикетки по листам PDF по скомпилированному {@link LabelTemplate}.
+ * Этикетки заполняют сетку слева направо и сверху вниз; новый лист
+ * добавляется, когда текущий заполнен. Шрифт подключается к документу один
+ * раз и используется всеми страницами. Перед сохранением документа writer
+ * нужно закрыть.
+ */
+public class LabelSheetWriter implements Closeable {
+
+    private static final String ELLIPSIS = "...";
+
+    private final PDDocument document;
+    private final LabelTemplate template;
+    private final PDFont font;
+    private PDPageContentStream contentStream;
+    private int slot;
+
+    public LabelSheetWriter(PDDocument document, LabelLayout layout, LabelFontProvider fontProvider) throws IOException {
+        this.document = document;
+        this.template = LabelTemplate.of(layout);
+        this.font = fontProvider.loadFont(document);
+    }
+
+    /**
+     * Добавляет этикетку в следующую свободную ячейку.
+     *
+     * @param qrMatrix матрица модулей QR-кода
+     * @param label    данные этикетки для текстовых полей
+     * @throws IOException в случае ошибки записи
+     */
+    public void addLabel(BitMatrix qrMatrix, BoxLabelData label) throws IOException {
+        if (contentStream == null || slot == template.getLabelsPerPage()) {
+            startPage();
+        }
+        float cellX = template.getCellX(slot);
+        float cellTop = template.getCellTop(slot);
+
+        float qrSize = template.getQrSize();
+        QRCodeWithTextUtil.drawMatrix(contentStream, qrMatrix, cellX + template.getQrOffsetX(),
+                cellTop - template.getQrOffsetTop() - qrSize, qrSize);
+
+        // Пустые поля пропускаются, следующие строки поднимаются на их место
+        List<LabelTemplate.TextSlot> textSlots = template.getTextSlots();
+        int line = 0;
+        for (LabelTemplate.TextSlot fieldSlot : textSlots) {
+            String value = fieldSlot.field().format(label);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            LabelTemplate.TextSlot textSlot = textSlots.get(line++);
+            String text = fit(printable(value), textSlot.maxWidth());
+            float x = cellX + textSlot.offsetX();
+            if (textSlot.centered()) {
+                x -= textWidth(text) / 2;
+            }
+            showText(text, x, cellTop - textSlot.baselineOffset());
+        }
+        slot++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (contentStream != null) {
+            contentStream.close();
+            contentStream = null;
+        }
+    }
+
+    private void startPage() throws IOException {
+        close();
+        PDPage page = new PDPage(template.getLayout().getPageSize());
+        document.addPage(page);
+        contentStream = new PDPageContentStream(document, page);
+        slot = 0;
+    }
+
+    private void showText(String text, float x, float y) throws IOException {
+        contentStream.beginText();
+        contentStream.setFont(font, template.getFontSize());
+        contentStream.newLineAtOffset(x, y);
+        contentStream.showText(text);
+        contentStream.endText();
+    }
+
+    /**
+     * Заменяет символы, которых нет в шрифте, на "?", чтобы одна неподдерживаемая
+     * буква в названии не ломала рендеринг всей партии.
+     */
+    private String printable(String text) {
+        try {
+            font.encode(text);
+            return text;
+        } catch (IllegalArgumentException | IOException e) {
+            StringBuilder result = new StringBuilder(text.length());
+            text.codePoints().forEach(codePoint -> {
+                String symbol = new String(Character.toChars(codePoint));
+                try {
+                    font.encode(symbol);
+                    result.append(symbol);
+                } catch (IllegalArgumentException | IOException ex) {
+                    result.append('?');
+                }
+            });
+            return result.toString();
+        }
+    }
+
+    /**
+     * Обрезает строку с многоточием, чтобы она поместилась в заданную ширину.
+     */
+    private String fit(String text, float maxWidth) throws IOException {
+        if (textWidth(text) <= maxWidth) {
+            return text;
+        }
+        int length = text.length();
+        while (length > 0 && textWidth(text.substring(0, length) + ELLIPSIS) > maxWidth) {
+            length--;
+        }
+        return text.substring(0, length) + ELLIPSIS;
+    }
+
+    private float textWidth(String text) throws IOException {
+        return font.getStringWidth(text) / 1000 * template.getFontSize();
+    }
+}
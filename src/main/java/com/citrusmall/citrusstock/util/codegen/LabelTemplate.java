@@ -0,0 +1,136 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Скомпилированный шаблон этикетки: вся геометрия раскладки (координаты ячеек,
+ * положение и размер QR-кода, позиции строк текста) вычисляется один раз на
+ * раскладку, а при рендеринге подставляются только значения полей.
+ */
+public final class LabelTemplate {
+
+    private static final Map<LabelLayout, LabelTemplate> COMPILED = new EnumMap<>(LabelLayout.class);
+
+    static {
+        for (LabelLayout layout : LabelLayout.values()) {
+            COMPILED.put(layout, new LabelTemplate(layout));
+        }
+    }
+
+    private final LabelLayout layout;
+    // Левый и верхний край каждой ячейки листа, по номеру ячейки
+    private final float[] cellX;
+    private final float[] cellTop;
+    // QR-код относительно левого верхнего угла ячейки
+    private final float qrOffsetX;
+    private final float qrOffsetTop;
+    private final float qrSize;
+    private final List<TextSlot> textSlots;
+
+    /**
+     * Строка текста шаблона: поле и его положение относительно ячейки.
+     * Для центрированных строк offsetX — центр строки.
+     */
+    public record TextSlot(LabelField field, float offsetX, float baselineOffset, float maxWidth, boolean centered) {
+    }
+
+    public static LabelTemplate of(LabelLayout layout) {
+        return COMPILED.get(layout);
+    }
+
+    private LabelTemplate(LabelLayout layout) {
+        this.layout = layout;
+
+        int labelsPerPage = layout.getLabelsPerPage();
+        float cellWidth = layout.getCellWidth();
+        float cellHeight = layout.getCellHeight();
+        cellX = new float[labelsPerPage];
+        cellTop = new float[labelsPerPage];
+        for (int slot = 0; slot < labelsPerPage; slot++) {
+            int column = slot % layout.getColumns();
+            int row = slot / layout.getColumns();
+            cellX[slot] = layout.getMarginX() + column * (cellWidth + layout.getGapX());
+            cellTop[slot] = layout.getPageSize().getHeight() - layout.getMarginY()
+                    - row * (cellHeight + layout.getGapY());
+        }
+
+        float padding = layout.getPadding();
+        float fontSize = layout.getFontSize();
+        float lineHeight = fontSize * 1.2f;
+        float textGap = fontSize * 2 / 3;
+        List<LabelField> fields = layout.getFields();
+        List<TextSlot> slots = new ArrayList<>(fields.size());
+
+        if (cellWidth >= cellHeight * 1.4f) {
+            // Широкая ячейка: QR-код слева, текст справа сверху вниз
+            qrSize = Math.min(layout.getMaxQrSize(), cellHeight - 2 * padding);
+            qrOffsetX = padding;
+            qrOffsetTop = padding;
+
+            float textX = qrOffsetX + qrSize + textGap;
+            float maxTextWidth = cellWidth - padding - textX;
+            float baseline = padding + fontSize;
+            for (LabelField field : fields) {
+                if (baseline > cellHeight - padding) {
+                    break;
+                }
+                slots.add(new TextSlot(field, textX, baseline, maxTextWidth, false));
+                baseline += lineHeight;
+            }
+        } else {
+            // Узкая ячейка: QR-код сверху по центру, текст под ним по центру
+            float textBlockHeight = fields.isEmpty() ? 0 : textGap + fields.size() * lineHeight;
+            qrSize = Math.min(layout.getMaxQrSize(),
+                    Math.min(cellWidth - 2 * padding, cellHeight - 2 * padding - textBlockHeight));
+            qrOffsetX = (cellWidth - qrSize) / 2;
+            qrOffsetTop = padding;
+
+            float baseline = qrOffsetTop + qrSize + textGap + fontSize;
+            for (LabelField field : fields) {
+                slots.add(new TextSlot(field, cellWidth / 2, baseline, cellWidth - 2 * padding, true));
+                baseline += lineHeight;
+            }
+        }
+        textSlots = Collections.unmodifiableList(slots);
+    }
+
+    public LabelLayout getLayout() {
+        return layout;
+    }
+
+    public int getLabelsPerPage() {
+        return cellX.length;
+    }
+
+    public float getCellX(int slot) {
+        return cellX[slot];
+    }
+
+    public float getCellTop(int slot) {
+        return cellTop[slot];
+    }
+
+    public float getQrOffsetX() {
+        return qrOffsetX;
+    }
+
+    public float getQrOffsetTop() {
+        return qrOffsetTop;
+    }
+
+    public float getQrSize() {
+        return qrSize;
+    }
+
+    public float getFontSize() {
+        return layout.getFontSize();
+    }
+
+    public List<TextSlot> getTextSlots() {
+        return textSlots;
+    }
+}
@@ -32,4 +32,14 @@ public class QRCodeGenerator implements CodeGenerator {
         }
         return outputStream.toByteArray();
     }
+
+    @Override
+    public BitMatrix generateCodeMatrix(String content) throws Exception {
+        try {
+            // Нулевой размер: ZXing возвращает матрицу с одним элементом на модуль
+            return new QRCodeWriter().encode(content, BarcodeFormat.QR_CODE, 0, 0);
+        } catch (WriterException e) {
+            throw new Exception("Error generating QR code", e);
+        }
+    }
 }
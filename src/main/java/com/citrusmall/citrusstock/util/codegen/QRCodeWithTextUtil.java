@@ -1,70 +1,49 @@
 package com.citrusmall.citrusstock.util.codegen;
 
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
+import com.google.zxing.common.BitMatrix;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.Color;
+import java.io.IOException;
 
 public class QRCodeWithTextUtil {
 
-    public static byte[] addTextBelowQRCode(byte[] qrImageBytes, String text) throws Exception {
-        // Создаем документ PDF
-        PDDocument document = new PDDocument();
-        
-        try {
-            // Добавляем страницу A4
-            PDPage page = new PDPage(PDRectangle.A4);
-            document.addPage(page);
-            
-            // Создаем изображение из массива байтов
-            PDImageXObject pdImage = PDImageXObject.createFromByteArray(document, qrImageBytes, null);
-            
-            // Получаем размеры страницы
-            float pageWidth = page.getMediaBox().getWidth();
-            float pageHeight = page.getMediaBox().getHeight();
-            
-            // Определяем размер QR-кода (200x200 пикселей)
-            float qrSize = 200;
-            
-            // Позиционируем QR-код по центру страницы
-            float x = (pageWidth - qrSize) / 2;
-            float y = pageHeight - 250;
-            
-            // Создаем контент на странице
-            PDPageContentStream contentStream = new PDPageContentStream(document, page);
-            
-            // Рисуем QR-код
-            contentStream.drawImage(pdImage, x, y, qrSize, qrSize);
-            
-            // Добавляем текст
-            contentStream.beginText();
-            contentStream.setFont(PDType1Font.HELVETICA, 12);
-            
-            // Центрируем текст
-            float textWidth = PDType1Font.HELVETICA.getStringWidth(text) / 1000 * 12;
-            float textX = (pageWidth - textWidth) / 2;
-            float textY = y - 20;
-            
-            contentStream.newLineAtOffset(textX, textY);
-            contentStream.showText(text);
-            contentStream.endText();
-            
-            // Закрываем контент-стрим
-            contentStream.close();
-            
-            // Сохраняем PDF в массив байтов
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            document.save(baos);
-            
-            return baos.toByteArray();
-        } finally {
-            // Закрываем документ в блоке finally
-            document.close();
+    /**
+     * Рисует матрицу модулей в квадрат со стороной size, левый нижний угол — (x, y).
+     * Соседние тёмные модули строки объединяются в один прямоугольник.
+     */
+    static void drawMatrix(PDPageContentStream contentStream, BitMatrix matrix,
+                           float x, float y, float size) throws IOException {
+        int width = matrix.getWidth();
+        int height = matrix.getHeight();
+        // Целый размер модуля в пунктах даёт чёткие границы на термопринтере
+        // и короткие координаты в content stream; код центрируется в квадрате
+        float moduleSize = size / Math.max(width, height);
+        if (moduleSize >= 1) {
+            moduleSize = (float) Math.floor(moduleSize);
+            float offset = (size - moduleSize * Math.max(width, height)) / 2;
+            x += offset;
+            y += offset;
+            size -= 2 * offset;
         }
+
+        contentStream.setNonStrokingColor(Color.BLACK);
+        for (int row = 0; row < height; row++) {
+            // Строки матрицы идут сверху вниз, ось Y в PDF — снизу вверх
+            float rowY = y + size - (row + 1) * moduleSize;
+            int col = 0;
+            while (col < width) {
+                if (!matrix.get(col, row)) {
+                    col++;
+                    continue;
+                }
+                int runStart = col;
+                while (col < width && matrix.get(col, row)) {
+                    col++;
+                }
+                contentStream.addRect(x + runStart * moduleSize, rowY, (col - runStart) * moduleSize, moduleSize);
+            }
+        }
+        contentStream.fill();
     }
 }
@@ -77,3 +77,16 @@ INSERT INTO scan_events (box_id, user_id, scan_mode, scan_time) VALUES
                                                                     ((SELECT id FROM boxes WHERE product_batch_id = 3 ORDER BY id LIMIT 1 OFFSET 1), 2, 'ON_WAREHOUSE', CURRENT_TIMESTAMP - INTERVAL '25 minutes'),
                                                                     ((SELECT id FROM boxes WHERE product_batch_id = 3 ORDER BY id LIMIT 1 OFFSET 2), 2, 'ON_WAREHOUSE', CURRENT_TIMESTAMP - INTERVAL '20 minutes'),
                                                                     ((SELECT id FROM boxes WHERE product_batch_id = 3 ORDER BY id LIMIT 1 OFFSET 3), 2, 'ON_WAREHOUSE', CURRENT_TIMESTAMP - INTERVAL '15 minutes');
+
+-- Пересчитываем счётчики коробок по статусам для всех партий
+UPDATE product_batches pb SET
+    generated_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'GENERATED'),
+    sticked_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'STICKED'),
+    scanned_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'SCANNED'),
+    shipped_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'SHIPPED');
+
+-- Шаг последовательностей = allocationSize в @SequenceGenerator (pooled-оптимизатор Hibernate).
+-- Меняется после начальных данных, чтобы у них остались последовательные ID.
+ALTER SEQUENCE product_batches_id_seq INCREMENT BY 50;
+ALTER SEQUENCE boxes_id_seq INCREMENT BY 50;
+ALTER SEQUENCE scan_events_id_seq INCREMENT BY 50;
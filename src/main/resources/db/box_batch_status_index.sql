@@ -0,0 +1,3 @@
+-- Разовая миграция существующей БД: составной индекс для выборки коробок партии
+-- и агрегатов по статусам (GROUP BY product_batch_id, status) без обхода всей таблицы.
+CREATE INDEX IF NOT EXISTS idx_boxes_batch_status ON boxes (product_batch_id, status);
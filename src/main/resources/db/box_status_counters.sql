@@ -0,0 +1,13 @@
+-- Разовая миграция существующей БД: счётчики коробок партии по статусам
+-- (поддерживаются приложением при создании, сканировании и удалении коробок).
+ALTER TABLE product_batches ADD COLUMN IF NOT EXISTS generated_boxes INT NOT NULL DEFAULT 0;
+ALTER TABLE product_batches ADD COLUMN IF NOT EXISTS sticked_boxes INT NOT NULL DEFAULT 0;
+ALTER TABLE product_batches ADD COLUMN IF NOT EXISTS scanned_boxes INT NOT NULL DEFAULT 0;
+ALTER TABLE product_batches ADD COLUMN IF NOT EXISTS shipped_boxes INT NOT NULL DEFAULT 0;
+
+-- Заполняем счётчики по существующим коробкам
+UPDATE product_batches pb SET
+    generated_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'GENERATED'),
+    sticked_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'STICKED'),
+    scanned_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'SCANNED'),
+    shipped_boxes = (SELECT count(*) FROM boxes b WHERE b.product_batch_id = pb.id AND b.status = 'SHIPPED');
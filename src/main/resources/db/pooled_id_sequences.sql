@@ -0,0 +1,8 @@
+-- Разовая миграция существующей БД: ID партий, коробок и событий сканирования выделяются
+-- Hibernate блоками по 50 (GenerationType.SEQUENCE, allocationSize = 50), чтобы вставки
+-- можно было отправлять пакетами. Шаг последовательности должен совпадать с allocationSize.
+-- Вставки без ID (DEFAULT nextval, например журнал сканирований) остаются корректными:
+-- каждое значение nextval задаёт отдельный блок и не пересекается с блоками Hibernate.
+ALTER SEQUENCE product_batches_id_seq INCREMENT BY 50;
+ALTER SEQUENCE boxes_id_seq INCREMENT BY 50;
+ALTER SEQUENCE scan_events_id_seq INCREMENT BY 50;
@@ -0,0 +1,4 @@
+-- Разовая миграция существующей БД: ID события журнала сканирований.
+-- При восстановлении журнала уже записанные события пропускаются (ON CONFLICT (event_id) DO NOTHING).
+ALTER TABLE scan_events ADD COLUMN IF NOT EXISTS event_id UUID;
+CREATE UNIQUE INDEX IF NOT EXISTS ux_scan_events_event_id ON scan_events (event_id);
@@ -34,6 +34,10 @@ CREATE TABLE product_batches (
                                  received_at TIMESTAMP NOT NULL,
                                  status VARCHAR(50) NOT NULL,  -- unified GoodsStatus: GENERATED, STICKED, SCANNED, SHIPPED
                                  zone_id BIGINT,             -- связь с динамической зоной
+                                 generated_boxes INT NOT NULL DEFAULT 0,  -- счётчики коробок по статусам
+                                 sticked_boxes INT NOT NULL DEFAULT 0,
+                                 scanned_boxes INT NOT NULL DEFAULT 0,
+                                 shipped_boxes INT NOT NULL DEFAULT 0,
                                  FOREIGN KEY (product_id) REFERENCES products(id),
                                  FOREIGN KEY (supplier_id) REFERENCES suppliers(id),
                                  FOREIGN KEY (zone_id) REFERENCES zones(id)
@@ -42,7 +46,7 @@ CREATE TABLE product_batches (
 -- Boxes table
 CREATE TABLE boxes (
                        id BIGSERIAL PRIMARY KEY,
-                       code TEXT,  -- хранится Base64-строка
+                       code TEXT,  -- компактное содержимое QR-кода (JSON из QRCodeContentBuilder)
                        product_batch_id BIGINT NOT NULL,
                        status VARCHAR(50),  -- unified GoodsStatus
                        scanned_at TIMESTAMP,
@@ -50,6 +54,9 @@ CREATE TABLE boxes (
                        FOREIGN KEY (product_batch_id) REFERENCES product_batches(id)
 );
 
+-- Коробки партии и агрегаты по статусам читаются по индексу, без обхода таблицы
+CREATE INDEX idx_boxes_batch_status ON boxes (product_batch_id, status);
+
 -- Users table
 CREATE TABLE users (
                        id BIGSERIAL PRIMARY KEY,
@@ -65,6 +72,7 @@ CREATE TABLE scan_events (
                              user_id BIGINT NOT NULL,
                              scan_mode VARCHAR(50) NOT NULL,
                              scan_time TIMESTAMP NOT NULL,
+                             event_id UUID UNIQUE,  -- ID события журнала сканирований (повторная вставка пропускается)
                              FOREIGN KEY (box_id) REFERENCES boxes(id),
                              FOREIGN KEY (user_id) REFERENCES users(id)
 );
@@ -0,0 +1,87 @@
+package com.citrusmall.citrusstock.exception;
+
+import com.citrusmall.citrusstock.controller.ScanController;
+import com.citrusmall.citrusstock.dto.BulkScanRequest;
+import com.citrusmall.citrusstock.dto.ErrorResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты GlobalExceptionHandler")
+class GlobalExceptionHandlerTest {
+
+    private final GlobalExceptionHandler handler = new GlobalExceptionHandler();
+
+    @Nested
+    @DisplayName("Тесты ошибок проверки тела запроса")
+    class ValidationTests {
+
+        @Test
+        @DisplayName("Непрошедшие проверку поля перечисляются в ответе 400")
+        void namesRejectedFields() throws Exception {
+            // Arrange
+            BulkScanRequest request = new BulkScanRequest();
+            request.setBoxIds(List.of(1L));
+            request.setUserId(5L);
+            BeanPropertyBindingResult bindingResult = new BeanPropertyBindingResult(request, "bulkScanRequest");
+            bindingResult.rejectValue("scanMode", "NotNull", "Scan mode must be provided");
+            MethodParameter parameter = new MethodParameter(
+                    ScanController.class.getMethod("scanBoxesBulk", BulkScanRequest.class), 0);
+
+            // Act
+            ResponseEntity<ErrorResponse> response = handler.handleMethodArgumentNotValidException(
+                    new MethodArgumentNotValidException(parameter, bindingResult));
+
+            // Assert
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            assertEquals(400, response.getBody().getStatus());
+            assertEquals("scanMode: Scan mode must be provided", response.getBody().getMessage());
+        }
+
+        @Test
+        @DisplayName("Неизвестное значение enum — 400 с именем поля")
+        void namesFieldWithUnknownEnumValue() {
+            // Arrange
+            Exception cause = assertThrows(Exception.class, () -> new ObjectMapper().readValue(
+                    "{\"boxIds\":[1],\"userId\":5,\"scanMode\":\"TELEPORT\"}", BulkScanRequest.class));
+            HttpMessageNotReadableException ex = new HttpMessageNotReadableException(
+                    "JSON parse error", cause, new MockHttpInputMessage(new byte[0]));
+
+            // Act
+            ResponseEntity<ErrorResponse> response = handler.handleHttpMessageNotReadableException(ex);
+
+            // Assert
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            assertEquals("Invalid value for field scanMode", response.getBody().getMessage());
+        }
+
+        @Test
+        @DisplayName("Неразбираемое тело — 400 без имени поля")
+        void reportsMalformedBody() {
+            // Arrange
+            Exception cause = assertThrows(Exception.class,
+                    () -> new ObjectMapper().readValue("{oops", BulkScanRequest.class));
+            HttpMessageNotReadableException ex = new HttpMessageNotReadableException(
+                    "JSON parse error", cause, new MockHttpInputMessage(new byte[0]));
+
+            // Act
+            ResponseEntity<ErrorResponse> response = handler.handleHttpMessageNotReadableException(ex);
+
+            // Assert
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            assertEquals("Malformed request body", response.getBody().getMessage());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.citrusmall.citrusstock.model;
+
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.SequenceGenerator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты пуловых последовательностей ID")
+class PooledIdSequencesTest {
+
+    private static final Pattern INCREMENT = Pattern.compile(
+            "ALTER SEQUENCE\\s+(\\w+)\\s+INCREMENT BY\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private static final List<Class<?>> POOLED_ENTITIES = List.of(Box.class, ProductBatch.class, ScanEvent.class);
+
+    /**
+     * Шаг последовательностей, заданный в SQL-скрипте из classpath.
+     */
+    private static Map<String, Integer> sequenceIncrements(String resource) throws Exception {
+        try (InputStream in = PooledIdSequencesTest.class.getResourceAsStream(resource)) {
+            assertNotNull(in, "Скрипт " + resource + " в classpath");
+            Matcher matcher = INCREMENT.matcher(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            Map<String, Integer> increments = new HashMap<>();
+            while (matcher.find()) {
+                increments.put(matcher.group(1), Integer.parseInt(matcher.group(2)));
+            }
+            return increments;
+        }
+    }
+
+    private static SequenceGenerator sequenceGenerator(Class<?> entity) throws Exception {
+        SequenceGenerator generator = entity.getDeclaredField("id").getAnnotation(SequenceGenerator.class);
+        assertNotNull(generator, entity.getSimpleName() + " использует генератор последовательности");
+        return generator;
+    }
+
+    @Nested
+    @DisplayName("Тесты соответствия allocationSize и шага последовательности")
+    class AllocationSizeTests {
+
+        @Test
+        @DisplayName("ID партий, коробок и событий сканирования выделяются из последовательностей блоками")
+        void usesPooledSequenceGeneration() throws Exception {
+            for (Class<?> entity : POOLED_ENTITIES) {
+                GeneratedValue generatedValue = entity.getDeclaredField("id").getAnnotation(GeneratedValue.class);
+                SequenceGenerator generator = sequenceGenerator(entity);
+
+                assertEquals(GenerationType.SEQUENCE, generatedValue.strategy(),
+                        entity.getSimpleName() + ": IDENTITY не позволяет пакетные вставки");
+                assertEquals(generator.name(), generatedValue.generator());
+                assertTrue(generator.allocationSize() > 1, entity.getSimpleName() + ": ID выделяются блоками");
+            }
+            assertEquals(Box.ID_ALLOCATION_SIZE, sequenceGenerator(Box.class).allocationSize());
+        }
+
+        @Test
+        @DisplayName("Миграция задаёт шаг последовательности, равный allocationSize")
+        void migrationMatchesAllocationSize() throws Exception {
+            Map<String, Integer> increments = sequenceIncrements("/db/pooled_id_sequences.sql");
+
+            for (Class<?> entity : POOLED_ENTITIES) {
+                SequenceGenerator generator = sequenceGenerator(entity);
+                assertEquals(generator.allocationSize(), increments.get(generator.sequenceName()),
+                        "Шаг " + generator.sequenceName() + " в миграции");
+            }
+        }
+
+        @Test
+        @DisplayName("Начальные данные задают шаг последовательности, равный allocationSize")
+        void seedDataMatchesAllocationSize() throws Exception {
+            Map<String, Integer> increments = sequenceIncrements("/data.sql");
+
+            for (Class<?> entity : POOLED_ENTITIES) {
+                SequenceGenerator generator = sequenceGenerator(entity);
+                assertEquals(generator.allocationSize(), increments.get(generator.sequenceName()),
+                        "Шаг " + generator.sequenceName() + " в data.sql");
+            }
+        }
+    }
+}
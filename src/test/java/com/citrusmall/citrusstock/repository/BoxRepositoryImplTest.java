@@ -0,0 +1,171 @@
+package com.citrusmall.citrusstock.repository;
+
+import com.citrusmall.citrusstock.model.Box;
+import com.citrusmall.citrusstock.model.enums.GoodsStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты BoxRepositoryImpl")
+class BoxRepositoryImplTest {
+
+    private static final int BLOCK = Box.ID_ALLOCATION_SIZE;
+
+    /**
+     * Выполняет INSERT_GENERATED_BOXES_SQL над эмулированной последовательностью boxes_id_seq
+     * (start 1, increment BLOCK — так её создаёт Hibernate для allocationSize = BLOCK).
+     */
+    private static class SequenceJdbcTemplate extends JdbcTemplate {
+        private long nextValue = 1;
+        private Object[] lastArgs;
+        private final List<Long> usedHiValues = new ArrayList<>();
+
+        long nextval() {
+            long value = nextValue;
+            nextValue += BLOCK;
+            return value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> queryForList(String sql, Class<T> elementType, Object... args) {
+            lastArgs = args;
+            int blocks = (Integer) args[0];
+            int blockSize = (Integer) args[1];
+            int limit = (Integer) args[5];
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < blocks; i++) {
+                long hi = nextval();
+                usedHiValues.add(hi);
+                for (int n = 1; n <= blockSize; n++) {
+                    long id = hi - blockSize + n;
+                    if (id > 0) {
+                        ids.add(id);
+                    }
+                }
+            }
+            Collections.sort(ids);
+            List<Long> inserted = new ArrayList<>(ids.subList(0, Math.min(limit, ids.size())));
+            // RETURNING не гарантирует порядок
+            Collections.reverse(inserted);
+            return (List<T>) inserted;
+        }
+    }
+
+    /**
+     * ID, которые pooled-оптимизатор Hibernate выдаёт из значения последовательности hi.
+     */
+    private static Set<Long> pooledIds(long hi) {
+        Set<Long> ids = new HashSet<>();
+        LongStream.rangeClosed(Math.max(1, hi - BLOCK + 1), hi).forEach(ids::add);
+        return ids;
+    }
+
+    private SequenceJdbcTemplate jdbcTemplate;
+    private BoxRepositoryImpl repository;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new SequenceJdbcTemplate();
+        repository = new BoxRepositoryImpl();
+        ReflectionTestUtils.setField(repository, "jdbcTemplate", jdbcTemplate);
+    }
+
+    @Nested
+    @DisplayName("Тесты выделения ID блоками")
+    class IdBlockTests {
+
+        @Test
+        @DisplayName("Даже на новой последовательности создаётся ровно count коробок")
+        void createsExactCountOnFreshSequence() {
+            for (int count : new int[]{1, BLOCK - 1, BLOCK, BLOCK + 1, 3 * BLOCK + 7}) {
+                // Arrange
+                setUp();
+
+                // Act
+                List<Long> ids = repository.insertGeneratedBoxes(7L, count);
+
+                // Assert
+                assertEquals(count, ids.size(), "Число коробок для count=" + count);
+                assertEquals(count, new HashSet<>(ids).size(), "ID не повторяются для count=" + count);
+                assertTrue(ids.get(0) > 0, "ID положительные для count=" + count);
+            }
+        }
+
+        @Test
+        @DisplayName("Запрашивается на один блок больше, чем нужно для count, и не больше count строк")
+        void requestsOneSpareBlock() {
+            // Act
+            repository.insertGeneratedBoxes(7L, 2 * BLOCK + 1);
+
+            // Assert
+            Object[] args = jdbcTemplate.lastArgs;
+            assertEquals(3 + 1, args[0], "Число блоков");
+            assertEquals(BLOCK, args[1]);
+            assertEquals(BLOCK, args[2]);
+            assertEquals(7L, args[3]);
+            assertEquals(GoodsStatus.GENERATED.name(), args[4]);
+            assertEquals(2 * BLOCK + 1, args[5], "LIMIT равен числу коробок");
+        }
+
+        @Test
+        @DisplayName("Каждый ID лежит в блоке, который pooled-оптимизатор выдал бы из того же значения последовательности")
+        void idsMatchPooledOptimizerBlocks() {
+            // Arrange: JPA уже взял два блока
+            long jpaHi1 = jdbcTemplate.nextval();
+            long jpaHi2 = jdbcTemplate.nextval();
+            Set<Long> jpaIds = new HashSet<>(pooledIds(jpaHi1));
+            jpaIds.addAll(pooledIds(jpaHi2));
+
+            // Act
+            List<Long> ids = repository.insertGeneratedBoxes(7L, 2 * BLOCK);
+
+            // Assert
+            Set<Long> reserved = new HashSet<>();
+            jdbcTemplate.usedHiValues.forEach(hi -> reserved.addAll(pooledIds(hi)));
+            for (Long id : ids) {
+                assertTrue(reserved.contains(id), "ID " + id + " взят из блока последовательности");
+                assertFalse(jpaIds.contains(id), "ID " + id + " не пересекается с ID, выданными JPA");
+            }
+            // Следующий блок JPA начинается после всех вставленных ID
+            long nextJpaHi = jdbcTemplate.nextval();
+            long maxId = Collections.max(ids);
+            pooledIds(nextJpaHi).forEach(id -> assertTrue(id > maxId, "ID " + id + " следующего блока JPA свободен"));
+        }
+
+        @Test
+        @DisplayName("ID возвращаются по возрастанию независимо от порядка RETURNING")
+        void returnsIdsInAscendingOrder() {
+            // Act
+            List<Long> ids = repository.insertGeneratedBoxes(7L, BLOCK + 5);
+
+            // Assert
+            List<Long> sorted = new ArrayList<>(ids);
+            Collections.sort(sorted);
+            assertEquals(sorted, ids);
+        }
+
+        @Test
+        @DisplayName("При count <= 0 запрос не выполняется")
+        void nonPositiveCountDoesNotQuery() {
+            // Act
+            List<Long> ids = repository.insertGeneratedBoxes(7L, 0);
+
+            // Assert
+            assertTrue(ids.isEmpty());
+            assertNull(jdbcTemplate.lastArgs, "Запрос к БД не выполнялся");
+        }
+    }
+}
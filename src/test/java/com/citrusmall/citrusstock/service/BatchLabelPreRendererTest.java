@@ -0,0 +1,219 @@
+package com.citrusmall.citrusstock.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты BatchLabelPreRenderer")
+class BatchLabelPreRendererTest {
+
+    private final List<Long> rendered = new CopyOnWriteArrayList<>();
+    // Рендеринг ждёт открытия шлюза, чтобы тест видел партию в работе
+    private CountDownLatch renderGate;
+    private BatchLabelPreRenderer preRenderer;
+
+    /**
+     * Рендеринг без PDF: запоминает партию; партия 13 завершается ошибкой.
+     */
+    private class StubQRCodeService extends QRCodeService {
+        @Override
+        public void preRenderBatch(Long batchId) throws Exception {
+            renderGate.await();
+            rendered.add(batchId);
+            if (batchId == 13L) {
+                throw new IllegalStateException("Ошибка рендеринга");
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        renderGate = new CountDownLatch(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (preRenderer != null) {
+            ReflectionTestUtils.invokeMethod(preRenderer, "stop");
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private BatchLabelPreRenderer startPreRenderer(boolean enabled, int queueCapacity) {
+        preRenderer = new BatchLabelPreRenderer();
+        ReflectionTestUtils.setField(preRenderer, "qrCodeService", new StubQRCodeService());
+        ReflectionTestUtils.setField(preRenderer, "enabled", enabled);
+        ReflectionTestUtils.setField(preRenderer, "threads", 1);
+        ReflectionTestUtils.setField(preRenderer, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.invokeMethod(preRenderer, "start");
+        return preRenderer;
+    }
+
+    /**
+     * Ждёт, пока в очереди не останется партий.
+     */
+    private void awaitIdle(BatchLabelPreRenderer preRenderer) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (((Set<?>) ReflectionTestUtils.getField(preRenderer, "pending")).isEmpty()) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("Предварительный рендеринг не завершился");
+    }
+
+    @Nested
+    @DisplayName("Тесты постановки партии в очередь")
+    class ScheduleTests {
+
+        @Test
+        @DisplayName("Выключенный по умолчанию рендеринг ничего не ставит в очередь")
+        void ignoresWhenDisabled() throws Exception {
+            // Arrange
+            BatchLabelPreRenderer preRenderer = startPreRenderer(false, 10);
+
+            // Act
+            preRenderer.schedule(1L);
+
+            // Assert
+            assertFalse(preRenderer.isEnabled());
+            assertEquals(0, preRenderer.getQueueDepth());
+            Thread.sleep(50);
+            assertTrue(rendered.isEmpty(), "Партия не рендерится");
+        }
+
+        @Test
+        @DisplayName("Вне транзакции партия рендерится сразу")
+        void rendersWithoutTransaction() throws Exception {
+            // Arrange
+            BatchLabelPreRenderer preRenderer = startPreRenderer(true, 10);
+
+            // Act
+            preRenderer.schedule(1L);
+            awaitIdle(preRenderer);
+
+            // Assert
+            assertEquals(List.of(1L), rendered);
+        }
+
+        @Test
+        @DisplayName("Партия, уже стоящая в очереди, не ставится повторно")
+        void deduplicatesPendingBatch() throws Exception {
+            // Arrange
+            renderGate = new CountDownLatch(1);
+            BatchLabelPreRenderer preRenderer = startPreRenderer(true, 10);
+
+            // Act
+            preRenderer.schedule(1L);
+            preRenderer.schedule(1L);
+            renderGate.countDown();
+            awaitIdle(preRenderer);
+            preRenderer.schedule(1L);
+            awaitIdle(preRenderer);
+
+            // Assert
+            assertEquals(List.of(1L, 1L), rendered, "Повтор во время рендеринга пропущен, после — принят");
+        }
+
+        @Test
+        @DisplayName("При переполненной очереди партия отбрасывается и может быть поставлена снова")
+        void dropsWhenQueueIsFull() throws Exception {
+            // Arrange: один поток занят партией 1, единственное место в очереди — партия 2
+            renderGate = new CountDownLatch(1);
+            BatchLabelPreRenderer preRenderer = startPreRenderer(true, 1);
+            preRenderer.schedule(1L);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (preRenderer.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            preRenderer.schedule(2L);
+
+            // Act
+            preRenderer.schedule(3L);
+
+            // Assert
+            renderGate.countDown();
+            awaitIdle(preRenderer);
+            assertEquals(List.of(1L, 2L), rendered, "Партия 3 отброшена");
+            preRenderer.schedule(3L);
+            awaitIdle(preRenderer);
+            assertEquals(List.of(1L, 2L, 3L), rendered, "Отброшенную партию можно поставить снова");
+        }
+
+        @Test
+        @DisplayName("Ошибка рендеринга не останавливает поток и снимает партию с очереди")
+        void survivesRenderFailure() throws Exception {
+            // Arrange
+            BatchLabelPreRenderer preRenderer = startPreRenderer(true, 10);
+
+            // Act
+            preRenderer.schedule(13L);
+            preRenderer.schedule(14L);
+            awaitIdle(preRenderer);
+
+            // Assert
+            assertEquals(List.of(13L, 14L), rendered);
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты привязки к транзакции")
+    class TransactionTests {
+
+        @Test
+        @DisplayName("Внутри транзакции партия рендерится только после коммита")
+        void rendersAfterCommit() throws Exception {
+            // Arrange
+            BatchLabelPreRenderer preRenderer = startPreRenderer(true, 10);
+            TransactionSynchronizationManager.initSynchronization();
+
+            // Act
+            preRenderer.schedule(1L);
+            Thread.sleep(50);
+
+            // Assert
+            assertTrue(rendered.isEmpty(), "До коммита коробки партии не видны фоновому потоку");
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            awaitIdle(preRenderer);
+            assertEquals(List.of(1L), rendered);
+        }
+
+        @Test
+        @DisplayName("При откате транзакции партия не рендерится и снимается с очереди")
+        void skipsOnRollback() throws Exception {
+            // Arrange
+            BatchLabelPreRenderer preRenderer = startPreRenderer(true, 10);
+            TransactionSynchronizationManager.initSynchronization();
+            preRenderer.schedule(1L);
+
+            // Act
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+            TransactionSynchronizationManager.clearSynchronization();
+
+            // Assert
+            Thread.sleep(50);
+            assertTrue(rendered.isEmpty(), "Откаченная партия не рендерится");
+            preRenderer.schedule(1L);
+            awaitIdle(preRenderer);
+            assertEquals(List.of(1L), rendered, "Партию можно поставить снова после отката");
+        }
+    }
+}
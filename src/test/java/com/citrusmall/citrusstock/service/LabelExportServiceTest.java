@@ -0,0 +1,251 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.LabelExportJobStatus;
+import com.citrusmall.citrusstock.dto.LabelExportJobStatus.State;
+import com.citrusmall.citrusstock.repository.ProductBatchRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@DisplayName("Тесты LabelExportService")
+class LabelExportServiceTest {
+
+    private static final byte[] CONTENT = "%PDF-labels".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path exportDir;
+
+    @Mock
+    private ProductBatchRepository productBatchRepository;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final List<LabelExportService> services = new ArrayList<>();
+
+    // Рендеринг ждёт открытия шлюза, чтобы тест видел задание в очереди
+    private CountDownLatch renderGate;
+
+    /**
+     * Выгрузка без рендеринга: сообщает прогресс по всем 42 коробкам и пишет CONTENT.
+     */
+    private class StubQrOutputService extends QrOutputService {
+        @Override
+        public String getContentType(String format) {
+            if (!"pdf".equalsIgnoreCase(format)) {
+                throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+            return "application/pdf";
+        }
+
+        @Override
+        public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String format, String layout,
+                                                                     QRCodeService.ProgressListener progress) {
+            return CompletableFuture.completedFuture(outputStream -> {
+                try {
+                    renderGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new java.io.IOException(e);
+                }
+                progress.onProgress(42, 42);
+                outputStream.write(CONTENT);
+            });
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        renderGate = new CountDownLatch(0);
+        when(productBatchRepository.countTotalBoxes(7L)).thenReturn(Optional.of(42));
+        when(productBatchRepository.countTotalBoxes(99L)).thenReturn(Optional.empty());
+    }
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(LabelExportService::stop);
+    }
+
+    private LabelExportService startService() throws Exception {
+        LabelExportService service = new LabelExportService();
+        ReflectionTestUtils.setField(service, "qrOutputService", new StubQrOutputService());
+        ReflectionTestUtils.setField(service, "productBatchRepository", productBatchRepository);
+        ReflectionTestUtils.setField(service, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(service, "threads", 1);
+        ReflectionTestUtils.setField(service, "queueCapacity", 10);
+        ReflectionTestUtils.setField(service, "exportDir", exportDir.toString());
+        ReflectionTestUtils.setField(service, "retentionMinutes", 60L);
+        service.start();
+        services.add(service);
+        return service;
+    }
+
+    private LabelExportJobStatus awaitFinished(LabelExportService service, String jobId) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            LabelExportJobStatus status = service.getStatus(jobId).orElseThrow();
+            if (status.getState() == State.COMPLETED || status.getState() == State.FAILED) {
+                return status;
+            }
+            Thread.sleep(10);
+        }
+        fail("Задание " + jobId + " не завершилось");
+        return null;
+    }
+
+    private void writeMetadata(LabelExportJobStatus status) throws Exception {
+        objectMapper.writeValue(exportDir.resolve(status.getJobId() + ".json").toFile(), status);
+    }
+
+    @Nested
+    @DisplayName("Тесты постановки задания")
+    class SubmitTests {
+
+        @Test
+        @DisplayName("Число коробок известно сразу после постановки в очередь")
+        void setsBoxesTotalOnSubmit() throws Exception {
+            // Arrange
+            renderGate = new CountDownLatch(1);
+            LabelExportService service = startService();
+
+            // Act
+            LabelExportJobStatus status = service.submit(7L, "PDF", null);
+
+            // Assert
+            assertEquals(State.QUEUED, status.getState());
+            assertEquals(42, status.getBoxesTotal(), "boxesTotal берётся из счётчиков партии");
+            assertEquals("pdf", status.getFormat());
+            assertTrue(Files.exists(exportDir.resolve(status.getJobId() + ".json")), "Состояние задания сохранено");
+            renderGate.countDown();
+        }
+
+        @Test
+        @DisplayName("Для неизвестной партии задание не создаётся")
+        void rejectsUnknownBatch() throws Exception {
+            // Arrange
+            LabelExportService service = startService();
+
+            // Act & Assert
+            assertThrows(IllegalArgumentException.class, () -> service.submit(99L, "pdf", null));
+            try (var files = Files.list(exportDir)) {
+                assertEquals(0L, files.count(), "Файлы задания не созданы");
+            }
+        }
+
+        @Test
+        @DisplayName("Готовое задание сохраняет размер файла и итоговое состояние")
+        void completesJob() throws Exception {
+            // Arrange
+            LabelExportService service = startService();
+
+            // Act
+            String jobId = service.submit(7L, "pdf", null).getJobId();
+            LabelExportJobStatus status = awaitFinished(service, jobId);
+
+            // Assert
+            assertEquals(State.COMPLETED, status.getState());
+            assertEquals(CONTENT.length, status.getSizeBytes());
+            assertArrayEquals(CONTENT, Files.readAllBytes(service.getArtifact(jobId).orElseThrow()));
+            LabelExportJobStatus saved = objectMapper.readValue(
+                    exportDir.resolve(jobId + ".json").toFile(), LabelExportJobStatus.class);
+            assertEquals(State.COMPLETED, saved.getState(), "Итоговое состояние записано на диск");
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты восстановления после перезапуска")
+    class RestartTests {
+
+        @Test
+        @DisplayName("Готовая выгрузка доступна после перезапуска")
+        void restoresCompletedJob() throws Exception {
+            // Arrange
+            LabelExportService before = startService();
+            String jobId = before.submit(7L, "pdf", null).getJobId();
+            awaitFinished(before, jobId);
+            before.stop();
+
+            // Act
+            LabelExportService after = startService();
+
+            // Assert
+            LabelExportJobStatus status = after.getStatus(jobId).orElseThrow();
+            assertEquals(State.COMPLETED, status.getState());
+            assertEquals(42, status.getBoxesTotal());
+            assertArrayEquals(CONTENT, Files.readAllBytes(after.getArtifact(jobId).orElseThrow()));
+        }
+
+        @Test
+        @DisplayName("Прерванное задание ставится в очередь заново, временные и чужие файлы удаляются")
+        void requeuesInterruptedJob() throws Exception {
+            // Arrange
+            writeMetadata(new LabelExportJobStatus("job-1", 7L, "pdf", null, State.RUNNING, 1, 42, 0, null,
+                    LocalDateTime.now(), null));
+            Files.write(exportDir.resolve("job-1.tmp"), new byte[]{1});
+            Files.write(exportDir.resolve("orphan.pdf"), new byte[]{1});
+
+            // Act
+            LabelExportService service = startService();
+            LabelExportJobStatus status = awaitFinished(service, "job-1");
+
+            // Assert
+            assertEquals(State.COMPLETED, status.getState());
+            assertArrayEquals(CONTENT, Files.readAllBytes(service.getArtifact("job-1").orElseThrow()));
+            assertFalse(Files.exists(exportDir.resolve("orphan.pdf")), "Файл без задания удалён");
+        }
+
+        @Test
+        @DisplayName("Задание, файл которого пропал, помечается как неудачное")
+        void failsCompletedJobWithoutArtifact() throws Exception {
+            // Arrange
+            writeMetadata(new LabelExportJobStatus("job-2", 7L, "pdf", null, State.COMPLETED, 42, 42, 100, null,
+                    LocalDateTime.now(), LocalDateTime.now()));
+
+            // Act
+            LabelExportService service = startService();
+
+            // Assert
+            assertEquals(State.FAILED, service.getStatus("job-2").orElseThrow().getState());
+            assertTrue(service.getArtifact("job-2").isEmpty());
+        }
+
+        @Test
+        @DisplayName("Устаревшие задания удаляются при запуске вместе с файлами")
+        void purgesExpiredJobs() throws Exception {
+            // Arrange
+            LocalDateTime finishedAt = LocalDateTime.now().minusHours(2);
+            writeMetadata(new LabelExportJobStatus("job-3", 7L, "pdf", null, State.COMPLETED, 42, 42,
+                    CONTENT.length, null, finishedAt, finishedAt));
+            Files.write(exportDir.resolve("job-3.pdf"), CONTENT);
+
+            // Act
+            LabelExportService service = startService();
+
+            // Assert
+            assertTrue(service.getStatus("job-3").isEmpty());
+            assertFalse(Files.exists(exportDir.resolve("job-3.pdf")));
+            assertFalse(Files.exists(exportDir.resolve("job-3.json")));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.LabelStorageStats;
+import com.citrusmall.citrusstock.util.FileStorageUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты LabelFileWriter")
+class LabelFileWriterTest {
+
+    private static final long PRODUCT_ID = 9_015_001L;
+
+    private final Path productFolder = Paths.get("qr/codes/product_" + PRODUCT_ID);
+
+    @AfterEach
+    void cleanUp() throws Exception {
+        if (Files.exists(productFolder)) {
+            try (Stream<Path> files = Files.walk(productFolder)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static LabelFileWriter writer(boolean async, int threads, int queueCapacity, int batchSize) {
+        LabelFileWriter writer = new LabelFileWriter();
+        ReflectionTestUtils.setField(writer, "async", async);
+        ReflectionTestUtils.setField(writer, "threads", threads);
+        ReflectionTestUtils.setField(writer, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(writer, "batchSize", batchSize);
+        ReflectionTestUtils.setField(writer, "fsync", false);
+        ReflectionTestUtils.invokeMethod(writer, "start");
+        return writer;
+    }
+
+    private Path labelFile(long boxId, String fingerprint) {
+        return productFolder.resolve(FileStorageUtil.generateQrCodePdfFileName(boxId, fingerprint));
+    }
+
+    private long filesInFolder() throws Exception {
+        try (Stream<Path> files = Files.list(productFolder)) {
+            return files.count();
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты синхронной записи")
+    class SyncTests {
+
+        @Test
+        @DisplayName("Файл этикетки записан к моменту возврата")
+        void writesImmediately() throws Exception {
+            // Arrange
+            LabelFileWriter writer = writer(false, 1, 10, 64);
+
+            // Act
+            writer.write(PRODUCT_ID, 1L, "aaaa", new byte[]{1, 2, 3});
+
+            // Assert
+            assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(labelFile(1L, "aaaa")));
+            LabelStorageStats stats = writer.getStats();
+            assertFalse(stats.isAsync());
+            assertEquals(1, stats.getWritten());
+            assertEquals(1, stats.getBatches());
+        }
+
+        @Test
+        @DisplayName("Новая версия этикетки заменяет устаревшую")
+        void replacesOutdatedVersion() throws Exception {
+            // Arrange
+            LabelFileWriter writer = writer(false, 1, 10, 64);
+            writer.write(PRODUCT_ID, 1L, "aaaa", new byte[]{1});
+
+            // Act
+            writer.write(PRODUCT_ID, 1L, "bbbb", new byte[]{2});
+
+            // Assert
+            assertFalse(Files.exists(labelFile(1L, "aaaa")), "Устаревшая версия удалена");
+            assertArrayEquals(new byte[]{2}, Files.readAllBytes(labelFile(1L, "bbbb")));
+            assertEquals(1, filesInFolder(), "Временных файлов не осталось");
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты фоновой записи")
+    class AsyncTests {
+
+        @Test
+        @DisplayName("Накопленная очередь записывается пачками не больше batch-size")
+        void writesQueuedFilesInBatches() throws Exception {
+            // Arrange: без рабочих потоков записи копятся в очереди
+            LabelFileWriter writer = writer(true, 0, 100, 4);
+            for (long boxId = 1; boxId <= 10; boxId++) {
+                writer.write(PRODUCT_ID, boxId, "aaaa", new byte[]{(byte) boxId});
+            }
+            assertEquals(10, writer.getStats().getQueueDepth(), "Ответ не ждёт записи на диск");
+            assertFalse(Files.exists(labelFile(1L, "aaaa")));
+
+            // Act: после остановки рабочий поток дописывает очередь и завершается
+            ReflectionTestUtils.invokeMethod(writer, "stop");
+            ReflectionTestUtils.invokeMethod(writer, "runWorker");
+
+            // Assert
+            LabelStorageStats stats = writer.getStats();
+            assertEquals(10, stats.getWritten());
+            assertEquals(3, stats.getBatches(), "10 файлов пачками по 4: 4 + 4 + 2");
+            assertEquals(0, stats.getQueueDepth());
+            for (long boxId = 1; boxId <= 10; boxId++) {
+                assertArrayEquals(new byte[]{(byte) boxId}, Files.readAllBytes(labelFile(boxId, "aaaa")));
+            }
+            assertEquals(10, filesInFolder(), "Временных файлов не осталось");
+        }
+
+        @Test
+        @DisplayName("При переполненной очереди запись отбрасывается без ошибки")
+        void dropsWhenQueueIsFull() throws Exception {
+            // Arrange
+            LabelFileWriter writer = writer(true, 0, 2, 4);
+
+            // Act
+            for (long boxId = 1; boxId <= 3; boxId++) {
+                writer.write(PRODUCT_ID, boxId, "aaaa", new byte[]{1});
+            }
+
+            // Assert
+            LabelStorageStats stats = writer.getStats();
+            assertEquals(2, stats.getQueueDepth());
+            assertEquals(1, stats.getDropped(), "Лишняя этикетка будет перерендерена при следующем запросе");
+            ReflectionTestUtils.invokeMethod(writer, "stop");
+        }
+
+        @Test
+        @DisplayName("Рабочий поток записывает этикетку в фоне")
+        void writesInBackground() throws Exception {
+            // Arrange
+            LabelFileWriter writer = writer(true, 1, 10, 64);
+
+            // Act
+            writer.write(PRODUCT_ID, 1L, "aaaa", new byte[]{7});
+            ReflectionTestUtils.invokeMethod(writer, "stop");
+
+            // Assert: остановка дожидается записи очереди
+            assertArrayEquals(new byte[]{7}, Files.readAllBytes(labelFile(1L, "aaaa")));
+            assertEquals(1, writer.getStats().getWritten());
+        }
+    }
+}
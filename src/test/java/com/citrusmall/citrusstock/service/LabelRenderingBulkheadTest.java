@@ -0,0 +1,226 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.LabelRenderingStats;
+import com.citrusmall.citrusstock.exception.RenderingCapacityExceededException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты LabelRenderingBulkhead")
+class LabelRenderingBulkheadTest {
+
+    private static final long LONG_TIMEOUT = 10_000L;
+
+    private LabelRenderingBulkhead bulkhead;
+
+    @BeforeEach
+    void setUp() {
+        bulkhead = new LabelRenderingBulkhead();
+        ReflectionTestUtils.setField(bulkhead, "maxConcurrentJobs", 2);
+        ReflectionTestUtils.setField(bulkhead, "maxQueuedJobs", 2);
+        ReflectionTestUtils.setField(bulkhead, "queueTimeoutMillis", LONG_TIMEOUT);
+        ReflectionTestUtils.setField(bulkhead, "memoryBudgetBytes", 100L);
+        ReflectionTestUtils.setField(bulkhead, "retryAfterSeconds", 7L);
+        ReflectionTestUtils.invokeMethod(bulkhead, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(bulkhead, "stop");
+    }
+
+    /**
+     * Ожидает отказа future и возвращает причину.
+     */
+    private static RenderingCapacityExceededException awaitRejection(CompletableFuture<?> future) {
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(thrown.getCause() instanceof RenderingCapacityExceededException, "Причина: " + thrown.getCause());
+        return (RenderingCapacityExceededException) thrown.getCause();
+    }
+
+    @Nested
+    @DisplayName("Тесты очереди заданий")
+    class QueueTests {
+
+        @Test
+        @DisplayName("Сверх лимита задания ждут в очереди и допускаются по порядку по мере освобождения")
+        void queuesBeyondConcurrencyLimit() throws Exception {
+            // Arrange
+            LabelRenderingBulkhead.Permit first = bulkhead.acquireAsync(10).get();
+            LabelRenderingBulkhead.Permit second = bulkhead.acquireAsync(10).get();
+
+            // Act
+            CompletableFuture<LabelRenderingBulkhead.Permit> third = bulkhead.acquireAsync(10);
+            CompletableFuture<LabelRenderingBulkhead.Permit> fourth = bulkhead.acquireAsync(10);
+
+            // Assert
+            assertFalse(third.isDone(), "Третье задание ждёт, не занимая поток");
+            assertEquals(2, bulkhead.getStats().getQueuedJobs());
+            first.close();
+            assertTrue(third.isDone(), "Освободившееся место получает первое в очереди");
+            assertFalse(fourth.isDone());
+            second.close();
+            assertTrue(fourth.isDone());
+            LabelRenderingStats stats = bulkhead.getStats();
+            assertEquals(2, stats.getActiveJobs());
+            assertEquals(0, stats.getQueuedJobs());
+            assertEquals(4, stats.getAdmitted());
+            third.get().close();
+            fourth.get().close();
+            assertEquals(0, bulkhead.getStats().getReservedBytes());
+        }
+
+        @Test
+        @DisplayName("При заполненной очереди задание сразу отклоняется с Retry-After")
+        void rejectsWhenQueueIsFull() throws Exception {
+            // Arrange
+            bulkhead.acquireAsync(10).get();
+            bulkhead.acquireAsync(10).get();
+            bulkhead.acquireAsync(10);
+            bulkhead.acquireAsync(10);
+
+            // Act
+            CompletableFuture<LabelRenderingBulkhead.Permit> rejected = bulkhead.acquireAsync(10);
+
+            // Assert
+            assertTrue(rejected.isDone(), "Отказ не ждёт таймаута");
+            assertEquals(7, awaitRejection(rejected).getRetryAfterSeconds());
+            assertEquals(1, bulkhead.getStats().getRejected());
+        }
+
+        @Test
+        @DisplayName("Задание, не дождавшееся места за таймаут, отклоняется и покидает очередь")
+        void expiresAfterQueueTimeout() throws Exception {
+            // Arrange
+            bulkhead.acquireAsync(10).get();
+            bulkhead.acquireAsync(10).get();
+
+            // Act
+            CompletableFuture<LabelRenderingBulkhead.Permit> waiting = bulkhead.acquireAsync(10, 50);
+
+            // Assert
+            awaitRejection(waiting);
+            LabelRenderingStats stats = bulkhead.getStats();
+            assertEquals(0, stats.getQueuedJobs(), "Отклонённое задание снято с очереди");
+            assertEquals(1, stats.getRejected());
+        }
+
+        @Test
+        @DisplayName("Отменённое ожидание освобождает место в очереди")
+        void withdrawsCancelledWaiter() throws Exception {
+            // Arrange
+            LabelRenderingBulkhead.Permit first = bulkhead.acquireAsync(10).get();
+            bulkhead.acquireAsync(10).get();
+            CompletableFuture<LabelRenderingBulkhead.Permit> cancelled = bulkhead.acquireAsync(10);
+            CompletableFuture<LabelRenderingBulkhead.Permit> next = bulkhead.acquireAsync(10);
+
+            // Act
+            cancelled.cancel(false);
+            first.close();
+
+            // Assert
+            assertTrue(next.isDone(), "Место досталось следующему, а не отменённому");
+            assertEquals(2, bulkhead.getStats().getActiveJobs());
+            assertEquals(0, bulkhead.getStats().getQueuedJobs());
+        }
+
+        @Test
+        @DisplayName("Блокирующее получение места пробрасывает отказ")
+        void blockingAcquireThrowsWhenQueueIsFull() throws Exception {
+            // Arrange
+            bulkhead.acquireAsync(10).get();
+            bulkhead.acquireAsync(10).get();
+            bulkhead.acquireAsync(10);
+            bulkhead.acquireAsync(10);
+
+            // Act & Assert
+            assertThrows(RenderingCapacityExceededException.class, () -> bulkhead.acquire(10));
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты бюджета памяти")
+    class MemoryBudgetTests {
+
+        @Test
+        @DisplayName("Задание ждёт, если его оценка не укладывается в остаток бюджета")
+        void waitsForMemoryBudget() throws Exception {
+            // Arrange
+            LabelRenderingBulkhead.Permit first = bulkhead.acquireAsync(60).get();
+
+            // Act
+            CompletableFuture<LabelRenderingBulkhead.Permit> second = bulkhead.acquireAsync(60);
+
+            // Assert
+            assertFalse(second.isDone(), "60 + 60 больше бюджета 100");
+            first.close();
+            assertTrue(second.isDone());
+            assertEquals(60, bulkhead.getStats().getReservedBytes());
+        }
+
+        @Test
+        @DisplayName("Задание больше бюджета допускается только в одиночку")
+        void admitsOversizedJobAlone() throws Exception {
+            // Act
+            LabelRenderingBulkhead.Permit oversized = bulkhead.acquireAsync(1_000).get();
+            CompletableFuture<LabelRenderingBulkhead.Permit> small = bulkhead.acquireAsync(1);
+
+            // Assert
+            assertEquals(100, bulkhead.getStats().getReservedBytes(), "Оценка ограничена бюджетом");
+            assertFalse(small.isDone(), "Пока выполняется крупное задание, бюджет исчерпан");
+            oversized.close();
+            assertTrue(small.isDone());
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты разрешений")
+    class PermitTests {
+
+        @Test
+        @DisplayName("Неначатое задание теряет разрешение по таймауту")
+        void releasesUnstartedPermit() throws Exception {
+            // Arrange
+            LabelRenderingBulkhead.Permit permit = bulkhead.acquireAsync(10).get();
+
+            // Act
+            permit.releaseUnlessStartedWithin(20);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (bulkhead.getStats().getActiveJobs() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+
+            // Assert
+            assertEquals(0, bulkhead.getStats().getActiveJobs(), "Место возвращено");
+            assertFalse(permit.start(), "Отобранное разрешение нельзя начать");
+        }
+
+        @Test
+        @DisplayName("Начатое задание сохраняет разрешение сколько бы ни длилось")
+        void keepsStartedPermit() throws Exception {
+            // Arrange
+            LabelRenderingBulkhead.Permit permit = bulkhead.acquireAsync(10).get();
+            permit.releaseUnlessStartedWithin(20);
+
+            // Act
+            assertTrue(permit.start());
+            Thread.sleep(100);
+
+            // Assert
+            assertEquals(1, bulkhead.getStats().getActiveJobs(), "Разрешение не отобрано");
+            permit.close();
+            permit.close();
+            assertEquals(0, bulkhead.getStats().getActiveJobs(), "Повторное закрытие ничего не меняет");
+            assertEquals(0, bulkhead.getStats().getReservedBytes());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.citrusmall.citrusstock.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты LabelRenderingEngine")
+class LabelRenderingEngineTest {
+
+    private LabelRenderingEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new LabelRenderingEngine();
+        ReflectionTestUtils.setField(engine, "renderThreads", 4);
+        ReflectionTestUtils.setField(engine, "queueCapacity", 8);
+        engine.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.stop();
+    }
+
+    @Nested
+    @DisplayName("Тесты параллельного рендеринга")
+    class RenderAllTests {
+
+        @Test
+        @DisplayName("Результаты возвращаются в исходном порядке независимо от времени рендеринга")
+        void keepsInputOrder() throws Exception {
+            // Arrange
+            List<Integer> items = IntStream.range(0, 50).boxed().toList();
+
+            // Act
+            List<String> results = engine.renderAll(items, item -> {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                return "label-" + item;
+            });
+
+            // Assert
+            assertEquals(items.stream().map(item -> "label-" + item).toList(), results);
+        }
+
+        @Test
+        @DisplayName("Элементы рендерятся одновременно в нескольких потоках")
+        void rendersConcurrently() throws Exception {
+            // Arrange: каждый элемент ждёт, пока не начнутся все четыре
+            CountDownLatch allStarted = new CountDownLatch(4);
+            Set<String> threads = ConcurrentHashMap.newKeySet();
+
+            // Act
+            List<Boolean> results = engine.renderAll(List.of(1, 2, 3, 4), item -> {
+                threads.add(Thread.currentThread().getName());
+                allStarted.countDown();
+                return allStarted.await(5, TimeUnit.SECONDS);
+            });
+
+            // Assert
+            assertEquals(List.of(true, true, true, true), results, "Все элементы выполнялись одновременно");
+            assertEquals(4, threads.size());
+        }
+
+        @Test
+        @DisplayName("Переполнение очереди не теряет элементы: лишние рендерит вызывающий поток")
+        void overflowRunsInCaller() throws Exception {
+            // Arrange: элементов больше, чем потоков и мест в очереди
+            List<Integer> items = IntStream.range(0, 100).boxed().toList();
+            Set<String> threads = ConcurrentHashMap.newKeySet();
+
+            // Act
+            List<Integer> results = engine.renderAll(items, item -> {
+                threads.add(Thread.currentThread().getName());
+                Thread.sleep(1);
+                return item * 2;
+            });
+
+            // Assert
+            assertEquals(items.stream().map(item -> item * 2).toList(), results);
+            assertTrue(threads.contains(Thread.currentThread().getName()), "Часть элементов выполнена в вызывающем потоке");
+        }
+
+        @Test
+        @DisplayName("Ошибка рендеринга пробрасывается исходным исключением")
+        void rethrowsRenderFailure() {
+            // Act & Assert
+            IOException thrown = assertThrows(IOException.class, () -> engine.renderAll(List.of(1, 2, 3), item -> {
+                if (item == 2) {
+                    throw new IOException("Шрифт не найден");
+                }
+                return item;
+            }));
+            assertEquals("Шрифт не найден", thrown.getMessage());
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты фонового рендеринга")
+    class BackgroundTests {
+
+        @Test
+        @DisplayName("Фоновый рендеринг выполняется в вызывающем потоке и сохраняет порядок")
+        void rendersInCallerThread() throws Exception {
+            // Arrange
+            String caller = Thread.currentThread().getName();
+
+            // Act
+            List<String> results = engine.renderAllInBackground(List.of(1, 2, 3),
+                    item -> Thread.currentThread().getName() + ":" + item);
+
+            // Assert
+            assertEquals(List.of(caller + ":1", caller + ":2", caller + ":3"), results);
+            assertFalse(engine.isBusy(), "Пул интерактивного рендеринга не занят");
+        }
+    }
+}
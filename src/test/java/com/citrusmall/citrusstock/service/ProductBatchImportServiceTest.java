@@ -0,0 +1,247 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.dto.ProductBatchImportEvent;
+import com.citrusmall.citrusstock.model.Product;
+import com.citrusmall.citrusstock.model.ProductBatch;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@DisplayName("Тесты ProductBatchImportService")
+class ProductBatchImportServiceTest {
+
+    @Mock
+    private ProductBatchService productBatchService;
+
+    @Mock
+    private ReferenceDataCache referenceDataCache;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @InjectMocks
+    private ProductBatchImportService importService;
+
+    private List<ProductBatchImportEvent> events;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(importService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(importService, "chunkSize", 2);
+        importService.init();
+        events = new ArrayList<>();
+
+        Product apples = new Product();
+        apples.setId(1L);
+        apples.setName("Яблоки");
+        Product gala = new Product();
+        gala.setId(2L);
+        gala.setName("Яблоки; сорт Гала");
+
+        when(referenceDataCache.findProductByName(anyString())).thenReturn(Optional.empty());
+        when(referenceDataCache.findProductByName("Яблоки")).thenReturn(Optional.of(apples));
+        when(referenceDataCache.findProductByName("Яблоки; сорт Гала")).thenReturn(Optional.of(gala));
+    }
+
+    private ProductBatchImportEvent importManifest(String manifest, ProductBatchImportService.Format format) throws IOException {
+        return importService.importManifest(new ByteArrayInputStream(manifest.getBytes(StandardCharsets.UTF_8)),
+                format, events::add);
+    }
+
+    private List<ProductBatchImportEvent> errors() {
+        return events.stream().filter(event -> event.getType() == ProductBatchImportEvent.Type.ERROR).toList();
+    }
+
+    @Nested
+    @DisplayName("Тесты разбора строки CSV")
+    class SplitCsvLineTests {
+
+        @Test
+        @DisplayName("Поля разделяются разделителем, пробелы вокруг полей отбрасываются")
+        void splitsAndTrimsFields() {
+            assertEquals(List.of("a", "b", "c"), ProductBatchImportService.splitCsvLine(" a , b,c ", ','));
+        }
+
+        @Test
+        @DisplayName("Разделитель внутри кавычек остаётся частью поля")
+        void keepsSeparatorInsideQuotes() {
+            assertEquals(List.of("Яблоки, красные", "10"),
+                    ProductBatchImportService.splitCsvLine("\"Яблоки, красные\",10", ','));
+        }
+
+        @Test
+        @DisplayName("Двойная кавычка внутри кавычек — литеральная кавычка")
+        void doubledQuoteIsLiteral() {
+            assertEquals(List.of("ООО \"Цитрус\"", "5"),
+                    ProductBatchImportService.splitCsvLine("\"ООО \"\"Цитрус\"\"\";5", ';'));
+        }
+
+        @Test
+        @DisplayName("Пустые поля, в том числе последнее, сохраняются")
+        void keepsEmptyFields() {
+            assertEquals(List.of("a", "", "b", ""), ProductBatchImportService.splitCsvLine("a,,b,", ','));
+        }
+
+        @Test
+        @DisplayName("Незакрытая кавычка — ошибка строки")
+        void rejectsUnterminatedQuote() {
+            assertThrows(IllegalArgumentException.class,
+                    () -> ProductBatchImportService.splitCsvLine("\"Яблоки,10", ','));
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты импорта CSV")
+    class CsvImportTests {
+
+        @Test
+        @DisplayName("Заголовок с ';' и без ',' задаёт разделитель ';'")
+        void detectsSemicolonSeparator() throws Exception {
+            // Act
+            ProductBatchImportEvent summary = importManifest("product;totalBoxes;zone\nЯблоки;3;\n",
+                    ProductBatchImportService.Format.CSV);
+
+            // Assert
+            verify(productBatchService).createProductBatch(any(ProductBatch.class), eq(1L), isNull(), eq(3));
+            assertEquals(1, summary.getBatchesCreated());
+            assertEquals(3, summary.getBoxesCreated());
+            assertEquals(0, summary.getFailedLines());
+        }
+
+        @Test
+        @DisplayName("Заголовок с ',' (и BOM) задаёт разделитель ',' даже если ';' встречается в данных")
+        void commaHeaderKeepsSemicolonInData() throws Exception {
+            // Act
+            ProductBatchImportEvent summary = importManifest("\uFEFFproduct,totalBoxes\n\"Яблоки; сорт Гала\",2\n",
+                    ProductBatchImportService.Format.CSV);
+
+            // Assert
+            verify(productBatchService).createProductBatch(any(ProductBatch.class), eq(2L), isNull(), eq(2));
+            assertEquals(1, summary.getBatchesCreated());
+        }
+
+        @Test
+        @DisplayName("Ошибочные строки сообщаются с номером строки, остальные импортируются")
+        void reportsPerLineErrors() throws Exception {
+            // Act
+            ProductBatchImportEvent summary = importManifest(
+                    "product,totalBoxes\nЯблоки,2\nГруши,1\nЯблоки,abc\n\nЯблоки,0\n",
+                    ProductBatchImportService.Format.CSV);
+
+            // Assert
+            List<ProductBatchImportEvent> errors = errors();
+            assertEquals(3, errors.size());
+            assertEquals(3L, errors.get(0).getLine());
+            assertEquals("Product not found with name Груши", errors.get(0).getMessage());
+            assertEquals(4L, errors.get(1).getLine());
+            assertEquals("Invalid totalBoxes: abc", errors.get(1).getMessage());
+            assertEquals(6L, errors.get(2).getLine(), "Пустые строки учитываются в нумерации");
+            assertEquals(1, summary.getBatchesCreated());
+            assertEquals(3, summary.getFailedLines());
+            assertEquals(6, summary.getLinesRead());
+            assertEquals(ProductBatchImportEvent.Type.SUMMARY, events.get(events.size() - 1).getType());
+        }
+
+        @Test
+        @DisplayName("Без обязательных колонок заголовка импорт останавливается")
+        void stopsWithoutRequiredHeaderColumns() throws Exception {
+            // Act
+            ProductBatchImportEvent summary = importManifest("name,count\nЯблоки,2\n",
+                    ProductBatchImportService.Format.CSV);
+
+            // Assert
+            List<ProductBatchImportEvent> errors = errors();
+            assertEquals(1, errors.size());
+            assertEquals(1L, errors.get(0).getLine());
+            assertEquals(1, summary.getFailedLines());
+            verify(productBatchService, never()).createProductBatch(any(), any(), any(), any());
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты записи порциями")
+    class ChunkTests {
+
+        @Test
+        @DisplayName("Если порция не записалась, строки повторяются по одной и ошибка касается только виновной")
+        void retriesFailedChunkLineByLine() throws Exception {
+            // Arrange
+            when(productBatchService.createProductBatch(any(), any(), any(), eq(13)))
+                    .thenThrow(new IllegalStateException("Нарушено ограничение"));
+
+            // Act
+            ProductBatchImportEvent summary = importManifest("product,totalBoxes\nЯблоки,2\nЯблоки,13\nЯблоки,4\n",
+                    ProductBatchImportService.Format.CSV);
+
+            // Assert
+            // Первая строка порции записана дважды: в откатившейся порции и при повторе по одной
+            verify(productBatchService, times(2)).createProductBatch(any(), any(), any(), eq(2));
+            verify(productBatchService, times(1)).createProductBatch(any(), any(), any(), eq(4));
+            verify(transactionManager, times(2)).rollback(any());
+            List<ProductBatchImportEvent> errors = errors();
+            assertEquals(1, errors.size());
+            assertEquals(3L, errors.get(0).getLine());
+            assertEquals("Нарушено ограничение", errors.get(0).getMessage());
+            assertEquals(2, summary.getBatchesCreated());
+            assertEquals(6, summary.getBoxesCreated());
+            assertEquals(1, summary.getFailedLines());
+        }
+
+        @Test
+        @DisplayName("После каждой порции отправляется событие прогресса")
+        void reportsProgressAfterEachChunk() throws Exception {
+            // Act
+            importManifest("product,totalBoxes\nЯблоки,1\nЯблоки,1\nЯблоки,1\n", ProductBatchImportService.Format.CSV);
+
+            // Assert
+            List<ProductBatchImportEvent> progress = events.stream()
+                    .filter(event -> event.getType() == ProductBatchImportEvent.Type.PROGRESS).toList();
+            assertEquals(2, progress.size());
+            assertEquals(2, progress.get(0).getBatchesCreated());
+            assertEquals(3, progress.get(1).getBatchesCreated());
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты импорта NDJSON")
+    class NdjsonImportTests {
+
+        @Test
+        @DisplayName("Некорректный JSON — ошибка только этой строки")
+        void reportsMalformedJsonLine() throws Exception {
+            // Act
+            ProductBatchImportEvent summary = importManifest(
+                    "{\"product\":\"Яблоки\",\"totalBoxes\":2}\n{oops\n",
+                    ProductBatchImportService.Format.NDJSON);
+
+            // Assert
+            List<ProductBatchImportEvent> errors = errors();
+            assertEquals(1, errors.size());
+            assertEquals(2L, errors.get(0).getLine());
+            assertTrue(errors.get(0).getMessage().startsWith("Malformed JSON"));
+            assertEquals(1, summary.getBatchesCreated());
+        }
+    }
+}
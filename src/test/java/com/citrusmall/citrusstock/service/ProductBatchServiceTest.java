@@ -1,11 +1,16 @@
 package com.citrusmall.citrusstock.service;
 
+import com.citrusmall.citrusstock.dto.BoxStatusCount;
+import com.citrusmall.citrusstock.dto.BoxStatusCounters;
 import com.citrusmall.citrusstock.model.Box;
+import com.citrusmall.citrusstock.model.Product;
 import com.citrusmall.citrusstock.model.ProductBatch;
 import com.citrusmall.citrusstock.model.Zone;
 import com.citrusmall.citrusstock.model.enums.GoodsStatus;
 import com.citrusmall.citrusstock.repository.BoxRepository;
 import com.citrusmall.citrusstock.repository.ProductBatchRepository;
+import com.citrusmall.citrusstock.util.FileStorageUtil;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -13,12 +18,23 @@ import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.LongStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -68,6 +84,14 @@ class ProductBatchServiceTest {
         boxes = Arrays.asList(box1, box2, box3);
     }
 
+    private static BoxStatusCounters countersOf(List<Box> boxes) {
+        return new BoxStatusCounters(
+                (int) boxes.stream().filter(box -> box.getStatus() == GoodsStatus.GENERATED).count(),
+                (int) boxes.stream().filter(box -> box.getStatus() == GoodsStatus.STICKED).count(),
+                (int) boxes.stream().filter(box -> box.getStatus() == GoodsStatus.SCANNED).count(),
+                (int) boxes.stream().filter(box -> box.getStatus() == GoodsStatus.SHIPPED).count());
+    }
+
     @Nested
     @DisplayName("Тесты обновления статуса партии на основе статусов коробок")
     class UpdateBatchStatusBasedOnBoxesTests {
@@ -81,7 +105,7 @@ class ProductBatchServiceTest {
             boxes.forEach(box -> box.setStatus(GoodsStatus.SCANNED));
 
             when(productBatchRepository.findById(batchId)).thenReturn(Optional.of(productBatch));
-            when(boxRepository.findByProductBatch_Id(batchId)).thenReturn(boxes);
+            when(productBatchRepository.findBoxStatusCounters(batchId)).thenReturn(Optional.of(countersOf(boxes)));
 
             // Act
             productBatchService.updateBatchStatusBasedOnBoxes(batchId, zone);
@@ -101,7 +125,7 @@ class ProductBatchServiceTest {
             boxes.forEach(box -> box.setStatus(GoodsStatus.SHIPPED));
 
             when(productBatchRepository.findById(batchId)).thenReturn(Optional.of(productBatch));
-            when(boxRepository.findByProductBatch_Id(batchId)).thenReturn(boxes);
+            when(productBatchRepository.findBoxStatusCounters(batchId)).thenReturn(Optional.of(countersOf(boxes)));
 
             // Act
             productBatchService.updateBatchStatusBasedOnBoxes(batchId, zone);
@@ -125,7 +149,7 @@ class ProductBatchServiceTest {
             GoodsStatus originalStatus = productBatch.getStatus();
 
             when(productBatchRepository.findById(batchId)).thenReturn(Optional.of(productBatch));
-            when(boxRepository.findByProductBatch_Id(batchId)).thenReturn(boxes);
+            when(productBatchRepository.findBoxStatusCounters(batchId)).thenReturn(Optional.of(countersOf(boxes)));
 
             // Act
             productBatchService.updateBatchStatusBasedOnBoxes(batchId, zone);
@@ -143,7 +167,7 @@ class ProductBatchServiceTest {
             GoodsStatus originalStatus = productBatch.getStatus();
 
             when(productBatchRepository.findById(batchId)).thenReturn(Optional.of(productBatch));
-            when(boxRepository.findByProductBatch_Id(batchId)).thenReturn(Collections.emptyList());
+            when(productBatchRepository.findBoxStatusCounters(batchId)).thenReturn(Optional.of(countersOf(Collections.emptyList())));
 
             // Act
             productBatchService.updateBatchStatusBasedOnBoxes(batchId, zone);
@@ -154,6 +178,41 @@ class ProductBatchServiceTest {
         }
     }
 
+    @Nested
+    @DisplayName("Тесты обновления счётчиков коробок партии")
+    class OnBoxStatusChangedTests {
+
+        @Test
+        @DisplayName("Смена статуса переносит коробки между счётчиками одним запросом")
+        void shiftsCountersForStatusChange() {
+            // Act
+            productBatchService.onBoxStatusChanged(1L, GoodsStatus.GENERATED, GoodsStatus.SCANNED, 5);
+
+            // Assert
+            verify(productBatchRepository).shiftBoxStatusCounters(1L, "GENERATED", "SCANNED", 5);
+        }
+
+        @Test
+        @DisplayName("Новые коробки увеличивают только счётчик целевого статуса")
+        void newBoxesOnlyIncrementTargetCounter() {
+            // Act
+            productBatchService.onBoxStatusChanged(1L, null, GoodsStatus.GENERATED, 3);
+
+            // Assert
+            verify(productBatchRepository).shiftBoxStatusCounters(1L, "", "GENERATED", 3);
+        }
+
+        @Test
+        @DisplayName("Если статус не изменился, счётчики не трогаются")
+        void sameStatusDoesNotTouchCounters() {
+            // Act
+            productBatchService.onBoxStatusChanged(1L, GoodsStatus.SCANNED, GoodsStatus.SCANNED, 2);
+
+            // Assert
+            verify(productBatchRepository, never()).shiftBoxStatusCounters(anyLong(), anyString(), anyString(), anyInt());
+        }
+    }
+
     @Nested
     @DisplayName("Тесты поиска партий с коробками в разных статусах")
     class FindBatchesWithMixedBoxStatusesTests {
@@ -162,70 +221,61 @@ class ProductBatchServiceTest {
         @DisplayName("Находит партии с коробками в разных статусах")
         void returnsOnlyBatchesWithMixedBoxStatuses() {
             // Arrange
-            ProductBatch batch1 = new ProductBatch();
-            batch1.setId(1L);
-
+            Pageable pageable = PageRequest.of(0, 10);
             ProductBatch batch2 = new ProductBatch();
             batch2.setId(2L);
 
-            // Создаем коробки с одинаковым статусом для первой партии
-            Box box1 = new Box();
-            box1.setStatus(GoodsStatus.SCANNED);
-            
-            Box box2 = new Box();
-            box2.setStatus(GoodsStatus.SCANNED);
+            // Отбор партий выполняет агрегатный запрос по коробкам
+            when(boxRepository.findProductBatchIdsWithMixedStatuses(pageable))
+                    .thenReturn(new PageImpl<>(List.of(2L), pageable, 1));
+            when(productBatchRepository.findAllWithReferencesByIdIn(List.of(2L))).thenReturn(List.of(batch2));
 
-            // Создаем коробки с разными статусами для второй партии
-            Box box3 = new Box();
-            box3.setStatus(GoodsStatus.SCANNED);
-            
-            Box box4 = new Box();
-            box4.setStatus(GoodsStatus.SHIPPED);
+            // Act
+            Page<ProductBatch> result = productBatchService.findBatchesWithMixedBoxStatuses(pageable);
 
-            when(productBatchRepository.findAll()).thenReturn(Arrays.asList(batch1, batch2));
-            when(boxRepository.findByProductBatch_Id(1L)).thenReturn(Arrays.asList(box1, box2));
-            when(boxRepository.findByProductBatch_Id(2L)).thenReturn(Arrays.asList(box3, box4));
+            // Assert
+            assertEquals(1, result.getTotalElements(), "Должна быть найдена только одна партия");
+            assertEquals(batch2.getId(), result.getContent().get(0).getId(), "Должна быть найдена партия с ID=2");
+            verify(boxRepository, never()).findByProductBatch_Id(anyLong());
+            verify(productBatchRepository, never()).findAll();
+        }
+
+        @Test
+        @DisplayName("Сохраняет порядок страницы и её общий размер")
+        void keepsPageOrderAndTotal() {
+            // Arrange
+            Pageable pageable = PageRequest.of(1, 2);
+            ProductBatch batch3 = new ProductBatch();
+            batch3.setId(3L);
+            ProductBatch batch5 = new ProductBatch();
+            batch5.setId(5L);
+
+            when(boxRepository.findProductBatchIdsWithMixedStatuses(pageable))
+                    .thenReturn(new PageImpl<>(List.of(3L, 5L), pageable, 5));
+            when(productBatchRepository.findAllWithReferencesByIdIn(List.of(3L, 5L))).thenReturn(List.of(batch5, batch3));
 
             // Act
-            List<ProductBatch> result = productBatchService.findBatchesWithMixedBoxStatuses();
+            Page<ProductBatch> result = productBatchService.findBatchesWithMixedBoxStatuses(pageable);
 
             // Assert
-            assertEquals(1, result.size(), "Должна быть найдена только одна партия");
-            assertEquals(batch2.getId(), result.get(0).getId(), "Должна быть найдена партия с ID=2");
+            assertEquals(List.of(3L, 5L), result.getContent().stream().map(ProductBatch::getId).toList(),
+                    "Партии должны идти в порядке агрегатного запроса");
+            assertEquals(5, result.getTotalElements(), "Общее число партий берётся из агрегатного запроса");
         }
 
         @Test
-        @DisplayName("Возвращает пустой список, если нет партий с коробками в разных статусах")
+        @DisplayName("Возвращает пустую страницу, если нет партий с коробками в разных статусах")
         void returnsEmptyListWhenNoMixedStatuses() {
             // Arrange
-            ProductBatch batch1 = new ProductBatch();
-            batch1.setId(1L);
-
-            ProductBatch batch2 = new ProductBatch();
-            batch2.setId(2L);
-
-            // Все коробки имеют одинаковый статус в своих партиях
-            Box box1 = new Box();
-            box1.setStatus(GoodsStatus.SCANNED);
-            
-            Box box2 = new Box();
-            box2.setStatus(GoodsStatus.SCANNED);
-            
-            Box box3 = new Box();
-            box3.setStatus(GoodsStatus.SHIPPED);
-            
-            Box box4 = new Box();
-            box4.setStatus(GoodsStatus.SHIPPED);
-
-            when(productBatchRepository.findAll()).thenReturn(Arrays.asList(batch1, batch2));
-            when(boxRepository.findByProductBatch_Id(1L)).thenReturn(Arrays.asList(box1, box2));
-            when(boxRepository.findByProductBatch_Id(2L)).thenReturn(Arrays.asList(box3, box4));
+            Pageable pageable = PageRequest.of(0, 10);
+            when(boxRepository.findProductBatchIdsWithMixedStatuses(pageable)).thenReturn(Page.empty(pageable));
 
             // Act
-            List<ProductBatch> result = productBatchService.findBatchesWithMixedBoxStatuses();
+            Page<ProductBatch> result = productBatchService.findBatchesWithMixedBoxStatuses(pageable);
 
             // Assert
-            assertTrue(result.isEmpty(), "Список должен быть пустым");
+            assertTrue(result.isEmpty(), "Страница должна быть пустой");
+            verify(productBatchRepository, never()).findAllWithReferencesByIdIn(any());
         }
     }
 
@@ -238,11 +288,9 @@ class ProductBatchServiceTest {
         void returnsCorrectStatistics() {
             // Arrange
             Long batchId = 1L;
-            boxes.get(0).setStatus(GoodsStatus.SCANNED);
-            boxes.get(1).setStatus(GoodsStatus.SCANNED);
-            boxes.get(2).setStatus(GoodsStatus.SHIPPED);
-
-            when(boxRepository.findByProductBatch_Id(batchId)).thenReturn(boxes);
+            when(boxRepository.countByStatusForBatch(batchId)).thenReturn(List.of(
+                    new BoxStatusCount(batchId, GoodsStatus.SCANNED, 2L),
+                    new BoxStatusCount(batchId, GoodsStatus.SHIPPED, 1L)));
 
             // Act
             Map<GoodsStatus, Long> result = productBatchService.getBoxStatusStatisticsForBatch(batchId);
@@ -251,6 +299,7 @@ class ProductBatchServiceTest {
             assertEquals(2, result.size(), "Должно быть два разных статуса");
             assertEquals(2L, result.get(GoodsStatus.SCANNED), "Должно быть 2 коробки со статусом SCANNED");
             assertEquals(1L, result.get(GoodsStatus.SHIPPED), "Должна быть 1 коробка со статусом SHIPPED");
+            verify(boxRepository, never()).findByProductBatch_Id(anyLong());
         }
 
         @Test
@@ -258,7 +307,7 @@ class ProductBatchServiceTest {
         void returnsEmptyStatisticsWhenNoBoxes() {
             // Arrange
             Long batchId = 1L;
-            when(boxRepository.findByProductBatch_Id(batchId)).thenReturn(Collections.emptyList());
+            when(boxRepository.countByStatusForBatch(batchId)).thenReturn(Collections.emptyList());
 
             // Act
             Map<GoodsStatus, Long> result = productBatchService.getBoxStatusStatisticsForBatch(batchId);
@@ -266,5 +315,170 @@ class ProductBatchServiceTest {
             // Assert
             assertTrue(result.isEmpty(), "Статистика должна быть пустой");
         }
+
+        @Test
+        @DisplayName("Возвращает статистику нескольких партий одним запросом")
+        void returnsStatisticsForSeveralBatches() {
+            // Arrange
+            when(boxRepository.countByStatusForBatches(anyCollection())).thenReturn(List.of(
+                    new BoxStatusCount(1L, GoodsStatus.GENERATED, 3L),
+                    new BoxStatusCount(2L, GoodsStatus.SCANNED, 4L),
+                    new BoxStatusCount(2L, GoodsStatus.SHIPPED, 1L)));
+
+            // Act
+            Map<Long, Map<GoodsStatus, Long>> result =
+                    productBatchService.getBoxStatusStatisticsForBatches(List.of(2L, 1L, 3L, 2L));
+
+            // Assert
+            assertEquals(List.of(2L, 1L, 3L), List.copyOf(result.keySet()), "Партии должны идти в порядке запроса без повторов");
+            assertEquals(Map.of(GoodsStatus.GENERATED, 3L), result.get(1L));
+            assertEquals(Map.of(GoodsStatus.SCANNED, 4L, GoodsStatus.SHIPPED, 1L), result.get(2L));
+            assertTrue(result.get(3L).isEmpty(), "Для партии без коробок статистика пустая");
+            verify(boxRepository, times(1)).countByStatusForBatches(anyCollection());
+        }
+
+        @Test
+        @DisplayName("Отклоняет пустой список партий")
+        void rejectsEmptyBatchIds() {
+            assertThrows(IllegalArgumentException.class,
+                    () -> productBatchService.getBoxStatusStatisticsForBatches(Collections.emptyList()));
+            verify(boxRepository, never()).countByStatusForBatches(anyCollection());
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты создания партии")
+    class CreateProductBatchTests {
+
+        @BeforeEach
+        void setUpCreate() {
+            productBatch.setZone(zone);
+            // Фоновый рендеринг выключен: schedule ничего не делает
+            ReflectionTestUtils.setField(productBatchService, "batchLabelPreRenderer", new BatchLabelPreRenderer());
+            ReflectionTestUtils.setField(productBatchService, "bulkInsertThreshold", 10);
+            when(productBatchRepository.save(any(ProductBatch.class))).thenAnswer(invocation -> invocation.getArgument(0));
+            when(productBatchRepository.saveAndFlush(any(ProductBatch.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        }
+
+        @Test
+        @DisplayName("Небольшая партия создаёт коробки через JPA, счётчик равен числу коробок")
+        void createsBoxesThroughJpa() {
+            // Act
+            ProductBatch saved = productBatchService.createProductBatch(productBatch, null, null, 3);
+
+            // Assert
+            assertEquals(3, saved.getGeneratedBoxes(), "Счётчик возвращаемой партии актуален");
+            assertEquals(3, saved.getTotalBoxes());
+            verify(boxRepository).saveAll(anyList());
+            verify(boxRepository, never()).insertGeneratedBoxes(anyLong(), anyInt());
+            verify(productBatchRepository).shiftBoxStatusCounters(1L, "", "GENERATED", 3);
+        }
+
+        @Test
+        @DisplayName("Большая партия вставляет коробки одним запросом, счётчик равен числу вставленных")
+        void createsBoxesWithBulkInsert() {
+            // Arrange
+            when(boxRepository.insertGeneratedBoxes(1L, 12)).thenReturn(
+                    LongStream.rangeClosed(101, 112).boxed().toList());
+
+            // Act
+            ProductBatch saved = productBatchService.createProductBatch(productBatch, null, null, 12);
+
+            // Assert
+            assertEquals(12, saved.getGeneratedBoxes(), "Счётчик возвращаемой партии актуален");
+            assertEquals(12, saved.getTotalBoxes());
+            verify(boxRepository, never()).saveAll(anyList());
+            verify(productBatchRepository).shiftBoxStatusCounters(1L, "", "GENERATED", 12);
+        }
+
+        @Test
+        @DisplayName("Партия без коробок сохраняется с нулевыми счётчиками")
+        void createsEmptyBatch() {
+            // Act
+            ProductBatch saved = productBatchService.createProductBatch(productBatch, null, null, null);
+
+            // Assert
+            assertEquals(0, saved.getTotalBoxes());
+            assertEquals(GoodsStatus.GENERATED, saved.getStatus());
+            verify(productBatchRepository, never()).shiftBoxStatusCounters(anyLong(), anyString(), anyString(), anyInt());
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты удаления сохранённых этикеток")
+    class StoredLabelsTests {
+
+        private static final long PRODUCT_ID = 9_014_001L;
+
+        private final Path boxLabel = Paths.get("qr/codes/product_" + PRODUCT_ID,
+                FileStorageUtil.generateQrCodePdfFileName(1L, "fp"));
+        private final Path batchPdf = Paths.get("qr/codes/product_" + PRODUCT_ID,
+                FileStorageUtil.generateBatchPdfFileName(1L, "A4", "fp"));
+
+        @BeforeEach
+        void setUpFiles() throws Exception {
+            Product product = new Product();
+            product.setId(PRODUCT_ID);
+            productBatch.setProduct(product);
+            FileStorageUtil.saveQrCodeFile(PRODUCT_ID, boxLabel.getFileName().toString(), new byte[]{1});
+            FileStorageUtil.saveQrCodeFile(PRODUCT_ID, batchPdf.getFileName().toString(), new byte[]{2});
+            when(productBatchRepository.findById(1L)).thenReturn(Optional.of(productBatch));
+            when(boxRepository.findIdsByProductBatchId(1L)).thenReturn(List.of(1L, 2L, 3L));
+        }
+
+        @AfterEach
+        void cleanUp() throws Exception {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.clearSynchronization();
+            }
+            Files.deleteIfExists(boxLabel);
+            Files.deleteIfExists(batchPdf);
+            Files.deleteIfExists(boxLabel.getParent());
+        }
+
+        @Test
+        @DisplayName("В транзакции файлы удаляются только после коммита")
+        void deletesFilesAfterCommit() {
+            // Arrange
+            TransactionSynchronizationManager.initSynchronization();
+
+            // Act
+            productBatchService.deleteProductBatch(1L);
+
+            // Assert
+            assertTrue(Files.exists(boxLabel), "До коммита этикетка коробки на месте");
+            assertTrue(Files.exists(batchPdf), "До коммита PDF партии на месте");
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            assertFalse(Files.exists(boxLabel), "После коммита этикетка коробки удалена");
+            assertFalse(Files.exists(batchPdf), "После коммита PDF партии удалён");
+        }
+
+        @Test
+        @DisplayName("При откате транзакции файлы остаются")
+        void keepsFilesOnRollback() {
+            // Arrange
+            TransactionSynchronizationManager.initSynchronization();
+
+            // Act
+            productBatchService.deleteProductBatch(1L);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+            // Assert
+            assertTrue(Files.exists(boxLabel), "Этикетка коробки не удалена");
+            assertTrue(Files.exists(batchPdf), "PDF партии не удалён");
+        }
+
+        @Test
+        @DisplayName("Вне транзакции файлы удаляются сразу")
+        void deletesFilesImmediatelyWithoutTransaction() {
+            // Act
+            productBatchService.deleteProductBatch(1L);
+
+            // Assert
+            assertFalse(Files.exists(boxLabel));
+            assertFalse(Files.exists(batchPdf));
+            verify(productBatchRepository).deleteById(1L);
+        }
     }
-} 
\ No newline at end of file
+}
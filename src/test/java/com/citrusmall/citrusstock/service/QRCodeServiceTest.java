@@ -0,0 +1,278 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.model.Box;
+import com.citrusmall.citrusstock.model.Product;
+import com.citrusmall.citrusstock.model.ProductBatch;
+import com.citrusmall.citrusstock.repository.BoxRepository;
+import com.citrusmall.citrusstock.util.codegen.CachingQRCodeGenerator;
+import com.citrusmall.citrusstock.util.codegen.CodeGeneratorFactory;
+import com.citrusmall.citrusstock.util.codegen.LabelFontProvider;
+import com.citrusmall.citrusstock.util.codegen.QRCodeGenerator;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+@DisplayName("Тесты QRCodeService")
+class QRCodeServiceTest {
+
+    private static final long PRODUCT_ID = 9_008_001L;
+    private static final long BATCH_ID = 8L;
+
+    /**
+     * Менеджер транзакций без базы данных: TransactionTemplate только вызывает callback.
+     */
+    private static class StubTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+
+    @Mock
+    private BoxRepository boxRepository;
+
+    private QRCodeService qrCodeService;
+    private LabelRenderingEngine labelRenderingEngine;
+    private LabelRenderingBulkhead labelRenderingBulkhead;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        when(boxRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        CachingQRCodeGenerator qrCodeGenerator = new CachingQRCodeGenerator();
+        ReflectionTestUtils.setField(qrCodeGenerator, "delegate", new QRCodeGenerator());
+        CodeGeneratorFactory codeGeneratorFactory = new CodeGeneratorFactory();
+        ReflectionTestUtils.setField(codeGeneratorFactory, "qrCodeGenerator", qrCodeGenerator);
+
+        LabelFontProvider labelFontProvider = new LabelFontProvider();
+        ReflectionTestUtils.invokeMethod(labelFontProvider, "init");
+
+        labelRenderingEngine = new LabelRenderingEngine();
+        ReflectionTestUtils.setField(labelRenderingEngine, "renderThreads", 2);
+        ReflectionTestUtils.setField(labelRenderingEngine, "queueCapacity", 16);
+        labelRenderingEngine.start();
+
+        labelRenderingBulkhead = new LabelRenderingBulkhead();
+        ReflectionTestUtils.setField(labelRenderingBulkhead, "maxConcurrentJobs", 2);
+        ReflectionTestUtils.setField(labelRenderingBulkhead, "maxQueuedJobs", 4);
+        ReflectionTestUtils.setField(labelRenderingBulkhead, "queueTimeoutMillis", 5_000L);
+        ReflectionTestUtils.invokeMethod(labelRenderingBulkhead, "init");
+
+        // Синхронная запись: файлы этикеток на диске сразу после рендеринга
+        LabelFileWriter labelFileWriter = new LabelFileWriter();
+        ReflectionTestUtils.setField(labelFileWriter, "async", false);
+
+        qrCodeService = new QRCodeService();
+        ReflectionTestUtils.setField(qrCodeService, "boxRepository", boxRepository);
+        ReflectionTestUtils.setField(qrCodeService, "codeGeneratorFactory", codeGeneratorFactory);
+        ReflectionTestUtils.setField(qrCodeService, "labelRenderingEngine", labelRenderingEngine);
+        ReflectionTestUtils.setField(qrCodeService, "labelFontProvider", labelFontProvider);
+        ReflectionTestUtils.setField(qrCodeService, "labelFileWriter", labelFileWriter);
+        ReflectionTestUtils.setField(qrCodeService, "labelRenderingBulkhead", labelRenderingBulkhead);
+        ReflectionTestUtils.setField(qrCodeService, "transactionManager", new StubTransactionManager());
+        // Порции меньше партии: документ собирается из нескольких порций рендеринга
+        ReflectionTestUtils.setField(qrCodeService, "streamChunkSize", 2);
+        ReflectionTestUtils.setField(qrCodeService, "defaultLayout", "a4");
+        ReflectionTestUtils.setField(qrCodeService, "asyncRequestTimeoutMillis", 60_000L);
+        ReflectionTestUtils.invokeMethod(qrCodeService, "init");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        labelRenderingEngine.stop();
+        ReflectionTestUtils.invokeMethod(labelRenderingBulkhead, "stop");
+        Path productFolder = Paths.get("qr/codes/product_" + PRODUCT_ID);
+        if (Files.exists(productFolder)) {
+            try (Stream<Path> files = Files.walk(productFolder)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Партия из count коробок с ID 1..count.
+     */
+    private List<Box> givenBatchWithBoxes(int count) {
+        Product product = new Product();
+        product.setId(PRODUCT_ID);
+        product.setName("Апельсины");
+        ProductBatch batch = new ProductBatch();
+        batch.setId(BATCH_ID);
+        batch.setProduct(product);
+        batch.setReceivedAt(LocalDateTime.of(2026, 3, 1, 9, 0));
+        batch.setGeneratedBoxes(count);
+        List<Box> boxes = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            Box box = new Box();
+            box.setId(id);
+            box.setProductBatch(batch);
+            boxes.add(box);
+        }
+        when(boxRepository.findForLabelsByProductBatchId(BATCH_ID)).thenReturn(boxes);
+        return boxes;
+    }
+
+    private static byte[] write(StreamingResponseBody body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Nested
+    @DisplayName("Тесты потокового PDF партии")
+    class StreamPdfTests {
+
+        @Test
+        @DisplayName("Этикетки партии пишутся в один документ, по странице на коробку в раскладке A4")
+        void writesSingleDocument() throws Exception {
+            // Arrange
+            givenBatchWithBoxes(5);
+            List<Integer> progress = new ArrayList<>();
+
+            // Act
+            byte[] pdf = write(qrCodeService.streamPdfForBatch(BATCH_ID, null,
+                    (done, total) -> progress.add(done)).get());
+
+            // Assert
+            try (PDDocument document = PDDocument.load(pdf)) {
+                assertEquals(5, document.getNumberOfPages(), "Одна страница на коробку");
+            }
+            assertEquals(List.of(2, 4, 5), progress, "Прогресс сообщается после каждой порции");
+        }
+
+        @Test
+        @DisplayName("Раскладка 3x8 размещает 24 этикетки на листе")
+        void writesNUpSheets() throws Exception {
+            // Arrange
+            givenBatchWithBoxes(25);
+
+            // Act
+            byte[] pdf = write(qrCodeService.streamPdfForBatch(BATCH_ID, "a4-3x8").get());
+
+            // Assert
+            try (PDDocument document = PDDocument.load(pdf)) {
+                assertEquals(2, document.getNumberOfPages(), "25 этикеток занимают два листа");
+            }
+        }
+
+        @Test
+        @DisplayName("Потоковый и буферизованный PDF партии содержат одинаковые страницы")
+        void streamedMatchesBuffered() throws Exception {
+            // Arrange
+            givenBatchWithBoxes(3);
+
+            // Act
+            byte[] streamed = write(qrCodeService.streamPdfForBatch(BATCH_ID, null).get());
+            byte[] buffered = qrCodeService.generatePdfForBatch(BATCH_ID);
+
+            // Assert
+            try (PDDocument first = PDDocument.load(streamed); PDDocument second = PDDocument.load(buffered)) {
+                assertEquals(first.getNumberOfPages(), second.getNumberOfPages());
+            }
+        }
+
+        @Test
+        @DisplayName("Пустая партия отклоняется до начала ответа")
+        void rejectsEmptyBatch() {
+            // Arrange
+            when(boxRepository.findForLabelsByProductBatchId(BATCH_ID)).thenReturn(List.of());
+
+            // Act & Assert
+            assertThrows(IllegalArgumentException.class, () -> qrCodeService.streamPdfForBatch(BATCH_ID, null));
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты потокового ZIP партии")
+    class StreamZipTests {
+
+        @Test
+        @DisplayName("Записи архива хранятся без сжатия с верным CRC и в порядке коробок")
+        void writesStoredEntries() throws Exception {
+            // Arrange
+            givenBatchWithBoxes(3);
+            List<Integer> progress = new ArrayList<>();
+
+            // Act
+            byte[] zip = write(qrCodeService.streamZipForBatch(BATCH_ID, (done, total) -> progress.add(done)).get());
+
+            // Assert
+            List<String> names = new ArrayList<>();
+            try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip))) {
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    byte[] content = zis.readAllBytes();
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    names.add(entry.getName());
+                    assertEquals(ZipEntry.STORED, entry.getMethod(), "PDF не сжимается повторно");
+                    assertEquals(content.length, entry.getSize());
+                    assertEquals(entry.getSize(), entry.getCompressedSize());
+                    assertEquals(crc.getValue(), entry.getCrc(), "CRC записи совпадает с содержимым");
+                    try (PDDocument document = PDDocument.load(content)) {
+                        assertEquals(1, document.getNumberOfPages(), "В записи PDF одной коробки");
+                    }
+                }
+            }
+            assertEquals(List.of("qr_box_1.pdf", "qr_box_2.pdf", "qr_box_3.pdf"), names);
+            assertEquals(List.of(2, 3), progress, "Прогресс сообщается после каждой порции");
+        }
+
+        @Test
+        @DisplayName("Повторная выгрузка берёт этикетки из файлового кэша и даёт тот же архив")
+        void reusesStoredLabels() throws Exception {
+            // Arrange
+            givenBatchWithBoxes(2);
+            byte[] first = write(qrCodeService.streamZipForBatch(BATCH_ID).get());
+
+            // Act
+            byte[] second = qrCodeService.generateAndStoreQRCodesZipForBatch(BATCH_ID);
+
+            // Assert
+            assertArrayEquals(first, second, "Архив собран из сохранённых этикеток без изменений");
+        }
+    }
+}
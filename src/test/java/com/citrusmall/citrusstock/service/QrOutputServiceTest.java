@@ -0,0 +1,319 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.exception.RenderingCapacityExceededException;
+import com.citrusmall.citrusstock.strategy.QrOutputStrategy;
+import com.citrusmall.citrusstock.strategy.QrOutputStrategyFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты QrOutputService")
+class QrOutputServiceTest {
+
+    // Больше буфера спула, чтобы первая порция сразу попала в файл
+    private static final int FIRST_PART = 70 * 1024;
+    private static final int SECOND_PART = 10 * 1024;
+
+    private QrOutputService service;
+    private Path spoolDir;
+    private final AtomicInteger renders = new AtomicInteger();
+    private Supplier<CompletableFuture<StreamingResponseBody>> renderer;
+
+    private static byte[] part(int length, int fill) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) fill);
+        return bytes;
+    }
+
+    private static byte[] output() {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.writeBytes(part(FIRST_PART, 1));
+        expected.writeBytes(part(SECOND_PART, 2));
+        return expected.toByteArray();
+    }
+
+    /**
+     * Тело, которое пишет первую порцию, ждёт разрешения и дописывает вторую.
+     */
+    private static StreamingResponseBody gatedBody(CountDownLatch gate) {
+        return outputStream -> {
+            outputStream.write(part(FIRST_PART, 1));
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            outputStream.write(part(SECOND_PART, 2));
+        };
+    }
+
+    private static byte[] write(StreamingResponseBody body) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        body.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private List<Path> spoolFiles() throws IOException {
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            return files.toList();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        renders.set(0);
+        renderer = () -> CompletableFuture.completedFuture(outputStream -> outputStream.write(output()));
+        QrOutputStrategy strategy = new QrOutputStrategy() {
+            @Override
+            public byte[] generateOutput(Long batchId) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<StreamingResponseBody> streamOutput(Long batchId, String layout) {
+                renders.incrementAndGet();
+                return renderer.get();
+            }
+
+            @Override
+            public String getContentType() {
+                return "application/pdf";
+            }
+
+            @Override
+            public String getContentDisposition(Long batchId) {
+                return "attachment; filename=batch.pdf";
+            }
+        };
+        QrOutputStrategyFactory strategyFactory = new QrOutputStrategyFactory();
+        ReflectionTestUtils.setField(strategyFactory, "strategies", Map.of("pdf", strategy));
+
+        spoolDir = Files.createTempDirectory("spool");
+        service = new QrOutputService();
+        ReflectionTestUtils.setField(service, "strategyFactory", strategyFactory);
+        ReflectionTestUtils.setField(service, "coalescingEnabled", true);
+        ReflectionTestUtils.setField(service, "resultTtlSeconds", 10L);
+        ReflectionTestUtils.setField(service, "maxResults", 16);
+        ReflectionTestUtils.setField(service, "spoolDir", spoolDir.toString());
+        ReflectionTestUtils.setField(service, "waitTimeoutMillis", 5_000L);
+        ReflectionTestUtils.setField(service, "renderThreads", 2);
+        service.init();
+    }
+
+    @Nested
+    @DisplayName("Тесты объединения выгрузок")
+    class CoalescingTests {
+
+        @Test
+        @DisplayName("Одновременные запросы одной выгрузки разделяют один рендеринг")
+        void concurrentRequestsShareRender() throws Exception {
+            // Act
+            StreamingResponseBody first = service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS);
+            StreamingResponseBody second = service.streamOutput(7L, "PDF", "").get(5, TimeUnit.SECONDS);
+
+            // Assert
+            assertArrayEquals(output(), write(first));
+            assertArrayEquals(output(), write(second));
+            assertEquals(1, renders.get(), "Выгрузка рендерится один раз");
+            assertEquals(1, service.getStats().getHits());
+            assertEquals(1, service.getStats().getMisses());
+        }
+
+        @Test
+        @DisplayName("Ответ получает записанную часть выгрузки до окончания рендеринга")
+        void streamsBeforeRenderCompletes() throws Exception {
+            // Arrange
+            CountDownLatch gate = new CountDownLatch(1);
+            renderer = () -> CompletableFuture.completedFuture(gatedBody(gate));
+            CountDownLatch firstPartReceived = new CountDownLatch(1);
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            OutputStream response = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    received.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    received.write(b, off, len);
+                }
+
+                @Override
+                public void flush() {
+                    if (received.size() >= FIRST_PART) {
+                        firstPartReceived.countDown();
+                    }
+                }
+            };
+
+            // Act
+            StreamingResponseBody body = service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS);
+            CompletableFuture<Void> reader = CompletableFuture.runAsync(() -> {
+                try {
+                    body.writeTo(response);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            // Assert
+            assertTrue(firstPartReceived.await(5, TimeUnit.SECONDS), "Первая порция передана, пока рендеринг ждёт");
+            assertFalse(reader.isDone(), "Ответ ещё не завершён");
+            gate.countDown();
+            reader.get(5, TimeUnit.SECONDS);
+            assertArrayEquals(output(), received.toByteArray());
+        }
+
+        @Test
+        @DisplayName("Ошибка занятия места в bulkhead передаётся всем присоединившимся запросам")
+        void capacityErrorReachesAllJoinedRequests() throws Exception {
+            // Arrange
+            CompletableFuture<StreamingResponseBody> admission = new CompletableFuture<>();
+            renderer = () -> admission;
+
+            // Act
+            CompletableFuture<StreamingResponseBody> first = service.streamOutput(7L, "pdf", null);
+            CompletableFuture<StreamingResponseBody> second = service.streamOutput(7L, "pdf", null);
+            admission.completeExceptionally(new RenderingCapacityExceededException("Label rendering queue is full", 10));
+
+            // Assert
+            for (CompletableFuture<StreamingResponseBody> response : List.of(first, second)) {
+                ExecutionException error = assertThrows(ExecutionException.class, response::get);
+                assertTrue(error.getCause() instanceof RenderingCapacityExceededException, "Клиент получает 429");
+            }
+            renderer = () -> CompletableFuture.completedFuture(outputStream -> outputStream.write(output()));
+            assertArrayEquals(output(), write(service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS)));
+            assertEquals(2, renders.get(), "Неудачная выгрузка не переиспользуется");
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты вытеснения выгрузок")
+    class EvictionTests {
+
+        @Test
+        @DisplayName("Выгрузка в работе не вытесняется даже после истечения TTL")
+        void renderingOutputIsNotEvicted() throws Exception {
+            // Arrange
+            ReflectionTestUtils.setField(service, "resultTtlSeconds", 0L);
+            CountDownLatch gate = new CountDownLatch(1);
+            renderer = () -> CompletableFuture.completedFuture(gatedBody(gate));
+            StreamingResponseBody first = service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS);
+
+            // Act
+            StreamingResponseBody second = service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS);
+            gate.countDown();
+
+            // Assert
+            assertArrayEquals(output(), write(first));
+            assertArrayEquals(output(), write(second));
+            assertEquals(1, renders.get(), "Повторный запрос присоединился к рендерингу в работе");
+            assertEquals(0, service.getStats().getEvictions());
+        }
+
+        @Test
+        @DisplayName("Файл вытесненной выгрузки удаляется только после последнего читателя")
+        void fileIsDeletedAfterLastReader() throws Exception {
+            // Arrange
+            StreamingResponseBody body = service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS);
+            CountDownLatch readerStarted = new CountDownLatch(1);
+            CountDownLatch resume = new CountDownLatch(1);
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            OutputStream slowResponse = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    received.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    readerStarted.countDown();
+                    try {
+                        resume.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    received.write(b, off, len);
+                }
+            };
+            CompletableFuture<Void> reader = CompletableFuture.runAsync(() -> {
+                try {
+                    body.writeTo(slowResponse);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertTrue(readerStarted.await(5, TimeUnit.SECONDS));
+            ReflectionTestUtils.setField(service, "resultTtlSeconds", 0L);
+
+            // Act: следующий запрос вытесняет завершённую выгрузку и рендерит заново
+            StreamingResponseBody next = service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS);
+
+            // Assert
+            assertEquals(1, service.getStats().getEvictions());
+            assertEquals(2, spoolFiles().size(), "Файл читаемой выгрузки не удалён");
+            resume.countDown();
+            reader.get(5, TimeUnit.SECONDS);
+            assertArrayEquals(output(), received.toByteArray(), "Читатель получил выгрузку целиком");
+            assertArrayEquals(output(), write(next));
+            assertEquals(1, spoolFiles().size(), "После последнего читателя файл удалён");
+        }
+
+        @Test
+        @DisplayName("Тело, не начавшее передачу до вытеснения, рендерит выгрузку заново")
+        void evictedBeforeTransferRendersSeparately() throws Exception {
+            // Arrange
+            StreamingResponseBody body = service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS);
+            write(service.streamOutput(7L, "pdf", null).get(5, TimeUnit.SECONDS));
+            ReflectionTestUtils.setField(service, "resultTtlSeconds", 0L);
+            service.streamOutput(8L, "pdf", null).get(5, TimeUnit.SECONDS);
+
+            // Act
+            byte[] written = write(body);
+
+            // Assert
+            assertArrayEquals(output(), written);
+            assertEquals(3, renders.get(), "Партия 7 отрендерена повторно");
+            assertEquals(1, spoolFiles().size(), "Файл вытесненной выгрузки удалён");
+        }
+
+        @Test
+        @DisplayName("Сверх лимита вытесняются самые старые завершённые выгрузки")
+        void evictsOldestOverLimit() throws Exception {
+            // Arrange
+            ReflectionTestUtils.setField(service, "maxResults", 2);
+            for (long batchId = 1; batchId <= 3; batchId++) {
+                write(service.streamOutput(batchId, "pdf", null).get(5, TimeUnit.SECONDS));
+            }
+
+            // Act
+            write(service.streamOutput(4L, "pdf", null).get(5, TimeUnit.SECONDS));
+            write(service.streamOutput(3L, "pdf", null).get(5, TimeUnit.SECONDS));
+
+            // Assert
+            assertEquals(2, service.getStats().getEvictions(), "Вытеснены партии 1 и 2");
+            assertEquals(4, renders.get(), "Партия 3 взята из общего результата");
+        }
+    }
+}
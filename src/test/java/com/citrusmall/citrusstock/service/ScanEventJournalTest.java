@@ -0,0 +1,333 @@
+package com.citrusmall.citrusstock.service;
+
+import com.citrusmall.citrusstock.model.Box;
+import com.citrusmall.citrusstock.model.ScanEvent;
+import com.citrusmall.citrusstock.model.User;
+import com.citrusmall.citrusstock.model.enums.ScanMode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты ScanEventJournal")
+class ScanEventJournalTest {
+
+    /**
+     * Пакетная вставка в scan_events: запоминает пакеты и эмулирует ON CONFLICT (event_id) DO NOTHING.
+     */
+    private static class RecordingJdbcTemplate extends JdbcTemplate {
+        private final List<List<ScanEventJournal.Entry>> batches = new CopyOnWriteArrayList<>();
+        private final Set<UUID> stored = ConcurrentHashMap.newKeySet();
+        private final Set<Long> rejectedBoxIds = ConcurrentHashMap.newKeySet();
+        private volatile String lastSql;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                       ParameterizedPreparedStatementSetter<T> pss) {
+            lastSql = sql;
+            List<ScanEventJournal.Entry> entries = new ArrayList<>((Collection<ScanEventJournal.Entry>) batchArgs);
+            batches.add(entries);
+            if (entries.stream().anyMatch(entry -> rejectedBoxIds.contains(entry.boxId()))) {
+                throw new DataIntegrityViolationException("insert or update on table \"scan_events\" violates foreign key");
+            }
+            entries.forEach(entry -> stored.add(entry.eventId()));
+            return new int[0][];
+        }
+    }
+
+    /**
+     * Менеджер транзакций без ресурсов: нужен только для синхронизаций транзакции.
+     */
+    private static class StubTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+
+    private RecordingJdbcTemplate jdbcTemplate;
+    private StubTransactionManager transactionManager;
+    private Path journalDir;
+    private Path journalFile;
+    private ScanEventJournal journal;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        jdbcTemplate = new RecordingJdbcTemplate();
+        transactionManager = new StubTransactionManager();
+        journalDir = Files.createTempDirectory("scan-journal");
+        journalFile = journalDir.resolve("scan-events.journal");
+        journal = newJournal(3, 60_000L);
+    }
+
+    private ScanEventJournal newJournal(int batchSize, long flushIntervalMs) throws IOException {
+        ScanEventJournal journal = new ScanEventJournal();
+        ReflectionTestUtils.setField(journal, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(journal, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "capacity", 100);
+        ReflectionTestUtils.setField(journal, "batchSize", batchSize);
+        ReflectionTestUtils.setField(journal, "flushIntervalMs", flushIntervalMs);
+        ReflectionTestUtils.setField(journal, "offerTimeoutMs", 1_000L);
+        ReflectionTestUtils.setField(journal, "journalFile", journalFile.toString());
+        ReflectionTestUtils.setField(journal, "fsync", false);
+        journal.start();
+        return journal;
+    }
+
+    private static List<ScanEvent> events(long... boxIds) {
+        User user = new User();
+        user.setId(5L);
+        return LongStream.of(boxIds).mapToObj(boxId -> {
+            Box box = new Box();
+            box.setId(boxId);
+            ScanEvent event = new ScanEvent();
+            event.setBox(box);
+            event.setUser(user);
+            event.setScanMode(ScanMode.ON_WAREHOUSE);
+            event.setScanTime(LocalDateTime.of(2026, 10, 17, 12, 0));
+            return event;
+        }).toList();
+    }
+
+    private void awaitFlushed(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (journal.getFlushedEvents() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private List<String> journalLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (Stream<Path> files = Files.list(journalDir)) {
+            for (Path file : files.sorted().toList()) {
+                if (!file.getFileName().toString().endsWith(".rejected")) {
+                    lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return lines;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".flushing")).toList();
+        }
+    }
+
+    /**
+     * Выполняет record в транзакции; afterRecord регистрирует синхронизацию после журнала.
+     */
+    private void recordInTransaction(List<ScanEvent> events, TransactionSynchronization afterRecord) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            journal.record(events);
+            if (afterRecord != null) {
+                TransactionSynchronizationManager.registerSynchronization(afterRecord);
+            }
+        });
+    }
+
+    @Nested
+    @DisplayName("Тесты сброса в БД")
+    class FlushTests {
+
+        @Test
+        @DisplayName("Набравшийся пакет batch-size сбрасывается сразу, не дожидаясь таймера")
+        void flushesOnBatchSize() throws Exception {
+            // Act
+            journal.record(events(1, 2, 3));
+            awaitFlushed(3);
+
+            // Assert
+            assertEquals(1, jdbcTemplate.batches.size(), "Один пакет");
+            assertEquals(3, jdbcTemplate.batches.get(0).size());
+            assertEquals(3, jdbcTemplate.stored.size());
+        }
+
+        @Test
+        @DisplayName("Неполный пакет сбрасывается по таймеру flush-interval-ms")
+        void flushesOnTimer() throws Exception {
+            // Arrange
+            journal = newJournal(100, 50L);
+
+            // Act
+            journal.record(events(1));
+            awaitFlushed(1);
+
+            // Assert
+            assertEquals(1, jdbcTemplate.stored.size(), "Событие записано по таймеру");
+            assertEquals(1L, journal.getFlushedEvents());
+        }
+
+        @Test
+        @DisplayName("Отвергнутый БД пакет повторяется по одному событию, отбрасывается только виновное")
+        void retriesRejectedBatchPerEvent() throws Exception {
+            // Arrange
+            journal = newJournal(10, 60_000L);
+            jdbcTemplate.rejectedBoxIds.add(2L);
+            journal.record(events(1, 2, 3));
+
+            // Act
+            int written = journal.flush();
+
+            // Assert
+            assertEquals(2, written);
+            assertEquals(1 + 3, jdbcTemplate.batches.size(), "Пакет и три повтора по одному");
+            assertEquals(2, jdbcTemplate.stored.size());
+            List<String> rejected = Files.readAllLines(journalDir.resolve("scan-events.journal.rejected"));
+            assertEquals(1, rejected.size(), "Отвергнутое событие отложено для разбора");
+            assertEquals(2L, ScanEventJournal.Entry.parse(rejected.get(0)).boxId());
+            assertTrue(segments().isEmpty(), "Сегмент удалён после сброса");
+        }
+
+        @Test
+        @DisplayName("Вставка пропускает события, которые уже есть в БД")
+        void insertSkipsExistingEventIds() {
+            // Act
+            journal.record(events(1));
+            journal.flush();
+
+            // Assert
+            assertTrue(jdbcTemplate.lastSql.contains("ON CONFLICT (event_id) DO NOTHING"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты файла журнала")
+    class JournalFileTests {
+
+        @Test
+        @DisplayName("События пишутся в файл до коммита, а в очередь — после")
+        void writesJournalBeforeCommit() throws Exception {
+            // Arrange
+            AtomicReference<List<String>> linesBeforeCommit = new AtomicReference<>();
+            AtomicInteger queueBeforeCommit = new AtomicInteger(-1);
+
+            // Act
+            recordInTransaction(events(1, 2), new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    try {
+                        linesBeforeCommit.set(journalLines());
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    queueBeforeCommit.set(journal.getQueueDepth());
+                }
+            });
+
+            // Assert
+            assertEquals(2, linesBeforeCommit.get().size(), "До коммита события уже в файле");
+            assertEquals(0, queueBeforeCommit.get(), "До коммита очередь пуста");
+            assertEquals(2, journal.getQueueDepth(), "После коммита события в очереди");
+        }
+
+        @Test
+        @DisplayName("При откате после записи в файл события отменяются и не восстанавливаются")
+        void rollbackCancelsJournaledEvents() throws Exception {
+            // Act
+            assertThrows(IllegalStateException.class, () -> recordInTransaction(events(1, 2),
+                    new TransactionSynchronization() {
+                        @Override
+                        public void beforeCommit(boolean readOnly) {
+                            throw new IllegalStateException("Коммит не удался");
+                        }
+                    }));
+
+            // Assert
+            assertEquals(0, journal.getQueueDepth());
+            assertEquals(2, journalLines().stream().filter(line -> line.startsWith("CANCEL;")).count());
+            ScanEventJournal restarted = newJournal(3, 60_000L);
+            assertEquals(0, restarted.flush(), "Отменённые события не вставляются при восстановлении");
+            assertTrue(jdbcTemplate.stored.isEmpty());
+        }
+
+        @Test
+        @DisplayName("Несброшенный сегмент восстанавливается при старте с теми же event_id")
+        void recoversUnflushedSegment() throws Exception {
+            // Arrange: события в файле, процесс упал до сброса
+            journal.record(events(1, 2));
+            List<UUID> journaled = journalLines().stream()
+                    .map(line -> ScanEventJournal.Entry.parse(line).eventId())
+                    .toList();
+
+            // Act
+            ScanEventJournal restarted = newJournal(3, 60_000L);
+            int written = restarted.flush();
+
+            // Assert
+            assertEquals(2, written);
+            assertEquals(Set.copyOf(journaled), jdbcTemplate.stored, "Повторная вставка идёт с прежними event_id");
+            assertTrue(segments().isEmpty(), "Восстановленный сегмент удалён после сброса");
+            assertFalse(Files.exists(journalFile));
+        }
+
+        @Test
+        @DisplayName("Сегмент с событиями незавершённой транзакции не удаляется, пока они не записаны")
+        void keepsSegmentWithInFlightEvents() throws Exception {
+            // Arrange
+            AtomicReference<List<Path>> segmentsDuringCommit = new AtomicReference<>();
+
+            // Act: сброс между записью в файл и коммитом
+            recordInTransaction(events(1, 2), new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    journal.flush();
+                    try {
+                        segmentsDuringCommit.set(segments());
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+
+            // Assert
+            assertEquals(1, segmentsDuringCommit.get().size(), "Сегмент с событиями в работе сохранён");
+            assertEquals(2, journal.flush());
+            assertEquals(2, jdbcTemplate.stored.size());
+            assertTrue(segments().isEmpty(), "После записи событий сегмент удалён");
+        }
+    }
+}
@@ -1,10 +1,11 @@
 package com.citrusmall.citrusstock.service;
 
+import com.citrusmall.citrusstock.dto.BulkScanResponse;
 import com.citrusmall.citrusstock.model.*;
 import com.citrusmall.citrusstock.model.enums.GoodsStatus;
 import com.citrusmall.citrusstock.model.enums.ScanMode;
 import com.citrusmall.citrusstock.repository.*;
-import com.citrusmall.citrusstock.util.codegen.CodeGeneratorFactory;
+import com.citrusmall.citrusstock.util.QRCodeContentBuilder;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -14,11 +15,17 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 
@@ -29,20 +36,14 @@ class ScanServiceTest {
     private BoxRepository boxRepository;
 
     @Mock
-    private ScanEventRepository scanEventRepository;
+    private ScanEventJournal scanEventJournal;
 
     @Mock
-    private UserRepository userRepository;
+    private ReferenceDataCache referenceDataCache;
 
     @Mock
     private ProductBatchService productBatchService;
 
-    @Mock
-    private ZoneRepository zoneRepository;
-
-    @Mock
-    private CodeGeneratorFactory codeGeneratorFactory;
-
     @InjectMocks
     private ScanService scanService;
 
@@ -87,18 +88,17 @@ class ScanServiceTest {
             GoodsStatus newBatchStatus = GoodsStatus.SCANNED; // Для обратной совместимости
             GoodsStatus newBoxStatus = GoodsStatus.SCANNED;
 
-            when(boxRepository.findById(boxId)).thenReturn(Optional.of(box));
-            when(userRepository.findById(userId)).thenReturn(Optional.of(user));
-            when(zoneRepository.findByName(targetZoneName)).thenReturn(Optional.of(zone));
+            when(boxRepository.findByIdForUpdate(boxId)).thenReturn(Optional.of(box));
+            when(referenceDataCache.findUserById(userId)).thenReturn(Optional.of(user));
+            when(referenceDataCache.findZoneByName(targetZoneName)).thenReturn(Optional.of(zone));
             when(boxRepository.save(any(Box.class))).thenReturn(box);
-            when(scanEventRepository.save(any(ScanEvent.class))).thenReturn(new ScanEvent());
 
             // Act
             scanService.scanBox(boxId, userId, targetZoneName, newBatchStatus, newBoxStatus);
 
             // Assert
             // Проверяем, что метод ищет коробку по ID
-            verify(boxRepository).findById(boxId);
+            verify(boxRepository).findByIdForUpdate(boxId);
             
             // Проверяем, что статус коробки обновлен
             assertEquals(GoodsStatus.SCANNED, box.getStatus());
@@ -106,14 +106,87 @@ class ScanServiceTest {
             verify(box).setScannedBy(user);
             verify(boxRepository).save(box);
             
-            // Проверяем, что создано событие сканирования
-            verify(scanEventRepository).save(any(ScanEvent.class));
+            // Проверяем, что событие сканирования передано в журнал
+            verify(scanEventJournal).record(anyList());
             
             // Проверяем, что вызван метод обновления статуса партии с правильными параметрами
             verify(productBatchService).updateBatchStatusBasedOnBoxes(productBatch.getId(), zone);
         }
     }
 
+    @Nested
+    @DisplayName("Тесты метода scanBoxesBulk")
+    class ScanBoxesBulkTests {
+
+        @Test
+        @DisplayName("Пакетное сканирование загружает коробки одним запросом и пересчитывает партию один раз")
+        void scanBoxesBulk_loadsBoxesOnceAndUpdatesEachBatchOnce() throws Exception {
+            // Arrange
+            Box secondBox = new Box();
+            secondBox.setId(2L);
+            secondBox.setProductBatch(productBatch);
+            secondBox.setStatus(GoodsStatus.GENERATED);
+            box.setCode("existing");
+            secondBox.setCode("existing");
+
+            when(boxRepository.findAllWithProductBatchByIdInForUpdate(any())).thenReturn(Arrays.asList(box, secondBox));
+            when(referenceDataCache.findUserById(1L)).thenReturn(Optional.of(user));
+            when(referenceDataCache.findZoneByName("RECEIVING")).thenReturn(Optional.of(zone));
+
+            // Act
+            BulkScanResponse response = scanService.scanBoxesBulk(Arrays.asList(1L, 2L, 2L), 1L, ScanMode.ON_WAREHOUSE);
+
+            // Assert
+            assertEquals(2, response.getScannedBoxes());
+            assertEquals(List.of(productBatch.getId()), response.getAffectedBatchIds());
+            assertEquals(GoodsStatus.SCANNED, box.getStatus());
+            assertEquals(GoodsStatus.SCANNED, secondBox.getStatus());
+            verify(boxRepository).saveAll(anyList());
+            verify(scanEventJournal, times(1)).record(argThat(events -> events.size() == 2));
+            verify(productBatchService, times(1)).updateBatchStatusBasedOnBoxes(productBatch.getId(), zone);
+        }
+
+        @Test
+        @DisplayName("Коробке без кода компактный payload выставляется в той же транзакции, существующий код не меняется")
+        void scanBoxesBulk_setsMissingPayloadInline() throws Exception {
+            // Arrange
+            Product product = new Product();
+            product.setId(7L);
+            product.setName("Апельсины");
+            productBatch.setProduct(product);
+            productBatch.setGeneratedBoxes(2);
+            Box secondBox = new Box();
+            secondBox.setId(2L);
+            secondBox.setProductBatch(productBatch);
+            secondBox.setStatus(GoodsStatus.GENERATED);
+            secondBox.setCode("existing");
+
+            when(boxRepository.findAllWithProductBatchByIdInForUpdate(any())).thenReturn(Arrays.asList(box, secondBox));
+            when(referenceDataCache.findUserById(1L)).thenReturn(Optional.of(user));
+            when(referenceDataCache.findZoneByName("RECEIVING")).thenReturn(Optional.of(zone));
+
+            // Act
+            scanService.scanBoxesBulk(Arrays.asList(1L, 2L), 1L, ScanMode.ON_WAREHOUSE);
+
+            // Assert
+            assertEquals(QRCodeContentBuilder.buildContent(box), box.getCode(), "Payload построен по данным коробки");
+            assertEquals("existing", secondBox.getCode(), "Существующий код не перезаписывается");
+            verify(boxRepository).saveAll(anyList());
+        }
+
+        @Test
+        @DisplayName("Выбрасывает исключение, если часть коробок не найдена")
+        void scanBoxesBulk_throwsWhenSomeBoxesAreMissing() {
+            // Arrange
+            when(boxRepository.findAllWithProductBatchByIdInForUpdate(any())).thenReturn(Collections.singletonList(box));
+
+            // Act & Assert
+            assertThrows(IllegalArgumentException.class,
+                    () -> scanService.scanBoxesBulk(Arrays.asList(1L, 99L), 1L, ScanMode.SHIPMENT));
+            verify(productBatchService, never()).updateBatchStatusBasedOnBoxes(anyLong(), any(Zone.class));
+        }
+    }
+
     @Nested
     @DisplayName("Тесты специализированных методов сканирования")
     class SpecializedScanMethodsTests {
@@ -0,0 +1,148 @@
+package com.citrusmall.citrusstock.util.cache;
+
+import com.citrusmall.citrusstock.dto.CacheStats;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты BoundedTtlCache")
+class BoundedTtlCacheTest {
+
+    private static final Duration LONG_TTL = Duration.ofMinutes(5);
+
+    /**
+     * Загружает значение "v-<ключ>" и считает вызовы.
+     */
+    private static Optional<String> load(AtomicInteger loads, String key) {
+        loads.incrementAndGet();
+        return Optional.of("v-" + key);
+    }
+
+    @Nested
+    @DisplayName("Тесты попаданий и промахов")
+    class HitMissTests {
+
+        @Test
+        @DisplayName("Повторное обращение обслуживается из кэша без загрузчика")
+        void secondGetIsHit() {
+            // Arrange
+            BoundedTtlCache<String, String> cache = new BoundedTtlCache<>("test", 10, LONG_TTL);
+            AtomicInteger loads = new AtomicInteger();
+
+            // Act
+            Optional<String> first = cache.get("a", key -> load(loads, key));
+            Optional<String> second = cache.get("a", key -> load(loads, key));
+
+            // Assert
+            assertEquals(Optional.of("v-a"), first);
+            assertEquals(Optional.of("v-a"), second);
+            assertEquals(1, loads.get(), "Загрузчик вызывается только при промахе");
+            CacheStats stats = cache.getStats();
+            assertEquals(1, stats.getHits());
+            assertEquals(1, stats.getMisses());
+            assertEquals(1, stats.getSize());
+        }
+
+        @Test
+        @DisplayName("Отсутствующее значение не кэшируется")
+        void emptyValueIsNotCached() {
+            // Arrange
+            BoundedTtlCache<String, String> cache = new BoundedTtlCache<>("test", 10, LONG_TTL);
+            AtomicInteger loads = new AtomicInteger();
+
+            // Act
+            for (int i = 0; i < 2; i++) {
+                cache.get("missing", key -> {
+                    loads.incrementAndGet();
+                    return Optional.empty();
+                });
+            }
+
+            // Assert
+            assertEquals(2, loads.get(), "Пустой результат загружается каждый раз");
+            assertEquals(0, cache.getStats().getSize());
+        }
+
+        @Test
+        @DisplayName("invalidate удаляет одну запись, invalidateAll — все")
+        void invalidatesEntries() {
+            // Arrange
+            BoundedTtlCache<String, String> cache = new BoundedTtlCache<>("test", 10, LONG_TTL);
+            AtomicInteger loads = new AtomicInteger();
+            cache.get("a", key -> load(loads, key));
+            cache.get("b", key -> load(loads, key));
+
+            // Act
+            cache.invalidate("a");
+
+            // Assert
+            assertEquals(1, cache.getStats().getSize());
+            cache.get("a", key -> load(loads, key));
+            assertEquals(3, loads.get(), "После инвалидации значение загружается заново");
+            cache.invalidateAll();
+            assertEquals(0, cache.getStats().getSize());
+        }
+
+        @Test
+        @DisplayName("Размер кэша должен быть положительным")
+        void rejectsNonPositiveSize() {
+            assertThrows(IllegalArgumentException.class, () -> new BoundedTtlCache<String, String>("test", 0, LONG_TTL));
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты вытеснения")
+    class EvictionTests {
+
+        @Test
+        @DisplayName("Запись старше TTL загружается заново и считается вытесненной")
+        void expiredEntryIsReloaded() throws Exception {
+            // Arrange
+            BoundedTtlCache<String, String> cache = new BoundedTtlCache<>("test", 10, Duration.ofMillis(20));
+            AtomicInteger loads = new AtomicInteger();
+            cache.get("a", key -> load(loads, key));
+
+            // Act
+            Thread.sleep(40);
+            cache.get("a", key -> load(loads, key));
+
+            // Assert
+            assertEquals(2, loads.get(), "Устаревшая запись не отдаётся");
+            CacheStats stats = cache.getStats();
+            assertEquals(1, stats.getEvictions());
+            assertEquals(0, stats.getHits());
+            assertEquals(1, stats.getSize());
+        }
+
+        @Test
+        @DisplayName("При переполнении вытесняется давно не использованная запись")
+        void evictsLeastRecentlyUsedEntry() {
+            // Arrange
+            BoundedTtlCache<String, String> cache = new BoundedTtlCache<>("test", 2, LONG_TTL);
+            AtomicInteger loads = new AtomicInteger();
+            cache.get("a", key -> load(loads, key));
+            cache.get("b", key -> load(loads, key));
+            // Обращение делает "a" недавно использованной
+            cache.get("a", key -> load(loads, key));
+
+            // Act
+            cache.get("c", key -> load(loads, key));
+
+            // Assert
+            CacheStats stats = cache.getStats();
+            assertEquals(1, stats.getEvictions(), "Вытеснена одна запись");
+            assertEquals(2, stats.getSize(), "Размер не превышает ограничение");
+            loads.set(0);
+            cache.get("a", key -> load(loads, key));
+            assertEquals(0, loads.get(), "Недавно использованная запись осталась в кэше");
+            cache.get("b", key -> load(loads, key));
+            assertEquals(1, loads.get(), "Давно не использованная запись вытеснена");
+        }
+    }
+}
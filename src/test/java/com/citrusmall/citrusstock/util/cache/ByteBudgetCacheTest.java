@@ -0,0 +1,193 @@
+package com.citrusmall.citrusstock.util.cache;
+
+import com.citrusmall.citrusstock.dto.CacheStats;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты ByteBudgetCache")
+class ByteBudgetCacheTest {
+
+    // Накладные расходы на запись, которые кэш прибавляет к длине значения
+    private static final int OVERHEAD = 128;
+
+    private static byte[] value(int length, int fill) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) fill);
+        return bytes;
+    }
+
+    @Nested
+    @DisplayName("Тесты учёта объёма")
+    class AccountingTests {
+
+        @Test
+        @DisplayName("Занятый объём — сумма длин значений и накладных расходов на записи")
+        void sizeIncludesEntryOverhead() throws Exception {
+            // Arrange
+            ByteBudgetCache<String> cache = new ByteBudgetCache<>("test", 10_000, false);
+
+            // Act
+            cache.get("a", key -> value(100, 1));
+            cache.get("b", key -> value(250, 2));
+
+            // Assert
+            CacheStats stats = cache.getStats();
+            assertEquals(100 + OVERHEAD + 250 + OVERHEAD, stats.getSize(), "Учтены оба значения");
+            assertEquals(10_000, stats.getMaxSize());
+            assertEquals(0, stats.getEvictions());
+        }
+
+        @Test
+        @DisplayName("Попадание не вызывает загрузчик и не меняет занятый объём")
+        void hitDoesNotReload() throws Exception {
+            // Arrange
+            ByteBudgetCache<String> cache = new ByteBudgetCache<>("test", 10_000, false);
+            AtomicInteger loads = new AtomicInteger();
+
+            // Act
+            byte[] first = cache.get("a", key -> {
+                loads.incrementAndGet();
+                return value(64, 7);
+            });
+            long sizeAfterLoad = cache.getStats().getSize();
+            byte[] second = cache.get("a", key -> {
+                loads.incrementAndGet();
+                return value(64, 9);
+            });
+
+            // Assert
+            assertEquals(1, loads.get(), "Загрузчик вызывается только при промахе");
+            assertArrayEquals(first, second, "Из кэша возвращается загруженное значение");
+            assertEquals(sizeAfterLoad, cache.getStats().getSize());
+            assertEquals(1, cache.getStats().getHits());
+            assertEquals(1, cache.getStats().getMisses());
+        }
+
+        @Test
+        @DisplayName("Значение больше всего бюджета не кэшируется")
+        void valueLargerThanBudgetIsNotCached() throws Exception {
+            // Arrange
+            ByteBudgetCache<String> cache = new ByteBudgetCache<>("test", 1_000, false);
+            AtomicInteger loads = new AtomicInteger();
+
+            // Act
+            for (int i = 0; i < 2; i++) {
+                cache.get("big", key -> {
+                    loads.incrementAndGet();
+                    return value(1_000, 1);
+                });
+            }
+
+            // Assert
+            assertEquals(2, loads.get(), "Слишком большое значение загружается каждый раз");
+            assertEquals(0, cache.getStats().getSize());
+        }
+
+        @Test
+        @DisplayName("invalidateAll очищает кэш и обнуляет занятый объём")
+        void invalidateAllResetsSize() throws Exception {
+            // Arrange
+            ByteBudgetCache<String> cache = new ByteBudgetCache<>("test", 10_000, false);
+            cache.get("a", key -> value(100, 1));
+
+            // Act
+            cache.invalidateAll();
+
+            // Assert
+            assertEquals(0, cache.getStats().getSize());
+            AtomicInteger loads = new AtomicInteger();
+            cache.get("a", key -> {
+                loads.incrementAndGet();
+                return value(100, 1);
+            });
+            assertEquals(1, loads.get(), "После очистки значение загружается заново");
+        }
+
+        @Test
+        @DisplayName("Бюджет должен быть положительным")
+        void rejectsNonPositiveBudget() {
+            assertThrows(IllegalArgumentException.class, () -> new ByteBudgetCache<String>("test", 0, false));
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты вытеснения")
+    class EvictionTests {
+
+        @Test
+        @DisplayName("При превышении бюджета вытесняется давно не использованная запись")
+        void evictsLeastRecentlyUsedEntry() throws Exception {
+            // Arrange: бюджет вмещает ровно две записи по 100 байт
+            ByteBudgetCache<String> cache = new ByteBudgetCache<>("test", 2 * (100 + OVERHEAD), false);
+            cache.get("a", key -> value(100, 1));
+            cache.get("b", key -> value(100, 2));
+            // Обращение делает "a" недавно использованной
+            cache.get("a", key -> value(100, 1));
+
+            // Act
+            cache.get("c", key -> value(100, 3));
+
+            // Assert
+            CacheStats stats = cache.getStats();
+            assertEquals(1, stats.getEvictions(), "Вытеснена одна запись");
+            assertEquals(2 * (100 + OVERHEAD), stats.getSize(), "Объём не превышает бюджет");
+            AtomicInteger loads = new AtomicInteger();
+            cache.get("a", key -> {
+                loads.incrementAndGet();
+                return value(100, 1);
+            });
+            assertEquals(0, loads.get(), "Недавно использованная запись осталась в кэше");
+            cache.get("b", key -> {
+                loads.incrementAndGet();
+                return value(100, 2);
+            });
+            assertEquals(1, loads.get(), "Давно не использованная запись вытеснена");
+        }
+
+        @Test
+        @DisplayName("Большое значение вытесняет столько записей, сколько нужно для бюджета")
+        void evictsSeveralEntriesForLargeValue() throws Exception {
+            // Arrange
+            ByteBudgetCache<String> cache = new ByteBudgetCache<>("test", 3 * (100 + OVERHEAD), false);
+            cache.get("a", key -> value(100, 1));
+            cache.get("b", key -> value(100, 2));
+            cache.get("c", key -> value(100, 3));
+
+            // Act
+            cache.get("big", key -> value(2 * 100 + OVERHEAD, 4));
+
+            // Assert
+            CacheStats stats = cache.getStats();
+            assertEquals(2, stats.getEvictions(), "Вытеснены две старейшие записи");
+            assertEquals(100 + OVERHEAD + 2 * 100 + 2 * OVERHEAD, stats.getSize());
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты хранения вне heap")
+    class OffHeapTests {
+
+        @Test
+        @DisplayName("Попадание возвращает копию, изменение которой не портит кэш")
+        void hitReturnsIndependentCopy() throws Exception {
+            // Arrange
+            ByteBudgetCache<String> cache = new ByteBudgetCache<>("test", 10_000, true);
+            cache.get("a", key -> value(32, 5));
+
+            // Act
+            byte[] first = cache.get("a", key -> value(32, 0));
+            first[0] = 42;
+            byte[] second = cache.get("a", key -> value(32, 0));
+
+            // Assert
+            assertArrayEquals(value(32, 5), second, "Значение в кэше не изменилось");
+            assertEquals(32 + OVERHEAD, cache.getStats().getSize());
+        }
+    }
+}
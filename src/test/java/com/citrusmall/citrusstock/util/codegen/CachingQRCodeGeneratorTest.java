@@ -0,0 +1,121 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import com.citrusmall.citrusstock.dto.CacheStats;
+import com.google.zxing.common.BitMatrix;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты CachingQRCodeGenerator")
+class CachingQRCodeGeneratorTest {
+
+    private static BitMatrix checkerboard(int width, int height) {
+        BitMatrix matrix = new BitMatrix(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((x * 7 + y * 3) % 5 == 0) {
+                    matrix.set(x, y);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    @Nested
+    @DisplayName("Тесты упаковки матрицы модулей")
+    class PackTests {
+
+        @Test
+        @DisplayName("Упакованная матрица распаковывается без изменений, в том числе при ширине не кратной 8")
+        void packUnpackRoundTrip() {
+            for (int width : new int[]{1, 7, 8, 9, 21, 33}) {
+                BitMatrix matrix = checkerboard(width, 13);
+
+                BitMatrix restored = CachingQRCodeGenerator.unpack(CachingQRCodeGenerator.pack(matrix));
+
+                assertEquals(matrix, restored, "Матрица шириной " + width + " должна восстановиться");
+            }
+        }
+
+        @Test
+        @DisplayName("Настоящий QR-код переживает упаковку")
+        void packUnpackRealQrCode() throws Exception {
+            BitMatrix matrix = new QRCodeGenerator().generateCodeMatrix("{\"b\":1,\"p\":2,\"n\":\"Апельсины\",\"t\":10}");
+
+            BitMatrix restored = CachingQRCodeGenerator.unpack(CachingQRCodeGenerator.pack(matrix));
+
+            assertEquals(matrix, restored, "Матрица QR-кода должна восстановиться");
+        }
+
+        @Test
+        @DisplayName("Каждая строка занимает целое число байтов после заголовка из ширины и высоты")
+        void packedSizeIsHeaderPlusRowBytes() {
+            byte[] packed = CachingQRCodeGenerator.pack(checkerboard(9, 4));
+
+            assertEquals(8 + 2 * 4, packed.length, "Размер упакованной матрицы 9x4");
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты кэширования матриц")
+    class CacheTests {
+
+        private CachingQRCodeGenerator generator;
+        private int delegateCalls;
+
+        @BeforeEach
+        void setUp() {
+            delegateCalls = 0;
+            QRCodeGenerator delegate = new QRCodeGenerator() {
+                @Override
+                public BitMatrix generateCodeMatrix(String content) throws Exception {
+                    delegateCalls++;
+                    return super.generateCodeMatrix(content);
+                }
+            };
+            generator = new CachingQRCodeGenerator();
+            ReflectionTestUtils.setField(generator, "delegate", delegate);
+            ReflectionTestUtils.setField(generator, "maxBytes", 1024L * 1024);
+            ReflectionTestUtils.setField(generator, "offHeap", false);
+            generator.init();
+        }
+
+        @Test
+        @DisplayName("Повторный запрос той же матрицы не обращается к ZXing и возвращает равную матрицу")
+        void repeatedMatrixIsServedFromCache() throws Exception {
+            // Act
+            BitMatrix first = generator.generateCodeMatrix("box-1");
+            BitMatrix second = generator.generateCodeMatrix("box-1");
+
+            // Assert
+            assertEquals(1, delegateCalls, "ZXing должен вызываться один раз");
+            assertEquals(first, second, "Матрицы из кэша и от ZXing должны совпадать");
+            assertNotSame(first, second, "Каждый вызов получает свою копию матрицы");
+            CacheStats stats = generator.getStats().orElseThrow();
+            assertEquals(1, stats.getHits());
+            assertEquals(1, stats.getMisses());
+        }
+
+        @Test
+        @DisplayName("При нулевом бюджете кэш отключён и каждый запрос идёт в ZXing")
+        void zeroBudgetDisablesCache() throws Exception {
+            // Arrange
+            CachingQRCodeGenerator uncached = new CachingQRCodeGenerator();
+            ReflectionTestUtils.setField(uncached, "delegate", ReflectionTestUtils.getField(generator, "delegate"));
+            ReflectionTestUtils.setField(uncached, "maxBytes", 0L);
+            uncached.init();
+
+            // Act
+            uncached.generateCodeMatrix("box-1");
+            uncached.generateCodeMatrix("box-1");
+
+            // Assert
+            assertEquals(2, delegateCalls, "Без кэша ZXing вызывается на каждый запрос");
+            assertTrue(uncached.getStats().isEmpty(), "Статистики отключённого кэша нет");
+        }
+    }
+}
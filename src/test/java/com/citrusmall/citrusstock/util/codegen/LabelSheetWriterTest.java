@@ -0,0 +1,282 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import com.citrusmall.citrusstock.dto.BoxLabelData;
+import com.google.zxing.common.BitMatrix;
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты LabelSheetWriter")
+class LabelSheetWriterTest {
+
+    private LabelFontProvider fontProvider;
+
+    @BeforeEach
+    void setUp() {
+        fontProvider = new LabelFontProvider();
+        ReflectionTestUtils.invokeMethod(fontProvider, "init");
+    }
+
+    private static BoxLabelData label(long boxId) {
+        return new BoxLabelData(boxId, 8L, 7L, "Апельсины", "ООО Цитрус", (int) boxId, 30,
+                LocalDateTime.of(2026, 3, 1, 9, 0), "{\"b\":" + boxId + "}");
+    }
+
+    /**
+     * Матрица 4x2: в первой строке две серии тёмных модулей, во второй — одна.
+     */
+    private static BitMatrix smallMatrix() {
+        BitMatrix matrix = new BitMatrix(4, 2);
+        matrix.set(0, 0);
+        matrix.set(1, 0);
+        matrix.set(3, 0);
+        matrix.set(1, 1);
+        matrix.set(2, 1);
+        matrix.set(3, 1);
+        return matrix;
+    }
+
+    /**
+     * Рендерит этикетки в документ, сохраняет его и загружает заново.
+     */
+    private PDDocument render(LabelLayout layout, BitMatrix matrix, int count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            try (LabelSheetWriter writer = new LabelSheetWriter(document, layout, fontProvider)) {
+                for (long boxId = 1; boxId <= count; boxId++) {
+                    writer.addLabel(matrix, label(boxId));
+                }
+            }
+            document.save(out);
+        }
+        return PDDocument.load(out.toByteArray());
+    }
+
+    /**
+     * Операнды всех операторов "re" (прямоугольник) страницы.
+     */
+    private static List<float[]> rectangles(PDPage page) throws IOException {
+        PDFStreamParser parser = new PDFStreamParser(page);
+        parser.parse();
+        List<float[]> rectangles = new ArrayList<>();
+        List<Object> operands = new ArrayList<>();
+        for (Object token : parser.getTokens()) {
+            if (token instanceof Operator operator) {
+                if ("re".equals(operator.getName())) {
+                    float[] rect = new float[4];
+                    for (int i = 0; i < 4; i++) {
+                        rect[i] = ((COSNumber) operands.get(i)).floatValue();
+                    }
+                    rectangles.add(rect);
+                }
+                operands.clear();
+            } else {
+                operands.add(token);
+            }
+        }
+        return rectangles;
+    }
+
+    @Nested
+    @DisplayName("Тесты векторного QR-кода")
+    class VectorQrTests {
+
+        @Test
+        @DisplayName("QR-код рисуется прямоугольниками без растрового изображения")
+        void drawsQrWithoutImage() throws Exception {
+            // Arrange
+            BitMatrix matrix = new QRCodeGenerator().generateCodeMatrix("{\"b\":1,\"p\":7}");
+
+            // Act
+            try (PDDocument document = render(LabelLayout.A4, matrix, 1)) {
+                PDPage page = document.getPage(0);
+
+                // Assert
+                assertFalse(page.getResources().getXObjectNames().iterator().hasNext(),
+                        "На странице нет XObject-изображений");
+                assertFalse(rectangles(page).isEmpty(), "Модули QR-кода нарисованы прямоугольниками");
+            }
+        }
+
+        @Test
+        @DisplayName("Соседние тёмные модули строки объединяются в один прямоугольник")
+        void mergesDarkRuns() throws Exception {
+            // Act
+            try (PDDocument document = render(LabelLayout.A4, smallMatrix(), 1)) {
+                List<float[]> rectangles = rectangles(document.getPage(0));
+
+                // Assert: в раскладке A4 QR-код 200 pt, модуль матрицы шириной 4 — 50 pt
+                assertEquals(3, rectangles.size(), "По прямоугольнику на серию модулей");
+                float[] firstRun = rectangles.get(0);
+                assertEquals(100.0, firstRun[2], 0.001, "Серия из двух модулей");
+                assertEquals(50.0, firstRun[3], 0.001, "Высота строки — один модуль");
+                float[] secondRow = rectangles.get(2);
+                assertEquals(150.0, secondRow[2], 0.001, "Серия из трёх модулей");
+                assertEquals(firstRun[1] - 50, secondRow[1], 0.001, "Вторая строка ниже первой на модуль");
+                assertEquals(firstRun[0] + 50, secondRow[0], 0.001, "Вторая строка начинается со второго модуля");
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты раскладки этикеток по листам")
+    class SheetLayoutTests {
+
+        @Test
+        @DisplayName("Сетка 3x8 заполняет лист A4 слева направо и сверху вниз в пределах полей")
+        void computesGridCells() {
+            // Arrange
+            LabelLayout layout = LabelLayout.A4_3X8;
+            LabelTemplate template = LabelTemplate.of(layout);
+            float pageHeight = layout.getPageSize().getHeight();
+
+            // Assert
+            assertEquals(24, template.getLabelsPerPage());
+            assertEquals(layout.getMarginX(), template.getCellX(0), 0.001f);
+            assertEquals(pageHeight - layout.getMarginY(), template.getCellTop(0), 0.001f);
+            assertEquals(template.getCellX(0) + layout.getCellWidth() + layout.getGapX(), template.getCellX(1), 0.001f,
+                    "Вторая ячейка — правее в той же строке");
+            assertEquals(template.getCellTop(0), template.getCellTop(2), 0.001f);
+            assertEquals(template.getCellX(0), template.getCellX(3), 0.001f, "Четвёртая ячейка начинает новую строку");
+            assertEquals(template.getCellTop(0) - layout.getCellHeight() - layout.getGapY(), template.getCellTop(3),
+                    0.001f);
+            assertEquals(layout.getPageSize().getWidth() - layout.getMarginX(),
+                    template.getCellX(23) + layout.getCellWidth(), 0.01f, "Последний столбец доходит до правого поля");
+            assertEquals(layout.getMarginY(), template.getCellTop(23) - layout.getCellHeight(), 0.01f,
+                    "Последняя строка доходит до нижнего поля");
+        }
+
+        @Test
+        @DisplayName("QR-код каждой этикетки попадает в свою ячейку")
+        void drawsLabelsInCells() throws Exception {
+            // Arrange
+            LabelTemplate template = LabelTemplate.of(LabelLayout.A4_3X8);
+
+            // Act
+            try (PDDocument document = render(LabelLayout.A4_3X8, smallMatrix(), 4)) {
+                List<float[]> rectangles = rectangles(document.getPage(0));
+
+                // Assert: три прямоугольника на QR-код каждой этикетки
+                assertEquals(12, rectangles.size());
+                for (int slot = 0; slot < 4; slot++) {
+                    float[] first = rectangles.get(slot * 3);
+                    float cellX = template.getCellX(slot);
+                    float cellTop = template.getCellTop(slot);
+                    assertTrue(first[0] >= cellX && first[0] < cellX + LabelLayout.A4_3X8.getCellWidth(),
+                            "QR-код этикетки " + slot + " внутри ячейки по горизонтали");
+                    assertTrue(first[1] < cellTop && first[1] > cellTop - LabelLayout.A4_3X8.getCellHeight(),
+                            "QR-код этикетки " + slot + " внутри ячейки по вертикали");
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Новый лист добавляется, когда текущий заполнен")
+        void addsPageWhenSheetIsFull() throws Exception {
+            // Act
+            try (PDDocument document = render(LabelLayout.A4_3X8, smallMatrix(), 25)) {
+
+                // Assert
+                assertEquals(2, document.getNumberOfPages(), "24 этикетки на первом листе, одна на втором");
+                assertEquals(24 * 3, rectangles(document.getPage(0)).size());
+                assertEquals(3, rectangles(document.getPage(1)).size());
+            }
+        }
+
+        @Test
+        @DisplayName("Рулонная раскладка — по странице размером с этикетку на коробку")
+        void rollLayoutUsesLabelSizedPages() throws Exception {
+            // Act
+            try (PDDocument document = render(LabelLayout.ROLL_58X40, smallMatrix(), 3)) {
+
+                // Assert
+                assertEquals(3, document.getNumberOfPages());
+                PDPage page = document.getPage(0);
+                assertEquals(LabelLayout.ROLL_58X40.getPageSize().getWidth(), page.getMediaBox().getWidth(), 0.01f);
+                assertEquals(LabelLayout.ROLL_58X40.getPageSize().getHeight(), page.getMediaBox().getHeight(), 0.01f);
+            }
+        }
+
+        @Test
+        @DisplayName("Раскладка находится по коду без учёта регистра, неизвестный код отклоняется")
+        void resolvesLayoutByCode() {
+            assertEquals(LabelLayout.A4_3X8, LabelLayout.fromCode("A4-3x8"));
+            assertThrows(IllegalArgumentException.class, () -> LabelLayout.fromCode("letter"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Тесты шрифта этикеток")
+    class FontTests {
+
+        @Test
+        @DisplayName("Кириллические поля печатаются встроенным шрифтом")
+        void printsCyrillicFields() throws Exception {
+            // Act
+            try (PDDocument document = render(LabelLayout.A4_3X8, smallMatrix(), 1)) {
+                String text = new PDFTextStripper().getText(document);
+
+                // Assert
+                assertTrue(text.contains("Апельсины"), "Название продукта на этикетке: " + text);
+                assertTrue(text.contains("Партия №8"), "Номер партии на этикетке: " + text);
+                assertTrue(text.contains("Коробка 1/30"), "Номер коробки на этикетке: " + text);
+                assertTrue(text.contains("Принято 01.03.2026"), "Дата приёмки на этикетке: " + text);
+            }
+        }
+
+        @Test
+        @DisplayName("Все страницы документа используют один встроенный шрифт")
+        void sharesFontAcrossPages() throws Exception {
+            // Act
+            try (PDDocument document = render(LabelLayout.A4_3X8, smallMatrix(), 30)) {
+
+                // Assert
+                assertEquals(2, document.getNumberOfPages());
+                assertEquals(1, document.getDocument().getObjectsByType(COSName.FONT_DESC).size(),
+                        "Шрифт встроен в документ один раз");
+            }
+        }
+
+        @Test
+        @DisplayName("Символы без глифа заменяются, длинное название обрезается многоточием")
+        void replacesMissingGlyphsAndTruncates() throws Exception {
+            // Arrange
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (PDDocument document = new PDDocument()) {
+                try (LabelSheetWriter writer = new LabelSheetWriter(document, LabelLayout.A4_3X8, fontProvider)) {
+                    writer.addLabel(smallMatrix(), new BoxLabelData(1L, 8L, 7L, "Лимоны 🍋",
+                            "Очень длинное название поставщика цитрусовых из далёкой страны", 1, 1, null, "{}"));
+                }
+                document.save(out);
+            }
+
+            // Act
+            try (PDDocument document = PDDocument.load(out.toByteArray())) {
+                String text = new PDFTextStripper().getText(document);
+
+                // Assert
+                assertTrue(text.contains("Лимоны ?"), "Символ без глифа заменён на '?': " + text);
+                assertTrue(text.contains("Очень длинное") && text.contains("..."),
+                        "Длинное название обрезано: " + text);
+                assertFalse(text.contains("далёкой страны"), "Хвост длинного названия не печатается: " + text);
+            }
+        }
+    }
+}
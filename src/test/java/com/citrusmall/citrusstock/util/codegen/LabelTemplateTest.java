@@ -0,0 +1,90 @@
+package com.citrusmall.citrusstock.util.codegen;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Тесты LabelTemplate")
+class LabelTemplateTest {
+
+    @Nested
+    @DisplayName("Тесты компиляции шаблона")
+    class CompileTests {
+
+        @Test
+        @DisplayName("Шаблон компилируется один раз на раскладку")
+        void returnsSameCompiledTemplate() {
+            for (LabelLayout layout : LabelLayout.values()) {
+                LabelTemplate template = LabelTemplate.of(layout);
+
+                assertSame(template, LabelTemplate.of(layout), "Повторный вызов не пересчитывает геометрию " + layout);
+                assertEquals(layout, template.getLayout());
+                assertEquals(layout.getLabelsPerPage(), template.getLabelsPerPage());
+            }
+        }
+
+        @Test
+        @DisplayName("QR-код и строки текста помещаются в ячейку для всех раскладок")
+        void fitsContentIntoCell() {
+            for (LabelLayout layout : LabelLayout.values()) {
+                LabelTemplate template = LabelTemplate.of(layout);
+                float cellWidth = layout.getCellWidth();
+                float cellHeight = layout.getCellHeight();
+
+                assertTrue(template.getQrSize() > 0 && template.getQrSize() <= layout.getMaxQrSize(),
+                        "Размер QR-кода " + layout);
+                assertTrue(template.getQrOffsetX() + template.getQrSize() <= cellWidth + 0.01f,
+                        "QR-код по ширине ячейки " + layout);
+                assertTrue(template.getQrOffsetTop() + template.getQrSize() <= cellHeight + 0.01f,
+                        "QR-код по высоте ячейки " + layout);
+                for (LabelTemplate.TextSlot slot : template.getTextSlots()) {
+                    assertTrue(slot.baselineOffset() <= cellHeight, "Строка " + slot.field() + " в ячейке " + layout);
+                    assertTrue(slot.maxWidth() > 0, "Ширина строки " + slot.field() + " " + layout);
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("В узкой ячейке QR-код по центру, текст под ним по центру")
+        void centersContentInNarrowCell() {
+            // Arrange
+            LabelTemplate template = LabelTemplate.of(LabelLayout.A4);
+            float cellWidth = LabelLayout.A4.getCellWidth();
+
+            // Assert
+            assertEquals(200.0f, template.getQrSize(), 0.001f);
+            assertEquals((cellWidth - 200) / 2, template.getQrOffsetX(), 0.001f);
+            List<LabelTemplate.TextSlot> slots = template.getTextSlots();
+            assertEquals(1, slots.size());
+            assertEquals(LabelField.PRODUCT_NAME, slots.get(0).field());
+            assertTrue(slots.get(0).centered());
+            assertEquals(cellWidth / 2, slots.get(0).offsetX(), 0.001f);
+            assertTrue(slots.get(0).baselineOffset() > template.getQrOffsetTop() + template.getQrSize(),
+                    "Текст ниже QR-кода");
+        }
+
+        @Test
+        @DisplayName("В широкой ячейке текст справа от QR-кода в порядке полей раскладки")
+        void placesTextBesideQrInWideCell() {
+            // Arrange
+            LabelTemplate template = LabelTemplate.of(LabelLayout.A4_3X8);
+
+            // Assert
+            List<LabelTemplate.TextSlot> slots = template.getTextSlots();
+            assertFalse(slots.isEmpty());
+            float baseline = 0;
+            for (int i = 0; i < slots.size(); i++) {
+                LabelTemplate.TextSlot slot = slots.get(i);
+                assertEquals(LabelLayout.A4_3X8.getFields().get(i), slot.field());
+                assertFalse(slot.centered());
+                assertTrue(slot.offsetX() >= template.getQrOffsetX() + template.getQrSize(), "Текст правее QR-кода");
+                assertTrue(slot.baselineOffset() > baseline, "Строки идут сверху вниз");
+                baseline = slot.baselineOffset();
+            }
+        }
+    }
+}